@@ -0,0 +1,36 @@
+package io.shiftleft.overflowdb;
+
+/**
+ * Decides by how much an edge block in `OdbNode.adjacentNodesWithProperties` grows when it runs out of capacity.
+ * Faster growth means fewer array copies while building the graph, and more unused capacity afterwards - which can be
+ * reclaimed with `OdbGraph.trimToSize`.
+ */
+public enum AdjacencyGrowthPolicy {
+  /** room for twice the current number of edges (plus one) */
+  TRIPLING,
+  /** room for the current number of edges (plus one) */
+  DOUBLING,
+  /** room for half the current number of edges (plus one) */
+  ONE_AND_A_HALF,
+  /** room for the square root of the current number of edges (plus one) - least memory, most array copies */
+  SQRT;
+
+  /**
+   * @param entryCount number of edges (including removed ones) in the full block
+   * @return number of edges the block should have room for in addition, at least 1
+   */
+  public int additionalCapacity(int entryCount) {
+    switch (this) {
+      case TRIPLING:
+        return 2 * (entryCount + 1);
+      case DOUBLING:
+        return entryCount + 1;
+      case ONE_AND_A_HALF:
+        return entryCount / 2 + 1;
+      case SQRT:
+        return (int) Math.ceil(Math.sqrt(entryCount)) + 1;
+      default:
+        throw new IllegalArgumentException("unknown growth policy: " + this);
+    }
+  }
+}
@@ -0,0 +1,101 @@
+package io.shiftleft.overflowdb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Approximates LRU using the 'aging' algorithm: every ref has an 8 bit access history. On every eviction round, the
+ * history is shifted right by one and the access bit (set on `NodeRef.get()`) becomes the most significant bit.
+ * The refs with the smallest history value, i.e. the ones which haven't been accessed for the most rounds, are evicted.
+ *
+ * The history is kept in an array parallel to the refs, so that NodeRef doesn't need an additional field.
+ * Selecting is O(n) in the number of registered refs, since we bucket by the (8 bit) history value rather than sorting.
+ */
+public class ApproximateLruEvictionPolicy implements EvictionPolicy {
+  private static final int INITIAL_CAPACITY = 1024;
+  /* newly registered refs have just been created or faulted in, i.e. they count as accessed */
+  private static final byte REGISTERED_HISTORY = (byte) 0x80;
+
+  private NodeRef[] refs = new NodeRef[INITIAL_CAPACITY];
+  private byte[] histories = new byte[INITIAL_CAPACITY];
+  private int size = 0;
+
+  @Override
+  public void register(NodeRef ref) {
+    register(ref, REGISTERED_HISTORY);
+  }
+
+  /** with an empty history, i.e. as if it hadn't been accessed for the last 8 rounds */
+  @Override
+  public void registerCold(NodeRef ref) {
+    register(ref, (byte) 0);
+  }
+
+  private void register(NodeRef ref, byte history) {
+    if (size == refs.length) {
+      int newCapacity = refs.length + (refs.length >> 1);
+      refs = Arrays.copyOf(refs, newCapacity);
+      histories = Arrays.copyOf(histories, newCapacity);
+    }
+    refs[size] = ref;
+    histories[size] = history;
+    size++;
+  }
+
+  @Override
+  public List<NodeRef> selectForEviction(int count) {
+    if (count <= 0 || size == 0) {
+      return new ArrayList<>(0);
+    }
+
+    /* age all histories and count how many refs there are per history value */
+    final int[] countByHistory = new int[256];
+    for (int i = 0; i < size; i++) {
+      final NodeRef ref = refs[i];
+      if (ref.isSet()) {
+        int history = (histories[i] & 0xFF) >>> 1;
+        if (ref.resetAccessed()) history |= 0x80;
+        histories[i] = (byte) history;
+        countByHistory[history]++;
+      }
+    }
+
+    /* find the history threshold so that we select (at least) `count` refs */
+    int threshold = 0;
+    int belowThresholdCount = 0;
+    while (threshold < 255 && belowThresholdCount + countByHistory[threshold] < count) {
+      belowThresholdCount += countByHistory[threshold];
+      threshold++;
+    }
+    int remainingAtThreshold = count - belowThresholdCount;
+
+    /* select and compact: cleared refs are dropped, they'll be registered again when they are faulted in */
+    final List<NodeRef> selected = new ArrayList<>(Integer.min(count, size));
+    int retained = 0;
+    for (int i = 0; i < size; i++) {
+      final NodeRef ref = refs[i];
+      final int history = histories[i] & 0xFF;
+      if (ref.isCleared()) {
+        continue;
+      } else if (history < threshold) {
+        selected.add(ref);
+      } else if (history == threshold && remainingAtThreshold > 0) {
+        selected.add(ref);
+        remainingAtThreshold--;
+      } else {
+        refs[retained] = ref;
+        histories[retained] = histories[i];
+        retained++;
+      }
+    }
+    Arrays.fill(refs, retained, size, null);
+    size = retained;
+    return selected;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+}
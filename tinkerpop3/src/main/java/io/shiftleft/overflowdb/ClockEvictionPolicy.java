@@ -0,0 +1,52 @@
+package io.shiftleft.overflowdb;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * CLOCK a.k.a. second chance: the clock hand sweeps over the registered refs, and refs which have been accessed since
+ * the last sweep get their access bit reset and are moved to the back, i.e. they get a second chance.
+ * Refs that have been cleared in the meantime are dropped - they'll be registered again when they are faulted in.
+ */
+public class ClockEvictionPolicy implements EvictionPolicy {
+  private final ArrayDeque<NodeRef> refs = new ArrayDeque<>();
+
+  @Override
+  public void register(NodeRef ref) {
+    refs.add(ref);
+  }
+
+  /** right in front of the clock hand - unless it's accessed before the next sweep, it's the first one to go */
+  @Override
+  public void registerCold(NodeRef ref) {
+    refs.addFirst(ref);
+  }
+
+  @Override
+  public List<NodeRef> selectForEviction(int count) {
+    final List<NodeRef> selected = new ArrayList<>(Integer.min(count, refs.size()));
+    /* after one full revolution all access bits are reset, so two revolutions are enough, even if other threads
+     * keep setting access bits concurrently */
+    long remainingSweeps = 2L * refs.size();
+    while (count > 0 && !refs.isEmpty()) {
+      final NodeRef ref = refs.poll();
+      if (ref.isCleared()) {
+        continue;
+      }
+      if (ref.resetAccessed() && remainingSweeps > 0) {
+        refs.add(ref);
+      } else {
+        selected.add(ref);
+        count--;
+      }
+      remainingSweeps--;
+    }
+    return selected;
+  }
+
+  @Override
+  public int size() {
+    return refs.size();
+  }
+}
@@ -7,7 +7,9 @@ import java.util.Iterator;
 import java.util.NoSuchElementException;
 
 public class DummyEdgeIterator implements Iterator<Edge> {
+  /* either the adjacent nodes, or their ordinals (see `NodeLayoutInformation.AdjacencyLayout`) */
   private final Object[] array;
+  private final int[] ordinals;
   private int current;
   private final int begin;
   private final int exclusiveEnd;
@@ -15,10 +17,23 @@ public class DummyEdgeIterator implements Iterator<Edge> {
   private final Direction direction;
   private final String label;
   private final NodeRef thisRef;
+  /* compaction epoch of `array`, i.e. the epoch the block offsets are valid in */
+  private final OdbNode.AdjacencyEpoch epoch;
 
   public DummyEdgeIterator(Object[] array, int begin, int exclusiveEnd, int strideSize,
-                           Direction direction, String label, NodeRef thisRef) {
+                           Direction direction, String label, NodeRef thisRef, OdbNode.AdjacencyEpoch epoch) {
+    this(array, null, begin, exclusiveEnd, strideSize, direction, label, thisRef, epoch);
+  }
+
+  public DummyEdgeIterator(int[] ordinals, int begin, int exclusiveEnd, int strideSize,
+                           Direction direction, String label, NodeRef thisRef, OdbNode.AdjacencyEpoch epoch) {
+    this(null, ordinals, begin, exclusiveEnd, strideSize, direction, label, thisRef, epoch);
+  }
+
+  private DummyEdgeIterator(Object[] array, int[] ordinals, int begin, int exclusiveEnd, int strideSize,
+                            Direction direction, String label, NodeRef thisRef, OdbNode.AdjacencyEpoch epoch) {
     this.array = array;
+    this.ordinals = ordinals;
     this.begin = begin;
     this.current = begin;
     this.exclusiveEnd = exclusiveEnd;
@@ -26,12 +41,13 @@ public class DummyEdgeIterator implements Iterator<Edge> {
     this.direction = direction;
     this.label = label;
     this.thisRef = thisRef;
+    this.epoch = epoch;
   }
 
   @Override
   public boolean hasNext() {
     /* there may be holes, e.g. if an edge was removed */
-    while (current < exclusiveEnd && array[current] == null) {
+    while (current < exclusiveEnd && isHole(current)) {
       current += strideSize;
     }
     return current < exclusiveEnd;
@@ -41,16 +57,20 @@ public class DummyEdgeIterator implements Iterator<Edge> {
   public Edge next() {
     if (!hasNext()) throw new NoSuchElementException();
 
-    NodeRef otherRef = (NodeRef) array[current];
+    NodeRef otherRef = ordinals != null ? thisRef.graph.nodeByOrdinal(ordinals[current]) : (NodeRef) array[current];
     OdbEdge dummyEdge;
     if (direction == Direction.OUT) {
       dummyEdge = thisRef.get().instantiateDummyEdge(label, thisRef, otherRef);
-      dummyEdge.setOutBlockOffset(current - begin);
+      dummyEdge.setOutBlockOffset(current - begin, epoch);
     } else {
       dummyEdge = thisRef.get().instantiateDummyEdge(label, otherRef, thisRef);
-      dummyEdge.setInBlockOffset(current - begin);
+      dummyEdge.setInBlockOffset(current - begin, epoch);
     }
     current += strideSize;
     return dummyEdge;
   }
+
+  private boolean isHole(int index) {
+    return ordinals != null ? ordinals[index] == OdbNode.NO_ADJACENT_NODE : array[index] == null;
+  }
 }
@@ -0,0 +1,58 @@
+package io.shiftleft.overflowdb;
+
+import java.util.List;
+
+/**
+ * Decides which of the registered (i.e. currently set) NodeRefs will be cleared by the ReferenceManager when the heap
+ * is running low. Policies make their decisions based on the cheap access bit that is set on every `NodeRef.get()`.
+ *
+ * Implementations don't need to be thread safe - the ReferenceManager takes care of that.
+ */
+public interface EvictionPolicy {
+
+  /** called whenever a node is created or faulted in from storage */
+  void register(NodeRef ref);
+
+  /**
+   * called when a node has been read from storage speculatively (see NeighborPrefetcher), i.e. it hasn't been
+   * accessed yet and shouldn't be treated as recently used
+   */
+  default void registerCold(NodeRef ref) {
+    register(ref);
+  }
+
+  /**
+   * select (and unregister) up to `count` refs to be cleared.
+   * n.b. the returned refs may have been cleared in the meantime, callers need to check `NodeRef.isSet`
+   */
+  List<NodeRef> selectForEviction(int count);
+
+  /** number of refs that are currently registered */
+  int size();
+
+  default boolean isEmpty() {
+    return size() == 0;
+  }
+
+  enum Type {
+    /** evict in the order the refs were registered, irrespective of their usage */
+    FIFO,
+    /** CLOCK a.k.a. second chance: refs that have been accessed since the last sweep are spared once */
+    CLOCK,
+    /** aging algorithm: keeps a small access history per ref and evicts the least recently used ones */
+    APPROXIMATE_LRU;
+
+    public EvictionPolicy create() {
+      switch (this) {
+        case FIFO:
+          return new FifoEvictionPolicy();
+        case CLOCK:
+          return new ClockEvictionPolicy();
+        case APPROXIMATE_LRU:
+          return new ApproximateLruEvictionPolicy();
+        default:
+          throw new IllegalArgumentException("unknown eviction policy type: " + this);
+      }
+    }
+  }
+}
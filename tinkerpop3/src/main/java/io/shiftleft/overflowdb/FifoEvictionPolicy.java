@@ -0,0 +1,32 @@
+package io.shiftleft.overflowdb;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * evicts refs in the order they were registered - this was the only behaviour before policies became pluggable
+ */
+public class FifoEvictionPolicy implements EvictionPolicy {
+  private final ArrayDeque<NodeRef> refs = new ArrayDeque<>();
+
+  @Override
+  public void register(NodeRef ref) {
+    refs.add(ref);
+  }
+
+  @Override
+  public List<NodeRef> selectForEviction(int count) {
+    final List<NodeRef> selected = new ArrayList<>(Integer.min(count, refs.size()));
+    while (count > 0 && !refs.isEmpty()) {
+      selected.add(refs.poll());
+      count--;
+    }
+    return selected;
+  }
+
+  @Override
+  public int size() {
+    return refs.size();
+  }
+}
@@ -0,0 +1,86 @@
+package io.shiftleft.overflowdb;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free histogram of durations in nanoseconds, with one bucket per power of two: recording a value is a couple of
+ * (uncontended) additions, i.e. cheap enough to leave enabled.
+ * Percentiles are therefore only accurate to a factor of two - the upper bound of the bucket is reported.
+ */
+public class LatencyHistogram {
+  private static final int BUCKET_COUNT = 64;
+
+  /* bucket i holds values in [2^(i-1), 2^i), bucket 0 holds 0 */
+  private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+  private final LongAdder totalNanos = new LongAdder();
+
+  public LatencyHistogram() {
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      buckets[i] = new LongAdder();
+    }
+  }
+
+  public void record(long nanos) {
+    if (nanos < 0) nanos = 0;
+    buckets[BUCKET_COUNT - Long.numberOfLeadingZeros(nanos)].increment();
+    totalNanos.add(nanos);
+  }
+
+  public long count() {
+    long count = 0;
+    for (LongAdder bucket : buckets) {
+      count += bucket.sum();
+    }
+    return count;
+  }
+
+  public long totalNanos() {
+    return totalNanos.sum();
+  }
+
+  public double meanNanos() {
+    final long count = count();
+    return count == 0 ? 0 : totalNanos() / (double) count;
+  }
+
+  /**
+   * @param percentile between 0 and 100
+   * @return upper bound (in nanoseconds) of the bucket which contains the given percentile, 0 if nothing was recorded
+   */
+  public long percentileNanos(double percentile) {
+    final long[] counts = new long[BUCKET_COUNT];
+    long count = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      counts[i] = buckets[i].sum();
+      count += counts[i];
+    }
+    final long rank = (long) Math.ceil(count * percentile / 100);
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += counts[i];
+      if (seen >= rank && counts[i] > 0) {
+        return (1L << i) - 1;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * not atomic: values recorded concurrently may or may not be included afterwards
+   */
+  public void reset() {
+    for (LongAdder bucket : buckets) {
+      bucket.reset();
+    }
+    totalNanos.reset();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("count=%d mean=%.1fus p50<=%.1fus p99<=%.1fus",
+        count(),
+        meanNanos() / 1000,
+        percentileNanos(50) / 1000d,
+        percentileNanos(99) / 1000d);
+  }
+}
@@ -0,0 +1,120 @@
+package io.shiftleft.overflowdb;
+
+import org.apache.tinkerpop.gremlin.structure.Direction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * When a node has been faulted in from storage, it's adjacency is almost always traversed next - and the cleared
+ * neighbors would need to be read from storage one by one. Instead, the first traversal of a faulted in node's
+ * adjacency (see `OdbNode.requestNeighborPrefetch`) triggers the prefetcher, which reads the cleared neighbors for the
+ * traversed direction and label asynchronously, in one storage batch (see `OdbStorage.readNodes`), so that the
+ * traversal (hopefully) finds them in memory. Up to `maxDepth` levels of neighbors are prefetched, following the same
+ * direction and label, one batch per level.
+ *
+ * Prefetched nodes are neither marked as accessed nor registered as recently used, since they've only been read
+ * speculatively (see `EvictionPolicy.registerCold`). Threads accessing a node while it's being prefetched wait for it
+ * rather than reading it themselves.
+ *
+ * Prefetch requests are queued in a bounded queue, and are dropped if it is full - prefetching is only an
+ * optimization after all. Requests only hold on to node ids, i.e. they don't keep cleared nodes from being garbage
+ * collected.
+ */
+public class NeighborPrefetcher implements AutoCloseable {
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+  private final OdbGraph graph;
+  private final int maxDepth;
+  private final ThreadPoolExecutor executor;
+
+  public NeighborPrefetcher(OdbGraph graph, int maxDepth, int queueSize) {
+    if (maxDepth < 1) {
+      throw new IllegalArgumentException("maxDepth must be at least 1, but is " + maxDepth);
+    }
+    this.graph = graph;
+    this.maxDepth = maxDepth;
+    this.executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(queueSize),
+        runnable -> {
+          Thread thread = new Thread(runnable, "overflowdb-neighbor-prefetcher");
+          thread.setDaemon(true);
+          return thread;
+        },
+        new ThreadPoolExecutor.DiscardPolicy());
+  }
+
+  /**
+   * asynchronously read the cleared neighbors of the given node (for the given direction and label) from storage
+   */
+  public void prefetch(long nodeId, Direction direction, String label) {
+    prefetch(new long[]{nodeId}, direction, label, 1);
+  }
+
+  private void prefetch(long[] nodeIds, Direction direction, String label, int depth) {
+    if (!executor.isShutdown()) {
+      executor.execute(() -> prefetchNow(nodeIds, direction, label, depth));
+    }
+  }
+
+  /**
+   * reads the cleared neighbors of all given nodes which are (still) in memory
+   */
+  private void prefetchNow(long[] nodeIds, Direction direction, String label, int depth) {
+    final List<NodeRef> claimedNeighbors = new ArrayList<>();
+    long[] neighborIds = null;
+    List<OdbNode> neighborNodes = null;
+    try {
+      for (long nodeId : nodeIds) {
+        final NodeRef ref = graph.nodes.get(nodeId);
+        final OdbNode node = ref != null ? ref.getIfSet() : null;
+        if (node != null) {
+          for (NodeRef neighbor : node.clearedAdjacentNodes(direction, label)) {
+            /* also skips neighbors which are already being read, or which we've seen before */
+            if (neighbor.beginPrefetch()) {
+              claimedNeighbors.add(neighbor);
+            }
+          }
+        }
+      }
+      if (claimedNeighbors.isEmpty() || executor.isShutdown()) {
+        return;
+      }
+      claimedNeighbors.sort(Comparator.comparingLong(neighbor -> neighbor.id));
+      neighborIds = new long[claimedNeighbors.size()];
+      for (int i = 0; i < neighborIds.length; i++) {
+        neighborIds[i] = claimedNeighbors.get(i).id;
+      }
+      neighborNodes = graph.readNodes(neighborIds);
+    } catch (Exception e) {
+      logger.debug("unable to prefetch " + claimedNeighbors.size() + " nodes", e);
+    } finally {
+      for (int i = 0; i < claimedNeighbors.size(); i++) {
+        claimedNeighbors.get(i).completePrefetch(neighborNodes != null ? neighborNodes.get(i) : null);
+      }
+    }
+    if (neighborNodes != null && depth < maxDepth) {
+      prefetch(neighborIds, direction, label, depth + 1);
+    }
+  }
+
+  /**
+   * drops all pending requests, and waits for the current one to finish. n.b. it mustn't be interrupted: interrupting a
+   * thread which is reading from a file channel closes the channel, i.e. the storage
+   */
+  @Override
+  public void close() {
+    executor.getQueue().clear();
+    executor.shutdown();
+    try {
+      executor.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,41 @@
+package io.shiftleft.overflowdb;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the adjacent nodes of a block in the NODE_IDS and COLUMNAR adjacency layouts, see
+ * `NodeLayoutInformation.AdjacencyLayout`: resolves the ordinals via the graph's node table, and skips removed edges.
+ */
+public class NodeIdIterator implements Iterator<NodeRef> {
+  private final OdbGraph graph;
+  private final int[] ordinals;
+  private int current;
+  private final int exclusiveEnd;
+  private final int strideSize;
+
+  public NodeIdIterator(OdbGraph graph, int[] ordinals, int begin, int exclusiveEnd, int strideSize) {
+    this.graph = graph;
+    this.ordinals = ordinals;
+    this.current = begin;
+    this.exclusiveEnd = exclusiveEnd;
+    this.strideSize = strideSize;
+  }
+
+  @Override
+  public boolean hasNext() {
+    while (current < exclusiveEnd && ordinals[current] == OdbNode.NO_ADJACENT_NODE) {
+      current += strideSize;
+    }
+    return current < exclusiveEnd;
+  }
+
+  @Override
+  public NodeRef next() {
+    if (!hasNext()) throw new NoSuchElementException();
+
+    final NodeRef nodeRef = graph.nodeByOrdinal(ordinals[current]);
+    current += strideSize;
+    return nodeRef;
+  }
+}
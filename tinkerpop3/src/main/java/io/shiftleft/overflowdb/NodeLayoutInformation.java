@@ -1,11 +1,11 @@
 package io.shiftleft.overflowdb;
 
+import io.shiftleft.overflowdb.util.StringOrdinals;
+
+import java.util.Arrays;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Objects;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
@@ -18,77 +18,157 @@ import java.util.TreeSet;
  * Please make sure to instantiate only one instance per node type to not waste memory.
  */
 public class NodeLayoutInformation {
+  /* dense ordinals of all edge labels and edge property keys of all node types, so that the lookups below are plain
+   * array accesses. They're shared by all node types (and graphs), since the layout information is usually static */
+  private static final StringOrdinals edgeLabelOrdinals = new StringOrdinals();
+  private static final StringOrdinals edgePropertyKeyOrdinals = new StringOrdinals();
+
   private final Set<String> propertyKeys;
+  private final String[] sortedPropertyKeys;
   private final String[] allowedOutEdgeLabels;
   private final String[] allowedInEdgeLabels;
 
-  /* position for given OUT edge label in edgeOffsets */
-  private final Map<String, Integer> outEdgeToOffsetPosition;
+  /* position for given OUT edge label (ordinal) in edgeOffsets, -1 if the edge label isn't supported */
+  private final int[] outEdgeToOffsetPosition;
 
-  /* position for given IN edge label in edgeOffsets */
-  private final Map<String, Integer> inEdgeToOffsetPosition;
+  /* position for given IN edge label (ordinal) in edgeOffsets, -1 if the edge label isn't supported */
+  private final int[] inEdgeToOffsetPosition;
 
-  /* possible edge property keys, grouped by edge label.
+  /* possible edge property keys, by edge label ordinal.
    * n.b. property keys are of type `HashSet` (rather than just `Set`) to ensure `.size` has constant time */
-  private final Map<String, HashSet<String>> edgePropertyKeysByLabel;
+  private final HashSet<String>[] edgePropertyKeysByLabel;
+
+  /* position in stride (entry within `adjacentNodesWithProperties`) by edge label ordinal and edge property key ordinal
+   * 1-based, because index `0` is the adjacent node ref. -1 if the edge doesn't have that property */
+  private final int[][] edgeLabelAndKeyToStrideIndex;
+
+  /* stride size (node ref plus edge properties) for each position in edgeOffsets */
+  private final int[] strideSizeByOffsetPosition;
 
-  /* position in stride (entry within `adjacentNodesWithProperties`) for a given edge label and edge property key
-   * 1-based, because index `0` is the adjacent node ref */
-  private final Map<LabelAndKey, Integer> edgeLabelAndKeyToStrideIndex;
+  private final AdjacencyLayout adjacencyLayout;
+  private final boolean hasEdgeProperties;
+  /* maximum number of edge properties of all edge types */
+  private final int edgePropertyColumnCount;
+
+  /**
+   * How OdbNode stores the adjacent nodes.
+   * NODE_REFS: refs to the adjacent nodes, interleaved with the edge properties in one `Object[]`.
+   * NODE_IDS: the ordinals of the adjacent nodes (see `OdbGraph.nodeByOrdinal`) in an `int[]`, one per edge, which are
+   * resolved via the graph's node table when traversing. The edge properties of each edge are kept next to each other
+   * in a separate `Object[]`, which is only allocated if there are edge properties. Since the ordinals aren't
+   * references, the garbage collector doesn't need to trace them - that's worth the table lookup for node types with
+   * many edges.
+   * COLUMNAR: like NODE_IDS, but each edge property has it's own column: iterating over one edge property only touches
+   * the relevant values.
+   * For both NODE_IDS and COLUMNAR, every edge has room for `edgePropertyColumnCount` properties, i.e. they're best
+   * suited for node types whose edges have the same properties.
+   */
+  public enum AdjacencyLayout {NODE_REFS, NODE_IDS, COLUMNAR}
 
   public NodeLayoutInformation(Set<String> propertyKeys,
                                List<EdgeLayoutInformation> outEdgeLayouts,
                                List<EdgeLayoutInformation> inEdgeLayouts) {
+    this(propertyKeys, outEdgeLayouts, inEdgeLayouts, AdjacencyLayout.NODE_REFS);
+  }
+
+  public NodeLayoutInformation(Set<String> propertyKeys,
+                               List<EdgeLayoutInformation> outEdgeLayouts,
+                               List<EdgeLayoutInformation> inEdgeLayouts,
+                               AdjacencyLayout adjacencyLayout) {
     this.propertyKeys = propertyKeys;
+    this.adjacencyLayout = adjacencyLayout;
+    this.sortedPropertyKeys = propertyKeys.stream().sorted().toArray(String[]::new);
 
     Set<EdgeLayoutInformation> allEdgeLayouts = new HashSet<>();
     allEdgeLayouts.addAll(outEdgeLayouts);
     allEdgeLayouts.addAll(inEdgeLayouts);
 
-    edgePropertyKeysByLabel = createEdgePropertyKeysByLabel(allEdgeLayouts);
-    edgeLabelAndKeyToStrideIndex = createEdgeLabelAndKeyToStrideIndex(allEdgeLayouts);
+    int labelOrdinalCount = 0;
+    int keyOrdinalCount = 0;
+    for (EdgeLayoutInformation edgeLayout : allEdgeLayouts) {
+      labelOrdinalCount = Integer.max(labelOrdinalCount, edgeLabelOrdinals.register(edgeLayout.label) + 1);
+      for (String propertyKey : edgeLayout.propertyKeys) {
+        keyOrdinalCount = Integer.max(keyOrdinalCount, edgePropertyKeyOrdinals.register(propertyKey) + 1);
+      }
+    }
+
+    edgePropertyKeysByLabel = createEdgePropertyKeysByLabel(allEdgeLayouts, labelOrdinalCount);
+    edgeLabelAndKeyToStrideIndex = createEdgeLabelAndKeyToStrideIndex(allEdgeLayouts, labelOrdinalCount, keyOrdinalCount);
 
     /* create unique offsets for each edge type and direction
      * sort them by edge label to ensure we get the same offsets between restarts
      * n.b. this doesn't support schema changes */
     int offsetPosition = 0;
-    outEdgeToOffsetPosition = new HashMap<>(outEdgeLayouts.size());
+    strideSizeByOffsetPosition = new int[outEdgeLayouts.size() + inEdgeLayouts.size()];
+    outEdgeToOffsetPosition = new int[labelOrdinalCount];
+    Arrays.fill(outEdgeToOffsetPosition, -1);
+    allowedOutEdgeLabels = new String[outEdgeLayouts.size()];
     for (EdgeLayoutInformation edgeLayout : sortByLabel(outEdgeLayouts)) {
-      outEdgeToOffsetPosition.put(edgeLayout.label, offsetPosition++);
+      strideSizeByOffsetPosition[offsetPosition] = 1 + edgeLayout.propertyKeys.size();
+      allowedOutEdgeLabels[offsetPosition] = edgeLayout.label;
+      outEdgeToOffsetPosition[edgeLabelOrdinal(edgeLayout.label)] = offsetPosition++;
     }
-    inEdgeToOffsetPosition = new HashMap<>(inEdgeLayouts.size());
+    inEdgeToOffsetPosition = new int[labelOrdinalCount];
+    Arrays.fill(inEdgeToOffsetPosition, -1);
+    allowedInEdgeLabels = new String[inEdgeLayouts.size()];
     for (EdgeLayoutInformation edgeLayout : sortByLabel(inEdgeLayouts)) {
-      inEdgeToOffsetPosition.put(edgeLayout.label, offsetPosition++);
+      strideSizeByOffsetPosition[offsetPosition] = 1 + edgeLayout.propertyKeys.size();
+      allowedInEdgeLabels[offsetPosition - outEdgeLayouts.size()] = edgeLayout.label;
+      inEdgeToOffsetPosition[edgeLabelOrdinal(edgeLayout.label)] = offsetPosition++;
     }
 
-    /* only so we don't need to calculate it every time */
-    allowedOutEdgeLabels = outEdgeToOffsetPosition.keySet().toArray(new String[0]);
-    allowedInEdgeLabels = inEdgeToOffsetPosition.keySet().toArray(new String[0]);
+    int maxStrideSize = 1;
+    for (int strideSize : strideSizeByOffsetPosition) {
+      maxStrideSize = Integer.max(maxStrideSize, strideSize);
+    }
+    this.hasEdgeProperties = maxStrideSize > 1;
+    this.edgePropertyColumnCount = maxStrideSize - 1;
   }
 
-  private Map<String, HashSet<String>> createEdgePropertyKeysByLabel(Set<EdgeLayoutInformation> allEdgeLayouts) {
-    Map<String, HashSet<String>> edgePropertyKeysByLabel = new HashMap<>(allEdgeLayouts.size());
+  private HashSet<String>[] createEdgePropertyKeysByLabel(Set<EdgeLayoutInformation> allEdgeLayouts, int labelOrdinalCount) {
+    HashSet<String>[] edgePropertyKeysByLabel = new HashSet[labelOrdinalCount];
     for (EdgeLayoutInformation edgeLayout : allEdgeLayouts) {
-      edgePropertyKeysByLabel.put(edgeLayout.label, new HashSet<>(edgeLayout.propertyKeys));
+      edgePropertyKeysByLabel[edgeLabelOrdinal(edgeLayout.label)] = new HashSet<>(edgeLayout.propertyKeys);
     }
     return edgePropertyKeysByLabel;
   }
 
-  private Map<LabelAndKey, Integer> createEdgeLabelAndKeyToStrideIndex(Set<EdgeLayoutInformation> allEdgeLayouts) {
-    Map<LabelAndKey, Integer> edgeLabelAndKeyToStrideIndex = new HashMap<>(allEdgeLayouts.size());
+  private int[][] createEdgeLabelAndKeyToStrideIndex(Set<EdgeLayoutInformation> allEdgeLayouts,
+                                                     int labelOrdinalCount,
+                                                     int keyOrdinalCount) {
+    int[][] edgeLabelAndKeyToStrideIndex = new int[labelOrdinalCount][];
     for (EdgeLayoutInformation edgeLayout : allEdgeLayouts) {
+      int[] strideIndexByKey = new int[keyOrdinalCount];
+      Arrays.fill(strideIndexByKey, -1);
       /* 1-based, because index `0` is the adjacent node ref */
       int strideIndex = 1;
 
       /* sort property keys to ensure we get the same offsets between restarts
        * n.b. this doesn't support schema changes */
       for (String propertyKey : sorted(edgeLayout.propertyKeys)) {
-        edgeLabelAndKeyToStrideIndex.put(new LabelAndKey(edgeLayout.label, propertyKey), strideIndex++);
+        strideIndexByKey[edgePropertyKeyOrdinal(propertyKey)] = strideIndex++;
       }
+      edgeLabelAndKeyToStrideIndex[edgeLabelOrdinal(edgeLayout.label)] = strideIndexByKey;
     }
     return edgeLabelAndKeyToStrideIndex;
   }
 
+  /**
+   * @return the ordinal of the given edge label, which is the same for all node types, or -1 if no node type has
+   * edges with that label
+   */
+  public static int edgeLabelOrdinal(String edgeLabel) {
+    return edgeLabelOrdinals.ordinalOf(edgeLabel);
+  }
+
+  /**
+   * @return the ordinal of the given edge property key, which is the same for all node types, or -1 if no edge type
+   * has that property
+   */
+  public static int edgePropertyKeyOrdinal(String key) {
+    return edgePropertyKeyOrdinals.ordinalOf(key);
+  }
+
   private Iterable<String> sorted(Set<String> propertyKeys) {
     SortedSet<String> sortedSet = new TreeSet<>(String::compareTo);
     sortedSet.addAll(propertyKeys);
@@ -105,6 +185,12 @@ public class NodeLayoutInformation {
     return propertyKeys;
   }
 
+  /* property keys in a stable order, e.g. for serialization
+   * n.b. this doesn't support schema changes */
+  public String[] sortedPropertyKeys() {
+    return sortedPropertyKeys;
+  }
+
   public String[] allowedOutEdgeLabels() {
     return allowedOutEdgeLabels;
   }
@@ -114,23 +200,88 @@ public class NodeLayoutInformation {
   }
 
   public Set<String> edgePropertyKeys(String edgeLabel) {
-    return edgePropertyKeysByLabel.get(edgeLabel);
+    return edgePropertyKeys(edgeLabelOrdinal(edgeLabel));
+  }
+
+  /* possible edge property keys for the given edge label ordinal, `null` if the edge label isn't supported */
+  public Set<String> edgePropertyKeys(int edgeLabelOrdinal) {
+    return edgeLabelOrdinal >= 0 && edgeLabelOrdinal < edgePropertyKeysByLabel.length ?
+        edgePropertyKeysByLabel[edgeLabelOrdinal] : null;
   }
 
   /* The number fo different IN|OUT edge relations. E.g. a node has AST edges in and out, then we would have 2.
    * If in addition it has incoming ref edges it would have 3. */
   public int numberOfDifferentAdjacentTypes() {
-    return outEdgeToOffsetPosition.size() + inEdgeToOffsetPosition.size();
+    return strideSizeByOffsetPosition.length;
+  }
+
+  public AdjacencyLayout adjacencyLayout() {
+    return adjacencyLayout;
+  }
+
+  /* whether any of the edge types has properties, i.e. a stride size above 1 */
+  public boolean hasEdgeProperties() {
+    return hasEdgeProperties;
+  }
+
+  /* number of edge properties per edge in the NODE_IDS and COLUMNAR adjacency layouts: the maximum of all edge types */
+  public int edgePropertyColumnCount() {
+    return edgePropertyColumnCount;
+  }
+
+  /* distance between the indices of two adjacent edges of the edge type at the given position in
+   * OverflowDbNode.edgeOffsets: the stride size for the NODE_REFS adjacency layout, 1 otherwise */
+  public int indexStride(int offsetPosition) {
+    return adjacencyLayout == AdjacencyLayout.NODE_REFS ? strideSizeByOffsetPosition[offsetPosition] : 1;
+  }
+
+  /**
+   * @param adjacentNodeIndex index of the edge (i.e. it's adjacent node)
+   * @param strideIndex       position of the property in the stride, see `getOffsetRelativeToAdjacentNodeRef`
+   * @param capacity          length of the adjacency arrays, including free capacity
+   * @return the index of the edge property in OverflowDbNode.adjacentNodesWithProperties, which only holds the edge
+   * properties for the NODE_IDS (`edgePropertyColumnCount` values per edge) and COLUMNAR (one column of `capacity`
+   * values per edge property) adjacency layouts
+   */
+  public int edgePropertyIndex(int adjacentNodeIndex, int strideIndex, int capacity) {
+    switch (adjacencyLayout) {
+      case NODE_IDS:
+        return adjacentNodeIndex * edgePropertyColumnCount + strideIndex - 1;
+      case COLUMNAR:
+        return (strideIndex - 1) * capacity + adjacentNodeIndex;
+      default:
+        return adjacentNodeIndex + strideIndex;
+    }
+  }
+
+  /* number of elements in OverflowDbNode.adjacentNodesWithProperties per edge (node ref and edge properties),
+   * for the edge type at the given position in OverflowDbNode.edgeOffsets */
+  public int strideSize(int offsetPosition) {
+    return strideSizeByOffsetPosition[offsetPosition];
   }
 
   /* position for given OUT edge label in OverflowDbNode.edgeOffsets */
   public Integer outEdgeToOffsetPosition(String edgeLabel) {
-    return outEdgeToOffsetPosition.get(edgeLabel);
+    final int offsetPosition = outEdgeToOffsetPosition(edgeLabelOrdinal(edgeLabel));
+    return offsetPosition == -1 ? null : offsetPosition;
   }
 
   /* position for given IN edge label in OverflowDbNode.edgeOffsets */
   public Integer inEdgeToOffsetPosition(String edgeLabel) {
-    return inEdgeToOffsetPosition.get(edgeLabel);
+    final int offsetPosition = inEdgeToOffsetPosition(edgeLabelOrdinal(edgeLabel));
+    return offsetPosition == -1 ? null : offsetPosition;
+  }
+
+  /* position for given OUT edge label ordinal in OverflowDbNode.edgeOffsets, -1 if the edge label isn't supported */
+  public int outEdgeToOffsetPosition(int edgeLabelOrdinal) {
+    return edgeLabelOrdinal >= 0 && edgeLabelOrdinal < outEdgeToOffsetPosition.length ?
+        outEdgeToOffsetPosition[edgeLabelOrdinal] : -1;
+  }
+
+  /* position for given IN edge label ordinal in OverflowDbNode.edgeOffsets, -1 if the edge label isn't supported */
+  public int inEdgeToOffsetPosition(int edgeLabelOrdinal) {
+    return edgeLabelOrdinal >= 0 && edgeLabelOrdinal < inEdgeToOffsetPosition.length ?
+        inEdgeToOffsetPosition[edgeLabelOrdinal] : -1;
   }
 
   /**
@@ -138,33 +289,18 @@ public class NodeLayoutInformation {
    * Return -1 if key does not exist for given edgeLabel.
    */
   public int getOffsetRelativeToAdjacentNodeRef(String edgeLabel, String key) {
-    return edgeLabelAndKeyToStrideIndex.getOrDefault(new LabelAndKey(edgeLabel, key), -1);
+    return getOffsetRelativeToAdjacentNodeRef(edgeLabelOrdinal(edgeLabel), edgePropertyKeyOrdinal(key));
   }
 
-  class LabelAndKey {
-    final String label;
-    final String propertyKey;
-
-    LabelAndKey(String label, String propertyKey) {
-      this.label = label;
-      this.propertyKey = propertyKey;
-    }
-
-    @Override
-    public boolean equals(Object o) {
-      if (this == o) return true;
-      if (o == null || getClass() != o.getClass()) return false;
-      LabelAndKey that = (LabelAndKey) o;
-      return label.equals(that.label) &&
-          propertyKey.equals(that.propertyKey);
-    }
-
-    @Override
-    public int hashCode() {
-      return Objects.hash(label, propertyKey);
+  /* same as above, for the edge label and property key ordinals */
+  public int getOffsetRelativeToAdjacentNodeRef(int edgeLabelOrdinal, int keyOrdinal) {
+    if (edgeLabelOrdinal < 0 || edgeLabelOrdinal >= edgeLabelAndKeyToStrideIndex.length) {
+      return -1;
     }
+    final int[] strideIndexByKey = edgeLabelAndKeyToStrideIndex[edgeLabelOrdinal];
+    return strideIndexByKey != null && keyOrdinal >= 0 && keyOrdinal < strideIndexByKey.length ?
+        strideIndexByKey[keyOrdinal] : -1;
   }
 
-
 }
 
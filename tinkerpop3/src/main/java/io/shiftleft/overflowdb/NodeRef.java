@@ -8,6 +8,7 @@ import org.apache.tinkerpop.gremlin.structure.VertexProperty;
 
 import java.io.IOException;
 import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
  * Wrapper for a node, which may be set to `null` by @ReferenceManager and persisted to storage to avoid `OutOfMemory` errors.
@@ -18,7 +19,21 @@ import java.util.Iterator;
 public abstract class NodeRef<N extends OdbNode> implements Vertex {
   public final long id;
   protected final OdbGraph graph;
-  private N node;
+
+  static final int NO_ORDINAL = -1;
+  /* see `OdbGraph.nodeByOrdinal` - only set for the graph's own instance, i.e. the one in `OdbGraph.nodes` */
+  int ordinal = NO_ORDINAL;
+
+  /* either the node (type N), `null` if it has been cleared, or a `FaultIn` while it is being read from storage.
+   * volatile for safe publication of the node to other threads */
+  private volatile Object node;
+
+  private static final AtomicReferenceFieldUpdater<NodeRef, Object> NODE_UPDATER =
+      AtomicReferenceFieldUpdater.newUpdater(NodeRef.class, Object.class, "node");
+
+  /* set on every `get`, reset by the EvictionPolicy. Not volatile on purpose: it's only a hint, so lost updates are
+   * fine, and it fits into the object's alignment padding, i.e. doesn't cost any memory */
+  private boolean accessed;
 
   public NodeRef(final OdbGraph graph, N node) {
     this.graph = graph;
@@ -36,45 +51,124 @@ public abstract class NodeRef<N extends OdbNode> implements Vertex {
   }
 
   public boolean isSet() {
-    return node != null;
+    return node instanceof OdbNode;
   }
 
   public boolean isCleared() {
-    return node == null;
+    return !isSet();
   }
 
-  /* only called by @ReferenceManager */
+  /* only called by @ReferenceManager
+   * nodes that haven't been modified since they've been read from (or written to) storage are simply dropped */
   protected void clear() throws IOException {
-    OdbNode node = this.node;
-    if (node != null) {
-      graph.storage.persist(node);
+    final Object current = this.node;
+    if (current instanceof OdbNode) {
+      final OdbNode node = (OdbNode) current;
+      if (node.isModifiedSinceLastSerialization()) {
+        graph.storage.persist(node);
+      }
+      NODE_UPDATER.compareAndSet(this, current, null);
     }
-    this.node = null;
+  }
+
+  /**
+   * @return whether this ref has been accessed since the last invocation
+   */
+  protected boolean resetAccessed() {
+    final boolean wasAccessed = accessed;
+    if (wasAccessed) accessed = false;
+    return wasAccessed;
+  }
+
+  /* only called by @ReferenceManager - doesn't fault in the node if it's not set */
+  protected N getIfSet() {
+    final Object current = node;
+    return current instanceof OdbNode ? (N) current : null;
   }
 
   public N get() {
-    N ref = node;
-    if (ref != null) {
-      return ref;
+    if (!accessed) accessed = true;
+    final Object current = node;
+    if (current instanceof OdbNode) {
+      return (N) current;
     } else {
-      try {
-        final N node = readFromDisk(id);
-        if (node == null) throw new IllegalStateException("unable to read node from disk; id=" + id);
-        this.node = node;
-        graph.referenceManager.registerRef(this); // so it can be cleared on low memory
-        return node;
-      } catch (Exception e) {
-        throw new RuntimeException(e);
+      return faultIn(current);
+    }
+  }
+
+  /**
+   * Reads the node from storage. If multiple threads try to do that at the same time, only one of them (the one that
+   * manages to replace `null` with it's `FaultIn`) actually reads it, and all others wait for that result.
+   * I.e. all threads end up with the same node instance, and the ref is only registered with the ReferenceManager once.
+   * The node may also be in the process of being prefetched, see `beginPrefetch`.
+   */
+  private N faultIn(Object current) {
+    while (true) {
+      if (current instanceof OdbNode) {
+        return (N) current;
+      } else if (current instanceof FaultIn) {
+        final N node = ((FaultIn<N>) current).await();
+        if (node != null) {
+          return node;
+        }
+        /* the prefetcher gave up on it, i.e. we need to read it ourselves */
+      } else {
+        final FaultIn<N> faultIn = new FaultIn<>();
+        if (NODE_UPDATER.compareAndSet(this, null, faultIn)) {
+          try {
+            final N node = readFromDisk(id);
+            if (node == null) throw new IllegalStateException("unable to read node from disk; id=" + id);
+            if (graph.neighborPrefetcher.isPresent()) {
+              node.requestNeighborPrefetch();
+            }
+            this.node = node;
+            faultIn.complete(node);
+            graph.metrics.recordFaultIn();
+            graph.referenceManager.registerRef(this); // so it can be cleared on low memory
+            return node;
+          } catch (Exception e) {
+            NODE_UPDATER.compareAndSet(this, faultIn, null);
+            final RuntimeException failure = e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e);
+            faultIn.fail(failure);
+            throw failure;
+          }
+        }
       }
+      current = node;
     }
   }
 
+  /**
+   * Only used by the NeighborPrefetcher: if the node is cleared, marks it as being read from storage, just like
+   * `faultIn` does - i.e. threads accessing it in the meantime wait for the prefetched node rather than reading it
+   * themselves. Must be followed by `completePrefetch`.
+   * @return false if the node is set, or is already being read
+   */
+  boolean beginPrefetch() {
+    return NODE_UPDATER.compareAndSet(this, null, new FaultIn<N>());
+  }
+
+  /**
+   * Sets the prefetched node without marking it as accessed, and registers it as cold with the ReferenceManager - it's
+   * only been read speculatively after all.
+   * @param node null if it couldn't be read, threads waiting for it then read it themselves
+   */
+  void completePrefetch(N node) {
+    final FaultIn<N> faultIn = (FaultIn<N>) this.node;
+    this.node = node;
+    if (node != null) {
+      graph.metrics.recordPrefetch();
+      graph.referenceManager.registerColdRef(this);
+    }
+    faultIn.complete(node);
+  }
+
   public void setNode(N node) {
     this.node = node;
   }
 
   protected N readFromDisk(long nodeId) throws IOException {
-    return graph.storage.readNode(nodeId);
+    return graph.readNode(nodeId);
   }
 
   @Override
@@ -96,13 +190,13 @@ public abstract class NodeRef<N extends OdbNode> implements Vertex {
 
   @Override
   public int hashCode() {
-    return id().hashCode();
+    return Long.hashCode(id);
   }
 
   @Override
   public boolean equals(final Object obj) {
     if (obj instanceof NodeRef) {
-      return id().equals(((NodeRef) obj).id());
+      return id == ((NodeRef) obj).id;
     } else {
       return false;
     }
@@ -134,4 +228,36 @@ public abstract class NodeRef<N extends OdbNode> implements Vertex {
   }
   // delegate methods end
 
+  /* placeholder in `NodeRef.node` while the node is being read from storage */
+  private static final class FaultIn<N> {
+    private N node;
+    private RuntimeException failure;
+    private boolean completed = false;
+
+    synchronized void complete(N node) {
+      this.node = node;
+      this.completed = true;
+      notifyAll();
+    }
+
+    synchronized void fail(RuntimeException failure) {
+      this.failure = failure;
+      this.completed = true;
+      notifyAll();
+    }
+
+    synchronized N await() {
+      while (!completed) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new RuntimeException("interrupted while waiting for node to be read from storage", e);
+        }
+      }
+      if (failure != null) throw failure;
+      return node;
+    }
+  }
+
 }
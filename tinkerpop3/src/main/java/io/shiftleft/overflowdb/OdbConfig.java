@@ -1,11 +1,29 @@
 package io.shiftleft.overflowdb;
 
+import io.shiftleft.overflowdb.storage.Compression;
+import io.shiftleft.overflowdb.storage.OdbStorage;
+
 import java.util.Optional;
 
 public class OdbConfig {
+  public static final double DEFAULT_ADJACENCY_COMPACTION_THRESHOLD = 0.25;
+  public static final int DEFAULT_EDGE_PAIRING_THRESHOLD = 32;
+
   private boolean overflowEnabled = true;
   private int heapPercentageThreshold = 80;
   private Optional<String> storageLocation = Optional.empty();
+  private OdbStorage.Type storageType = OdbStorage.Type.MVSTORE;
+  private EvictionPolicy.Type evictionPolicy = EvictionPolicy.Type.CLOCK;
+  private int prefetchDepth = 0;
+  private int prefetchQueueSize = 1024;
+  private Optional<Compression> compression = Optional.empty();
+  private int compressionThreshold = Compression.DEFAULT_THRESHOLD;
+  private boolean lazyMaterialization = false;
+  private boolean lazySnapshotLoading = false;
+  private boolean snapshotVerification = true;
+  private double adjacencyCompactionThreshold = DEFAULT_ADJACENCY_COMPACTION_THRESHOLD;
+  private AdjacencyGrowthPolicy adjacencyGrowthPolicy = AdjacencyGrowthPolicy.TRIPLING;
+  private int edgePairingThreshold = DEFAULT_EDGE_PAIRING_THRESHOLD;
 
   public static OdbConfig withDefaults() {
     return new OdbConfig();
@@ -37,6 +55,125 @@ public class OdbConfig {
     return this;
   }
 
+  /**
+   * where overflowed nodes are written to - and saved to on `close`, if a storage location is specified.
+   * The storage location is a file for MVSTORE, and a directory for SEGMENT_LOG.
+   * defaults to MVSTORE
+   */
+  public OdbConfig withStorageType(OdbStorage.Type storageType) {
+    this.storageType = storageType;
+    return this;
+  }
+
+  /**
+   * decides which nodes are cleared (i.e. written to storage and set to `null`) when the heap is running low.
+   * defaults to CLOCK, which spares recently accessed nodes
+   */
+  public OdbConfig withEvictionPolicy(EvictionPolicy.Type evictionPolicy) {
+    this.evictionPolicy = evictionPolicy;
+    return this;
+  }
+
+  /**
+   * when traversing the adjacent nodes of a node which has just been faulted in from storage, asynchronously read the
+   * ones that have been cleared from storage in a batch, following the same edge label and direction for up to
+   * `depth` hops. See NeighborPrefetcher.
+   * defaults to 0, i.e. no prefetching
+   */
+  public OdbConfig withPrefetchDepth(int depth) {
+    this.prefetchDepth = depth;
+    return this;
+  }
+
+  /**
+   * maximum number of pending prefetch requests - further requests are dropped.
+   * defaults to 1024
+   */
+  public OdbConfig withPrefetchQueueSize(int queueSize) {
+    this.prefetchQueueSize = queueSize;
+    return this;
+  }
+
+  /**
+   * compress serialized nodes before writing them to storage: trades cpu time for less i/o, and a bigger part of the
+   * storage fitting into the os page cache.
+   * defaults to whatever the storage type uses by default, i.e. DEFLATE for IN_MEMORY and NONE for the others
+   */
+  public OdbConfig withCompression(Compression compression) {
+    this.compression = Optional.ofNullable(compression);
+    return this;
+  }
+
+  /**
+   * serialized nodes smaller than this (in bytes) are stored uncompressed.
+   * defaults to 128
+   */
+  public OdbConfig withCompressionThreshold(int threshold) {
+    this.compressionThreshold = threshold;
+    return this;
+  }
+
+  /**
+   * when reading a node from storage, only decode it's properties and adjacency when they're first accessed, e.g.
+   * traversals which only follow edges don't pay for the properties.
+   * Properties are only materialized lazily for node types which support it, see `OdbNode.supportsLazyProperties`.
+   * defaults to false
+   */
+  public OdbConfig withLazyMaterialization(boolean enabled) {
+    this.lazyMaterialization = enabled;
+    return this;
+  }
+
+  /**
+   * when opening a snapshot (see `OdbGraph.openSnapshot`), only deserialize nodes when they're first accessed, rather
+   * than all of them (in parallel) upfront.
+   * defaults to false
+   */
+  public OdbConfig withLazySnapshotLoading(boolean enabled) {
+    this.lazySnapshotLoading = enabled;
+    return this;
+  }
+
+  /**
+   * when opening a snapshot (see `OdbGraph.openSnapshot`), verify the checksum of the whole file first. That reads the
+   * entire file, so you may want to disable it in combination with `withLazySnapshotLoading`.
+   * defaults to true
+   */
+  public OdbConfig withSnapshotVerification(boolean enabled) {
+    this.snapshotVerification = enabled;
+    return this;
+  }
+
+  /**
+   * removed edges leave holes in the adjacency of both nodes. When an edge block runs out of capacity and at least
+   * this ratio of it's entries are holes, the node's adjacency is compacted (see `OdbNode.compactAdjacency`) rather
+   * than grown. Values above 1 disable the automatic compaction.
+   * defaults to 0.25, i.e. 25%
+   */
+  public OdbConfig withAdjacencyCompactionThreshold(double threshold) {
+    this.adjacencyCompactionThreshold = threshold;
+    return this;
+  }
+
+  /**
+   * by how much edge blocks grow when they run out of capacity, see `AdjacencyGrowthPolicy`.
+   * defaults to TRIPLING
+   */
+  public OdbConfig withAdjacencyGrowthPolicy(AdjacencyGrowthPolicy growthPolicy) {
+    this.adjacencyGrowthPolicy = growthPolicy;
+    return this;
+  }
+
+  /**
+   * edge blocks with at least this many entries remember where the other side of each edge is stored (see
+   * `OdbNode.pairedBlockOffset`), which costs 8 bytes per edge. Smaller blocks are scanned instead.
+   * defaults to 32
+   */
+  public OdbConfig withEdgePairingThreshold(int threshold) {
+    this.edgePairingThreshold = threshold;
+    return this;
+  }
+
   public boolean isOverflowEnabled() {
     return overflowEnabled;
   }
@@ -48,4 +185,52 @@ public class OdbConfig {
   public Optional<String> getStorageLocation() {
     return storageLocation;
   }
+
+  public OdbStorage.Type getStorageType() {
+    return storageType;
+  }
+
+  public EvictionPolicy.Type getEvictionPolicy() {
+    return evictionPolicy;
+  }
+
+  public int getPrefetchDepth() {
+    return prefetchDepth;
+  }
+
+  public int getPrefetchQueueSize() {
+    return prefetchQueueSize;
+  }
+
+  public Optional<Compression> getCompression() {
+    return compression;
+  }
+
+  public int getCompressionThreshold() {
+    return compressionThreshold;
+  }
+
+  public boolean isLazyMaterialization() {
+    return lazyMaterialization;
+  }
+
+  public boolean isLazySnapshotLoading() {
+    return lazySnapshotLoading;
+  }
+
+  public boolean isSnapshotVerification() {
+    return snapshotVerification;
+  }
+
+  public double getAdjacencyCompactionThreshold() {
+    return adjacencyCompactionThreshold;
+  }
+
+  public AdjacencyGrowthPolicy getAdjacencyGrowthPolicy() {
+    return adjacencyGrowthPolicy;
+  }
+
+  public int getEdgePairingThreshold() {
+    return edgePairingThreshold;
+  }
 }
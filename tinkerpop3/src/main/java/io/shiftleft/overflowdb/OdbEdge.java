@@ -8,12 +8,12 @@ import org.apache.tinkerpop.gremlin.structure.Vertex;
 import org.apache.tinkerpop.gremlin.util.iterator.IteratorUtils;
 
 import java.util.Iterator;
-import java.util.Objects;
 import java.util.Set;
 
 public abstract class OdbEdge implements Edge {
   private final OdbGraph graph;
   private final String label;
+  private final int labelOrdinal;
   private final NodeRef outVertex;
   private final NodeRef inVertex;
 
@@ -29,6 +29,11 @@ public abstract class OdbEdge implements Edge {
    */
   private int inBlockOffset = UNINITIALIZED_BLOCK_OFFSET;
 
+  /* the nodes' compaction epochs (see `OdbNode.compactAdjacency`) at the time the block offsets were obtained:
+   * if a node's adjacency has been compacted since, the offset needs to be rebased */
+  private OdbNode.AdjacencyEpoch outEpoch;
+  private OdbNode.AdjacencyEpoch inEpoch;
+
   private final Set<String> specificKeys;
   private boolean removed = false;
 
@@ -41,6 +46,7 @@ public abstract class OdbEdge implements Edge {
                  Set<String> specificKeys) {
     this.graph = graph;
     this.label = label;
+    this.labelOrdinal = NodeLayoutInformation.edgeLabelOrdinal(label);
     this.outVertex = outVertex;
     this.inVertex = inVertex;
 
@@ -49,19 +55,56 @@ public abstract class OdbEdge implements Edge {
   }
 
   public int getOutBlockOffset() {
+    rebaseOutBlockOffset();
     return outBlockOffset;
   }
 
+  /** @param offset must be valid for the current compaction epoch of the out node */
   public void setOutBlockOffset(int offset) {
+    setOutBlockOffset(offset, outVertex.get().currentEpoch());
+  }
+
+  public void setOutBlockOffset(int offset, OdbNode.AdjacencyEpoch epoch) {
     outBlockOffset = offset;
+    outEpoch = epoch;
   }
 
   public int getInBlockOffset() {
+    rebaseInBlockOffset();
     return inBlockOffset;
   }
 
+  /** @param offset must be valid for the current compaction epoch of the in node */
   public void setInBlockOffset(int offset) {
+    setInBlockOffset(offset, inVertex.get().currentEpoch());
+  }
+
+  public void setInBlockOffset(int offset, OdbNode.AdjacencyEpoch epoch) {
     inBlockOffset = offset;
+    inEpoch = epoch;
+  }
+
+  /* if the offset cannot be rebased, it's reset, i.e. it will be derived from the other node's offset */
+  private void rebaseOutBlockOffset() {
+    if (outBlockOffset != UNINITIALIZED_BLOCK_OFFSET) {
+      final OdbNode outNode = outVertex.get();
+      final OdbNode.AdjacencyEpoch epoch = outNode.currentEpoch();
+      if (epoch != outEpoch) {
+        outBlockOffset = outNode.rebaseBlockOffset(Direction.OUT, labelOrdinal, outBlockOffset, outEpoch);
+        outEpoch = epoch;
+      }
+    }
+  }
+
+  private void rebaseInBlockOffset() {
+    if (inBlockOffset != UNINITIALIZED_BLOCK_OFFSET) {
+      final OdbNode inNode = inVertex.get();
+      final OdbNode.AdjacencyEpoch epoch = inNode.currentEpoch();
+      if (epoch != inEpoch) {
+        inBlockOffset = inNode.rebaseBlockOffset(Direction.IN, labelOrdinal, inBlockOffset, inEpoch);
+        inEpoch = epoch;
+      }
+    }
   }
 
   @Override
@@ -86,6 +129,13 @@ public abstract class OdbEdge implements Edge {
     return label;
   }
 
+  /**
+   * @return the label's ordinal, see {@link NodeLayoutInformation#edgeLabelOrdinal(String)}
+   */
+  public int labelOrdinal() {
+    return labelOrdinal;
+  }
+
   @Override
   public Graph graph() {
     return graph;
@@ -94,6 +144,7 @@ public abstract class OdbEdge implements Edge {
   @Override
   public <V> Property<V> property(String key, V value) {
     // TODO check if it's an allowed property key
+    rebaseBlockOffsets();
     if (inBlockOffset != UNINITIALIZED_BLOCK_OFFSET) {
       if (outBlockOffset == UNINITIALIZED_BLOCK_OFFSET) {
         initializeOutFromInOffset();
@@ -105,8 +156,8 @@ public abstract class OdbEdge implements Edge {
     } else {
       throw new RuntimeException("Cannot set property. In and out block offset unitialized.");
     }
-    inVertex.get().setEdgeProperty(Direction.IN, label, key, value, inBlockOffset);
-    outVertex.get().setEdgeProperty(Direction.OUT, label, key, value, outBlockOffset);
+    inVertex.get().setEdgeProperty(Direction.IN, this, key, value, inBlockOffset);
+    outVertex.get().setEdgeProperty(Direction.OUT, this, key, value, outBlockOffset);
     return new OdbProperty<>(key, value, this);
   }
 
@@ -117,17 +168,18 @@ public abstract class OdbEdge implements Edge {
 
   @Override
   public void remove() {
+    rebaseBlockOffsets();
     fixupBlockOffsets();
-    outVertex.get().removeEdge(Direction.OUT, label(), outBlockOffset);
-    inVertex.get().removeEdge(Direction.IN, label(), inBlockOffset);
+    outVertex.get().removeEdge(Direction.OUT, labelOrdinal, outBlockOffset);
+    inVertex.get().removeEdge(Direction.IN, labelOrdinal, inBlockOffset);
   }
 
   @Override
   public <V> Iterator<Property<V>> properties(String... propertyKeys) {
-    if (inBlockOffset != -1) {
-      return inVertex.get().getEdgeProperties(Direction.IN, this, getInBlockOffset(), propertyKeys);
-    } else if (outBlockOffset != -1) {
-      return outVertex.get().getEdgeProperties(Direction.OUT, this, getOutBlockOffset(), propertyKeys);
+    if (getInBlockOffset() != -1) {
+      return inVertex.get().getEdgeProperties(Direction.IN, this, inBlockOffset, propertyKeys);
+    } else if (getOutBlockOffset() != -1) {
+      return outVertex.get().getEdgeProperties(Direction.OUT, this, outBlockOffset, propertyKeys);
     } else {
       throw new RuntimeException("Cannot get properties. In and out block offset unitialized.");
     }
@@ -135,9 +187,9 @@ public abstract class OdbEdge implements Edge {
 
   @Override
   public <V> Property<V> property(String propertyKey) {
-    if (inBlockOffset != -1) {
+    if (getInBlockOffset() != -1) {
       return inVertex.get().getEdgeProperty(Direction.IN, this, inBlockOffset, propertyKey);
-    } else if (outBlockOffset != -1) {
+    } else if (getOutBlockOffset() != -1) {
       return outVertex.get().getEdgeProperty(Direction.OUT, this, outBlockOffset, propertyKey);
     } else {
       throw new RuntimeException("Cannot get property. In and out block offset unitialized.");
@@ -155,10 +207,12 @@ public abstract class OdbEdge implements Edge {
     }
 
     OdbEdge otherEdge = (OdbEdge) other;
+    this.rebaseBlockOffsets();
+    otherEdge.rebaseBlockOffsets();
     fixupBlockOffsetsIfNecessary(otherEdge);
 
-    return this.inVertex.id().equals(otherEdge.inVertex.id()) &&
-        this.outVertex.id().equals(otherEdge.outVertex.id()) &&
+    return this.inVertex.id == otherEdge.inVertex.id &&
+        this.outVertex.id == otherEdge.outVertex.id &&
         this.label.equals(otherEdge.label) &&
         (this.inBlockOffset == UNINITIALIZED_BLOCK_OFFSET ||
             otherEdge.inBlockOffset == UNINITIALIZED_BLOCK_OFFSET ||
@@ -174,7 +228,12 @@ public abstract class OdbEdge implements Edge {
     // we do not hash over the block offsets as those may change.
     // This results in hash collisions for edges with the same label between the
     // same nodes but since those are deemed very rare this is ok.
-    return Objects.hash(inVertex.id(), outVertex.id(), label);
+    return 31 * (31 * Long.hashCode(inVertex.id) + Long.hashCode(outVertex.id)) + label.hashCode();
+  }
+
+  private void rebaseBlockOffsets() {
+    rebaseInBlockOffset();
+    rebaseOutBlockOffset();
   }
 
   private void fixupBlockOffsetsIfNecessary(OdbEdge otherEdge) {
@@ -195,18 +254,39 @@ public abstract class OdbEdge implements Edge {
     }
   }
 
+  /* the paired slot (see `OdbNode.pairedBlockOffset`) usually tells us where the other side is. If it doesn't, we
+   * need to scan both blocks for the occurrence, and pair the edge on the way for next time */
   private void initializeInFromOutOffset() {
-    int edgeOccurenceForSameLabelEdgesBetweenSameNodePair =
-        outVertex.get().blockOffsetToOccurrence(Direction.OUT, label(), inVertex, outBlockOffset);
-    inBlockOffset = inVertex.get().occurrenceToBlockOffset(Direction.IN, label(), outVertex,
-        edgeOccurenceForSameLabelEdgesBetweenSameNodePair);
+    final OdbNode outNode = outVertex.get();
+    final OdbNode inNode = inVertex.get();
+    inBlockOffset = outNode.pairedBlockOffset(Direction.OUT, labelOrdinal, outBlockOffset);
+    if (inBlockOffset == UNINITIALIZED_BLOCK_OFFSET) {
+      int edgeOccurenceForSameLabelEdgesBetweenSameNodePair =
+          outNode.blockOffsetToOccurrence(Direction.OUT, labelOrdinal, inVertex, outBlockOffset);
+      inBlockOffset = inNode.occurrenceToBlockOffset(Direction.IN, labelOrdinal, outVertex,
+          edgeOccurenceForSameLabelEdgesBetweenSameNodePair);
+      pairEdge(outNode, inNode);
+    }
+    inEpoch = inNode.currentEpoch();
   }
 
   private void initializeOutFromInOffset() {
-    int edgeOccurenceForSameLabelEdgesBetweenSameNodePair =
-        inVertex.get().blockOffsetToOccurrence(Direction.IN, label(), outVertex, inBlockOffset);
-    outBlockOffset = outVertex.get().occurrenceToBlockOffset(Direction.OUT, label(), inVertex,
-        edgeOccurenceForSameLabelEdgesBetweenSameNodePair);
+    final OdbNode inNode = inVertex.get();
+    final OdbNode outNode = outVertex.get();
+    outBlockOffset = inNode.pairedBlockOffset(Direction.IN, labelOrdinal, inBlockOffset);
+    if (outBlockOffset == UNINITIALIZED_BLOCK_OFFSET) {
+      int edgeOccurenceForSameLabelEdgesBetweenSameNodePair =
+          inNode.blockOffsetToOccurrence(Direction.IN, labelOrdinal, outVertex, inBlockOffset);
+      outBlockOffset = outNode.occurrenceToBlockOffset(Direction.OUT, labelOrdinal, inVertex,
+          edgeOccurenceForSameLabelEdgesBetweenSameNodePair);
+      pairEdge(outNode, inNode);
+    }
+    outEpoch = outNode.currentEpoch();
+  }
+
+  private void pairEdge(OdbNode outNode, OdbNode inNode) {
+    outNode.pairEdge(Direction.OUT, labelOrdinal, outBlockOffset, inBlockOffset, inNode.compactionEpoch());
+    inNode.pairEdge(Direction.IN, labelOrdinal, inBlockOffset, outBlockOffset, outNode.compactionEpoch());
   }
 
 }
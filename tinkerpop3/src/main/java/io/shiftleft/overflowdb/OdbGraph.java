@@ -1,11 +1,15 @@
 package io.shiftleft.overflowdb;
 
+import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.TLongObjectMap;
 import gnu.trove.map.hash.THashMap;
 import gnu.trove.map.hash.TLongObjectHashMap;
 import gnu.trove.set.hash.THashSet;
 import io.shiftleft.overflowdb.storage.NodeDeserializer;
+import io.shiftleft.overflowdb.storage.NodeSerializer;
 import io.shiftleft.overflowdb.storage.OdbStorage;
+import io.shiftleft.overflowdb.storage.SnapshotReader;
+import io.shiftleft.overflowdb.storage.SnapshotWriter;
 import io.shiftleft.overflowdb.tp3.GraphVariables;
 import io.shiftleft.overflowdb.tp3.TinkerIoRegistryV1d0;
 import io.shiftleft.overflowdb.tp3.TinkerIoRegistryV2d0;
@@ -35,8 +39,11 @@ import org.apache.tinkerpop.gremlin.util.iterator.MultiIterator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -45,7 +52,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public final class OdbGraph implements Graph {
   private final Logger logger = LoggerFactory.getLogger(getClass());
@@ -59,10 +69,15 @@ public final class OdbGraph implements Graph {
   private final GraphFeatures features = new GraphFeatures();
   protected final AtomicLong currentId = new AtomicLong(-1L);
   protected TLongObjectMap<NodeRef> nodes;
+  /* the refs in `nodes` by their ordinal (see `nodeByOrdinal`), null for removed nodes until their ordinal is reused */
+  private volatile NodeRef[] nodesByOrdinal = new NodeRef[0];
+  private int nodeOrdinalCount = 0;
+  /* ordinals of removed nodes, handed out again before the table grows */
+  private final TIntArrayList freeNodeOrdinals = new TIntArrayList();
   protected THashMap<String, Set<NodeRef>> nodesByLabel;
   protected final GraphVariables variables = new GraphVariables();
   protected OdbIndex<Vertex> nodeIndex = null;
-  private final OdbConfig config;
+  protected final OdbConfig config;
   private boolean closed = false;
 
   protected final Map<String, NodeFactory> nodeFactoryByLabel;
@@ -71,6 +86,11 @@ public final class OdbGraph implements Graph {
   protected final OdbStorage storage;
   protected final Optional<HeapUsageMonitor> heapUsageMonitor;
   protected final ReferenceManager referenceManager;
+  protected final Optional<NeighborPrefetcher> neighborPrefetcher;
+  protected final OdbMetrics metrics = new OdbMetrics();
+  private boolean initializedFromStorage = false;
+  /* the snapshot this graph has been opened from, if any: nodes which aren't in storage are read from there */
+  private SnapshotReader snapshot;
 
   public static OdbGraph open(OdbConfig configuration,
                               List<NodeFactory<?>> nodeFactories,
@@ -82,6 +102,30 @@ public final class OdbGraph implements Graph {
     return new OdbGraph(configuration, nodeFactoryByLabel, edgeFactoryByLabel);
   }
 
+  /**
+   * Opens a graph from a snapshot written by `saveSnapshot`. The snapshot file is memory mapped, and the nodes are
+   * deserialized in parallel - or only when they're first accessed, if `OdbConfig.withLazySnapshotLoading` is set.
+   * The snapshot stays open (read only) until the graph is closed, i.e. it mustn't be modified in the meantime.
+   * Changes to the graph are not written back to the snapshot - use `saveSnapshot` for that.
+   */
+  public static OdbGraph openSnapshot(Path path,
+                                      OdbConfig configuration,
+                                      List<NodeFactory<?>> nodeFactories,
+                                      List<EdgeFactory<?>> edgeFactories) throws IOException {
+    if (configuration.getStorageLocation().isPresent()) {
+      throw new IllegalArgumentException("a graph opened from a snapshot can't have a storage location, but got " +
+          configuration.getStorageLocation().get());
+    }
+    final OdbGraph graph = open(configuration, nodeFactories, edgeFactories);
+    try {
+      graph.loadSnapshot(SnapshotReader.open(path, configuration.isSnapshotVerification()), configuration.isLazySnapshotLoading());
+    } catch (IOException | RuntimeException e) {
+      graph.close();
+      throw e;
+    }
+    return graph;
+  }
+
   private OdbGraph(OdbConfig config,
                    Map<String, NodeFactory> nodeFactoryByLabel,
                    Map<String, EdgeFactory> edgeFactoryByLabel) {
@@ -89,19 +133,24 @@ public final class OdbGraph implements Graph {
     this.nodeFactoryByLabel = nodeFactoryByLabel;
     this.edgeFactoryByLabel = edgeFactoryByLabel;
 
-    referenceManager = new ReferenceManager();
-    heapUsageMonitor = config.isOverflowEnabled() ?
-        Optional.of(new HeapUsageMonitor(config.getHeapPercentageThreshold(), referenceManager)) :
-        Optional.empty();
-
-    NodeDeserializer nodeDeserializer = new NodeDeserializer(this, nodeFactoryByLabel);
+    NodeDeserializer nodeDeserializer = new NodeDeserializer(this, nodeFactoryByLabel, config.isLazyMaterialization());
+    storage = config.getStorageType().create(config.getStorageLocation(), nodeDeserializer);
+    storage.setMetrics(metrics);
+    config.getCompression().ifPresent(compression ->
+        storage.getNodeSerializer().setCompression(compression, config.getCompressionThreshold()));
     if (config.getStorageLocation().isPresent()) {
-      storage = OdbStorage.createWithSpecificLocation(nodeDeserializer, new File(config.getStorageLocation().get()));
       initElementCollections(storage);
     } else {
-      storage = OdbStorage.createWithTempFile(nodeDeserializer);
       initEmptyElementCollections();
     }
+
+    referenceManager = new ReferenceManager(storage, config.getEvictionPolicy().create(), metrics);
+    heapUsageMonitor = config.isOverflowEnabled() ?
+        Optional.of(new HeapUsageMonitor(config.getHeapPercentageThreshold(), referenceManager)) :
+        Optional.empty();
+    neighborPrefetcher = config.getPrefetchDepth() > 0 ?
+        Optional.of(new NeighborPrefetcher(this, config.getPrefetchDepth(), config.getPrefetchQueueSize())) :
+        Optional.empty();
   }
 
   private void initEmptyElementCollections() {
@@ -109,35 +158,200 @@ public final class OdbGraph implements Graph {
     nodesByLabel = new THashMap<>(100);
   }
 
+  /**
+   * Initializes all NodeRefs from storage. The stored nodes are split into one id range per cpu, each of which is
+   * processed in parallel. The per-range results are then merged into `nodes` and `nodesByLabel`.
+   * The ids and labels are read from the compact node catalog. Storage files written before the catalog existed
+   * don't have one, so we need to deserialize (the beginning of) every node - and write the catalog for next time.
+   */
   private void initElementCollections(OdbStorage storage) {
-    long start = System.currentTimeMillis();
-    final Set<Map.Entry<Long, byte[]>> serializedNodes = storage.allNodes();
-    logger.info("initializing " + serializedNodes.size() + " nodes from existing storage - this may take some time");
+    final long start = System.nanoTime();
+    final int partitionCount = Runtime.getRuntime().availableProcessors();
+    final NodeDeserializer nodeDeserializer = storage.getNodeDeserializer().get();
+    final boolean hasCompleteNodeCatalog = storage.hasCompleteNodeCatalog();
+    final List<Iterator<NodeRef>> partitions = new ArrayList<>(partitionCount);
+    if (hasCompleteNodeCatalog) {
+      for (Iterator<Map.Entry<Long, String>> partition : storage.allNodeLabelsPartitioned(partitionCount)) {
+        partitions.add(IteratorUtils.map(partition, entry -> nodeDeserializer.createNodeRef(entry.getKey(), entry.getValue())));
+      }
+    } else {
+      logger.info("storage doesn't have a (complete) node catalog, need to deserialize all nodes");
+      for (Iterator<Map.Entry<Long, byte[]>> partition : storage.allNodesPartitioned(partitionCount)) {
+        partitions.add(IteratorUtils.map(partition, entry -> {
+          try {
+            return nodeDeserializer.deserializeRef(entry.getValue());
+          } catch (IOException e) {
+            throw new RuntimeException("error while initializing vertex from storage: id=" + entry.getKey(), e);
+          }
+        }));
+      }
+    }
+    logger.info("initializing nodes from existing storage in " + partitions.size() + " partitions - this may take some time");
+
+    final List<InitPartitionResult> partitionResults = partitions.parallelStream().map(partition -> {
+      final InitPartitionResult result = new InitPartitionResult();
+      partition.forEachRemaining(result::add);
+      return result;
+    }).collect(Collectors.toList());
+    final long readNanos = System.nanoTime() - start;
+
     int importCount = 0;
     long maxId = currentId.get();
-
-    nodes = new TLongObjectHashMap<>(serializedNodes.size());
-    nodesByLabel = new THashMap<>(serializedNodes.size());
-    final Iterator<Map.Entry<Long, byte[]>> serializedVertexIter = serializedNodes.iterator();
-    while (serializedVertexIter.hasNext()) {
-      final Map.Entry<Long, byte[]> entry = serializedVertexIter.next();
-      try {
-        final NodeRef nodeRef = storage.getNodeDeserializer().get().deserializeRef(entry.getValue());
-        nodes.put(nodeRef.id, nodeRef);
-        getElementsByLabel(nodesByLabel, nodeRef.label()).add(nodeRef);
-        importCount++;
-        if (importCount % 131072 == 0) {
-          logger.debug("imported " + importCount + " elements - still running...");
+    for (InitPartitionResult partitionResult : partitionResults) {
+      importCount += partitionResult.count;
+      maxId = Long.max(maxId, partitionResult.maxId);
+    }
+    nodes = new TLongObjectHashMap<>(importCount);
+    nodesByLabel = new THashMap<>(importCount);
+    for (InitPartitionResult partitionResult : partitionResults) {
+      for (Map.Entry<String, List<NodeRef>> labelAndRefs : partitionResult.refsByLabel.entrySet()) {
+        final Set<NodeRef> refsForLabel = getElementsByLabel(nodesByLabel, labelAndRefs.getKey());
+        for (NodeRef nodeRef : labelAndRefs.getValue()) {
+          putNodeRef(nodeRef);
+          refsForLabel.add(nodeRef);
+          if (!hasCompleteNodeCatalog) {
+            storage.addToNodeCatalog(nodeRef.id, nodeRef.label());
+          }
         }
-        if (nodeRef.id > maxId) maxId = nodeRef.id;
-      } catch (IOException e) {
-        throw new RuntimeException("error while initializing vertex from storage: id=" + entry.getKey(), e);
       }
     }
+    if (!hasCompleteNodeCatalog) {
+      storage.commit();
+    }
 
     currentId.set(maxId + 1);
-    long elapsedMillis = System.currentTimeMillis() - start;
-    logger.info("initialized " + this.toString() + " from existing storage in " + elapsedMillis + "ms");
+    initializedFromStorage = importCount > 0;
+    final long elapsedNanos = System.nanoTime() - start;
+    metrics.recordStartup(readNanos, elapsedNanos);
+    final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    logger.info("initialized " + this.toString() + " from existing storage in " + elapsedMillis + "ms " +
+        "(reading storage: " + TimeUnit.NANOSECONDS.toMillis(readNanos) + "ms, " +
+        "merging: " + (elapsedMillis - TimeUnit.NANOSECONDS.toMillis(readNanos)) + "ms)");
+  }
+
+  private void loadSnapshot(SnapshotReader snapshot, boolean lazy) {
+    final long start = System.nanoTime();
+    this.snapshot = snapshot;
+    int nodeCount = 0;
+    for (SnapshotReader.Section section : snapshot.sections()) {
+      nodeCount += section.nodeCount();
+    }
+    nodes = new TLongObjectHashMap<>(nodeCount);
+    for (SnapshotReader.Section section : snapshot.sections()) {
+      final NodeFactory nodeFactory = nodeFactoryByLabel.get(section.label);
+      if (nodeFactory == null) {
+        throw new IllegalArgumentException("snapshot contains nodes with label " + section.label + ", but there's no factory for it");
+      }
+      final Set<NodeRef> refsForLabel = getElementsByLabel(nodesByLabel, section.label);
+      for (int i = 0; i < section.nodeCount(); i++) {
+        final NodeRef nodeRef = nodeFactory.createNodeRef(this, section.id(i));
+        putNodeRef(nodeRef);
+        refsForLabel.add(nodeRef);
+      }
+    }
+    currentId.set(Long.max(currentId.get(), snapshot.currentId()));
+
+    if (lazy) {
+      /* all refs start out cleared */
+      initializedFromStorage = nodeCount > 0;
+    } else {
+      /* all refs exist by now, i.e. the deserializer can resolve the adjacent nodes */
+      final NodeDeserializer nodeDeserializer = storage.getNodeDeserializer().get();
+      for (SnapshotReader.Section section : snapshot.sections()) {
+        IntStream.range(0, section.nodeCount()).parallel().forEach(i -> {
+          final NodeRef nodeRef = nodes.get(section.id(i));
+          try {
+            nodeRef.setNode(nodeDeserializer.deserialize(section.node(i)));
+          } catch (IOException e) {
+            throw new RuntimeException("error while reading node from snapshot: id=" + nodeRef.id, e);
+          }
+          referenceManager.registerRef(nodeRef);
+        });
+      }
+    }
+    logger.info("opened " + this.toString() + " from snapshot in " +
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms" + (lazy ? " (lazily)" : ""));
+  }
+
+  /**
+   * Writes all nodes into a single snapshot file, which can be opened with `openSnapshot`. Nodes which are currently
+   * not in memory are read from storage. The graph mustn't be modified concurrently.
+   */
+  public void saveSnapshot(Path path) throws IOException {
+    final long start = System.nanoTime();
+    /* labels as strings and no string dictionary, so that the snapshot doesn't depend on this instance */
+    final NodeSerializer serializer = new NodeSerializer();
+    final int batchSize = referenceManager.releaseCount;
+    try (SnapshotWriter writer = new SnapshotWriter(path, currentId.get())) {
+      for (Map.Entry<String, Set<NodeRef>> labelAndRefs : nodesByLabel.entrySet()) {
+        writer.beginSection(labelAndRefs.getKey());
+        final List<OdbNode> batch = new ArrayList<>(Integer.min(batchSize, labelAndRefs.getValue().size()));
+        for (NodeRef nodeRef : labelAndRefs.getValue()) {
+          batch.add(nodeRef.get());
+          if (batch.size() == batchSize) {
+            writeSnapshotBatch(writer, serializer, batch);
+          }
+        }
+        writeSnapshotBatch(writer, serializer, batch);
+        writer.endSection();
+      }
+    }
+    logger.info("saved snapshot of " + this.toString() + " in " +
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+  }
+
+  private void writeSnapshotBatch(SnapshotWriter writer, NodeSerializer serializer, List<OdbNode> batch) throws IOException {
+    final OdbNode[] nodes = batch.toArray(new OdbNode[0]);
+    final byte[][] serializedNodes = serializer.serializeAll(nodes);
+    for (int i = 0; i < nodes.length; i++) {
+      writer.writeNode(nodes[i].ref.id, serializedNodes[i]);
+    }
+    batch.clear();
+  }
+
+  /**
+   * reads a node which isn't in memory from storage - or from the snapshot this graph was opened from, if it has never
+   * been written to storage
+   */
+  protected <N extends OdbNode> N readNode(long id) throws IOException {
+    final N node = storage.readNode(id);
+    if (node == null && snapshot != null) {
+      final ByteBuffer serializedNode = snapshot.readNode(id);
+      if (serializedNode != null) {
+        return (N) storage.getNodeDeserializer().get().deserialize(serializedNode);
+      }
+    }
+    return node;
+  }
+
+  /**
+   * like `readNode`, but reads all given nodes in one batch, see `OdbStorage.readNodes`
+   * @return the nodes in the same order as `ids`, null for nodes which don't exist
+   */
+  protected List<OdbNode> readNodes(long[] ids) throws IOException {
+    final List<OdbNode> nodes = storage.readNodes(ids);
+    if (snapshot != null) {
+      for (int i = 0; i < ids.length; i++) {
+        final ByteBuffer serializedNode = nodes.get(i) == null ? snapshot.readNode(ids[i]) : null;
+        if (serializedNode != null) {
+          nodes.set(i, storage.getNodeDeserializer().get().deserialize(serializedNode));
+        }
+      }
+    }
+    return nodes;
+  }
+
+  /* NodeRefs initialized from one partition of the storage, grouped by label */
+  private static class InitPartitionResult {
+    private final Map<String, List<NodeRef>> refsByLabel = new HashMap<>();
+    private int count = 0;
+    private long maxId = -1L;
+
+    private void add(NodeRef nodeRef) {
+      refsByLabel.computeIfAbsent(nodeRef.label(), label -> new ArrayList<>()).add(nodeRef);
+      count++;
+      if (nodeRef.id > maxId) maxId = nodeRef.id;
+    }
   }
 
   ////////////// STRUCTURE API METHODS //////////////////
@@ -153,11 +367,68 @@ public final class OdbGraph implements Graph {
     currentId.set(Long.max(idValue, currentId.get()));
 
     final NodeRef node = createNode(idValue, label, keyValues);
-    nodes.put(node.id, node);
+    putNodeRef(node);
     getElementsByLabel(nodesByLabel, label).add(node);
     return node;
   }
 
+  /* adds the ref to `nodes`, and assigns it's ordinal - preferably one of a removed node */
+  private void putNodeRef(NodeRef ref) {
+    nodes.put(ref.id, ref);
+    NodeRef[] nodesByOrdinal = this.nodesByOrdinal;
+    if (!freeNodeOrdinals.isEmpty()) {
+      ref.ordinal = freeNodeOrdinals.removeAt(freeNodeOrdinals.size() - 1);
+    } else {
+      if (nodeOrdinalCount == nodesByOrdinal.length) {
+        nodesByOrdinal = Arrays.copyOf(nodesByOrdinal, Integer.max(16, nodesByOrdinal.length + (nodesByOrdinal.length >> 1)));
+      }
+      ref.ordinal = nodeOrdinalCount++;
+    }
+    nodesByOrdinal[ref.ordinal] = ref;
+    /* volatile write: publishes the grown table only after the ref has been added */
+    this.nodesByOrdinal = nodesByOrdinal;
+  }
+
+  /* the node's edges must have been removed already, i.e. no adjacency refers to it's ordinal any more (see
+   * `OdbNode.remove`), so it's free to be reused */
+  protected void removeNodeRef(long id) {
+    final NodeRef ref = nodes.remove(id);
+    if (ref != null) {
+      nodesByOrdinal[ref.ordinal] = null;
+      freeNodeOrdinals.add(ref.ordinal);
+      /* the removed ref must not resolve to whichever node gets the ordinal next */
+      ref.ordinal = NodeRef.NO_ORDINAL;
+    }
+  }
+
+  /**
+   * Nodes are numbered densely in the order they're added to this graph instance, reusing the ordinals of removed
+   * nodes, i.e. ordinals aren't persisted.
+   * Used by the NODE_IDS and COLUMNAR adjacency layouts (see `NodeLayoutInformation.AdjacencyLayout`) to refer to
+   * adjacent nodes with an `int` that's resolved without a hash lookup.
+   *
+   * @return the node with the given ordinal, or null if it has been removed (and the ordinal hasn't been reused yet)
+   */
+  public NodeRef nodeByOrdinal(int ordinal) {
+    return nodesByOrdinal[ordinal];
+  }
+
+  /**
+   * @return the ordinal of the node with the given id (see `nodeByOrdinal`), or `OdbNode.NO_ADJACENT_NODE` if there is
+   * no such node
+   */
+  public int nodeOrdinal(long id) {
+    final NodeRef ref = nodes.get(id);
+    return ref != null ? ref.ordinal : OdbNode.NO_ADJACENT_NODE;
+  }
+
+  /**
+   * like `nodeOrdinal(long)`, without the lookup if the given ref is the graph's own instance
+   */
+  public int nodeOrdinal(NodeRef ref) {
+    return ref.ordinal != NodeRef.NO_ORDINAL ? ref.ordinal : nodeOrdinal(ref.id);
+  }
+
   private long determineNewNodeId(final Object... keyValues) {
     Optional idValueMaybe = ElementHelper.getIdValue(keyValues);
     if (idValueMaybe.isPresent()) {
@@ -234,12 +505,20 @@ public final class OdbGraph implements Graph {
   public void close() {
     this.closed = true;
     heapUsageMonitor.ifPresent(monitor -> monitor.close());
+    neighborPrefetcher.ifPresent(prefetcher -> prefetcher.close());
     if (config.getStorageLocation().isPresent()) {
       /* persist to disk */
       referenceManager.clearAllReferences();
     }
     referenceManager.close();
     storage.close();
+    if (snapshot != null) {
+      try {
+        snapshot.close();
+      } catch (IOException e) {
+        logger.warn("unable to close snapshot", e);
+      }
+    }
   }
 
   @Override
@@ -282,10 +561,52 @@ public final class OdbGraph implements Graph {
     else throw new IllegalArgumentException("unsupported id type: " + idOrNode.getClass() + " (" + idOrNode + "). Please pass one of [Long, OdbNode, NodeRef].");
   }
 
+  /** whether some nodes might not be in memory, i.e. need to be read from storage when accessed */
+  protected boolean mayHaveClearedRefs() {
+    return initializedFromStorage || referenceManager.hasClearedRefs();
+  }
+
+  /**
+   * Compacts the adjacency of all nodes which are currently in memory (see `OdbNode.compactAdjacency`), in parallel.
+   * Nodes which have been cleared are not read from storage for this.
+   *
+   * @return the number of removed holes
+   */
+  public long compactAdjacency() {
+    final NodeRef[] refs = nodes.values(new NodeRef[0]);
+    return Arrays.stream(refs).parallel().mapToLong(nodeRef -> {
+      final OdbNode node = nodeRef.getIfSet();
+      return node == null ? 0 : node.compactAdjacency();
+    }).sum();
+  }
+
+  /**
+   * Removes the unused capacity of the edge blocks of all nodes which are currently in memory
+   * (see `OdbNode.trimToSize`), in parallel - e.g. after loading the graph.
+   * Nodes which have been cleared are not read from storage for this.
+   *
+   * @return the number of freed array slots
+   */
+  public long trimToSize() {
+    final NodeRef[] refs = nodes.values(new NodeRef[0]);
+    return Arrays.stream(refs).parallel().mapToLong(nodeRef -> {
+      final OdbNode node = nodeRef.getIfSet();
+      return node == null ? 0 : node.trimToSize();
+    }).sum();
+  }
+
   public int nodeCount() {
     return nodes.size();
   }
 
+  /**
+   * (de)serialization and storage access times, bytes written and read, fault-ins and evictions since the graph was
+   * opened (or the metrics were reset), and how long it took to initialize the graph from storage
+   */
+  public OdbMetrics metrics() {
+    return metrics;
+  }
+
   public Iterator<NodeRef> nodesByLabel(final P<String> labelPredicate) {
     return elementsByLabel(nodesByLabel, labelPredicate);
   }
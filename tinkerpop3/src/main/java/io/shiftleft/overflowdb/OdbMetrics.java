@@ -0,0 +1,157 @@
+package io.shiftleft.overflowdb;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Where the time goes when nodes are moved between heap and storage: (de)serialization in the NodeSerializer and
+ * NodeDeserializer vs. reading and writing in the storage, plus how often that happens. Always enabled, see
+ * `OdbGraph.metrics`. All durations are in nanoseconds, sizes are as stored (i.e. after compression).
+ */
+public class OdbMetrics {
+  private final LatencyHistogram serialization = new LatencyHistogram();
+  private final LatencyHistogram deserialization = new LatencyHistogram();
+  private final LatencyHistogram storageWrites = new LatencyHistogram();
+  private final LatencyHistogram storageReads = new LatencyHistogram();
+  private final LatencyHistogram storageCommits = new LatencyHistogram();
+  private final LongAdder bytesWritten = new LongAdder();
+  private final LongAdder bytesRead = new LongAdder();
+  private final LongAdder faultIns = new LongAdder();
+  private final LongAdder prefetches = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private volatile long startupReadNanos;
+  private volatile long startupNanos;
+
+  public void recordSerialization(long nanos, int bytes) {
+    serialization.record(nanos);
+    bytesWritten.add(bytes);
+  }
+
+  public void recordDeserialization(long nanos, int bytes) {
+    deserialization.record(nanos);
+    bytesRead.add(bytes);
+  }
+
+  public void recordStorageWrite(long nanos) {
+    storageWrites.record(nanos);
+  }
+
+  public void recordStorageRead(long nanos) {
+    storageReads.record(nanos);
+  }
+
+  public void recordStorageCommit(long nanos) {
+    storageCommits.record(nanos);
+  }
+
+  public void recordFaultIn() {
+    faultIns.increment();
+  }
+
+  public void recordPrefetch() {
+    prefetches.increment();
+  }
+
+  public void recordEviction() {
+    evictions.increment();
+  }
+
+  public void recordStartup(long readNanos, long totalNanos) {
+    startupReadNanos = readNanos;
+    startupNanos = totalNanos;
+  }
+
+  public LatencyHistogram serialization() {
+    return serialization;
+  }
+
+  public LatencyHistogram deserialization() {
+    return deserialization;
+  }
+
+  /**
+   * writing serialized nodes to the storage, i.e. `MVMap.put` - one record per node. That's an in-memory operation,
+   * the actual disk I/O happens on commit, see `storageCommits`.
+   * Only recorded by MVStoreStorage: the other storage types write to memory (mapped files or the heap)
+   */
+  public LatencyHistogram storageWrites() {
+    return storageWrites;
+  }
+
+  /** reading serialized nodes from the storage, i.e. `MVMap.get` - excluding deserialization. Only recorded by MVStoreStorage */
+  public LatencyHistogram storageReads() {
+    return storageReads;
+  }
+
+  /**
+   * committing the written nodes to disk, i.e. `MVStore.commit` (which writes and syncs the changed pages), or forcing
+   * the dirty segments of the SegmentLogStorage - one record per batch of writes
+   */
+  public LatencyHistogram storageCommits() {
+    return storageCommits;
+  }
+
+  public long bytesWritten() {
+    return bytesWritten.sum();
+  }
+
+  public long bytesRead() {
+    return bytesRead.sum();
+  }
+
+  /** nodes which have been read from storage because their ref was accessed */
+  public long faultIns() {
+    return faultIns.sum();
+  }
+
+  /** nodes which have been read from storage by the NeighborPrefetcher, before their ref was accessed */
+  public long prefetches() {
+    return prefetches.sum();
+  }
+
+  /** refs which have been cleared to free up heap */
+  public long evictions() {
+    return evictions.sum();
+  }
+
+  /**
+   * initializing the graph from existing storage, i.e. creating the NodeRefs for all stored nodes - 0 if the graph
+   * wasn't initialized from storage. Not affected by `reset`
+   */
+  public long startupNanos() {
+    return startupNanos;
+  }
+
+  /** the part of `startupNanos` spent reading the node catalog (or the nodes) from storage, the rest is merging */
+  public long startupReadNanos() {
+    return startupReadNanos;
+  }
+
+  /**
+   * not atomic: values recorded concurrently may or may not be included afterwards
+   */
+  public void reset() {
+    serialization.reset();
+    deserialization.reset();
+    storageWrites.reset();
+    storageReads.reset();
+    storageCommits.reset();
+    bytesWritten.reset();
+    bytesRead.reset();
+    faultIns.reset();
+    prefetches.reset();
+    evictions.reset();
+  }
+
+  @Override
+  public String toString() {
+    return "serialization: " + serialization + ", bytesWritten=" + bytesWritten() + "\n" +
+        "deserialization: " + deserialization + ", bytesRead=" + bytesRead() + "\n" +
+        "storage writes: " + storageWrites + "\n" +
+        "storage reads: " + storageReads + "\n" +
+        "storage commits: " + storageCommits + "\n" +
+        "faultIns=" + faultIns() + ", prefetches=" + prefetches() + ", evictions=" + evictions() + "\n" +
+        "startup: " + TimeUnit.NANOSECONDS.toMillis(startupNanos) + "ms " +
+        "(reading storage: " + TimeUnit.NANOSECONDS.toMillis(startupReadNanos) + "ms)";
+  }
+}
@@ -1,5 +1,6 @@
 package io.shiftleft.overflowdb;
 
+import io.shiftleft.overflowdb.storage.PendingSections;
 import io.shiftleft.overflowdb.util.ArrayOffsetIterator;
 import io.shiftleft.overflowdb.util.MultiIterator2;
 import org.apache.tinkerpop.gremlin.structure.Direction;
@@ -12,6 +13,8 @@ import org.apache.tinkerpop.gremlin.structure.VertexProperty;
 import org.apache.tinkerpop.gremlin.structure.util.ElementHelper;
 import org.apache.tinkerpop.gremlin.structure.util.empty.EmptyProperty;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -32,15 +35,54 @@ public abstract class OdbNode implements Vertex {
 
   public final NodeRef ref;
 
+  /* used as the ordinal of removed edges (holes) in `adjacentNodeOrdinals` */
+  public static final int NO_ADJACENT_NODE = -1;
+
+  /* used in `pairedSlots` if the other side of an edge is unknown, e.g. for nodes read from older formats */
+  public static final long UNPAIRED = -1L;
+
   /**
    * holds refs to all adjacent nodes (a.k.a. dummy edges) and the edge properties
    */
   private Object[] adjacentNodesWithProperties = new Object[0];
 
+  /* only for the NODE_IDS and COLUMNAR adjacency layouts (see `NodeLayoutInformation.AdjacencyLayout`): the ordinals
+   * of the adjacent nodes (see `OdbGraph.nodeByOrdinal`), one per edge. `adjacentNodesWithProperties` then only holds
+   * the edge properties (see `NodeLayoutInformation.edgePropertyIndex`), and is empty if there are none. */
+  private int[] adjacentNodeOrdinals;
+
+  /* per offset position, for each edge (indexed by it's entry in the block, i.e. the block offset divided by the
+   * stride): where the same edge is stored in the adjacent node, i.e. it's block offset there, together with the
+   * adjacent node's compaction epoch at the time (see `pairedSlot`).
+   * This allows to find the other side of an edge in constant time, rather than scanning the block for the occurrence.
+   * That only pays off for large blocks, i.e. they're only allocated once a block reaches the edge pairing threshold
+   * (see `OdbConfig.withEdgePairingThreshold`), and the whole array is `null` until then.
+   * The offsets are rebased lazily when the adjacent node has been compacted since, see `pairedBlockOffset` */
+  private long[][] pairedSlots;
+
   /* store the start offset and length into the above `adjacentNodesWithProperties` array in an interleaved manner,
    * i.e. each outgoing edge type has two entries in this array. */
   private int[] edgeOffsets;
 
+  /* new nodes have never been serialized, so they're dirty by definition.
+   * nodes that haven't been modified since they were last serialized can simply be dropped when clearing the ref */
+  private volatile boolean modifiedSinceLastSerialization = true;
+
+  /* lazily materialized nodes (see `PendingSections`): the sections which haven't been decoded yet.
+   * Cleared (while holding the lock) once the section has been decoded, i.e. readers which see `null` see the
+   * decoded section as well. */
+  private volatile PendingSections pendingProperties;
+  private volatile PendingSections pendingAdjacency;
+  /* guards against recursion, e.g. if assigning a property calls back into the property accessors */
+  private boolean materializing;
+  /* set when the node has been faulted in from storage: the next traversal of it's adjacency prefetches the cleared
+   * neighbors, see NeighborPrefetcher */
+  private boolean prefetchNeighbors;
+
+  /* the current compaction epoch (see `compactAdjacency`). Only allocated on the first compaction, or once an OdbEdge
+   * needs to refer to it (see `currentEpoch`), since most nodes never have any removed edges */
+  private AdjacencyEpoch epoch;
+
   protected OdbNode(NodeRef ref) {
     this.ref = ref;
 
@@ -50,13 +92,25 @@ public abstract class OdbNode implements Vertex {
     }
 
     edgeOffsets = new int[layoutInformation().numberOfDifferentAdjacentTypes() * 2];
+    if (layoutInformation().adjacencyLayout() != NodeLayoutInformation.AdjacencyLayout.NODE_REFS) {
+      adjacentNodeOrdinals = new int[0];
+    }
   }
 
   protected abstract NodeLayoutInformation layoutInformation();
 
+  public NodeLayoutInformation getLayoutInformation() {
+    return layoutInformation();
+  }
+
   protected abstract <V> Iterator<VertexProperty<V>> specificProperties(String key);
 
+  /**
+   * n.b. for the NODE_IDS and COLUMNAR adjacency layouts, this only holds the edge properties, see
+   * `getAdjacentNodeOrdinals`
+   */
   public Object[] getAdjacentNodesWithProperties() {
+    loadAdjacency();
     return adjacentNodesWithProperties;
   }
 
@@ -64,7 +118,51 @@ public abstract class OdbNode implements Vertex {
     this.adjacentNodesWithProperties = adjacentNodesWithProperties;
   }
 
+  /**
+   * @return the ordinals of the adjacent nodes (see `OdbGraph.nodeByOrdinal`, `NO_ADJACENT_NODE` for removed edges) if
+   * this node uses the NODE_IDS or COLUMNAR adjacency layout, `null` otherwise
+   */
+  public int[] getAdjacentNodeOrdinals() {
+    loadAdjacency();
+    return adjacentNodeOrdinals;
+  }
+
+  public void setAdjacentNodeOrdinals(int[] adjacentNodeOrdinals) {
+    this.adjacentNodeOrdinals = adjacentNodeOrdinals;
+  }
+
+  /**
+   * @return per offset position and edge, the other side of the edge (see `pairedSlot`), `null` for blocks which don't
+   * keep track of it
+   */
+  public long[][] getPairedSlots() {
+    loadAdjacency();
+    return pairedSlots;
+  }
+
+  public void setPairedSlots(long[][] pairedSlots) {
+    this.pairedSlots = pairedSlots;
+  }
+
+  /**
+   * @param blockOffset block offset of the edge in the adjacent node
+   * @param epoch       compaction epoch of the adjacent node which the block offset is valid for
+   * @return the entry for `pairedSlots`
+   */
+  public static long pairedSlot(int blockOffset, int epoch) {
+    return ((long) epoch << 32) | (blockOffset & 0xFFFFFFFFL);
+  }
+
+  public static int pairedSlotBlockOffset(long pairedSlot) {
+    return (int) pairedSlot;
+  }
+
+  public static int pairedSlotEpoch(long pairedSlot) {
+    return (int) (pairedSlot >>> 32);
+  }
+
   public int[] getEdgeOffsets() {
+    loadAdjacency();
     return edgeOffsets;
   }
 
@@ -74,6 +172,73 @@ public abstract class OdbNode implements Vertex {
 
   public abstract Map<String, Object> valueMap();
 
+  /**
+   * Whether the properties of this node may be materialized lazily, i.e. after the node has been deserialized.
+   * Only return true if all methods which access the property fields directly (generated accessors, `valueMap`,
+   * `specificProperties`) call `loadProperties` first.
+   * The adjacency is always materialized lazily (if enabled in the config), since it's private to OdbNode.
+   */
+  public boolean supportsLazyProperties() {
+    return false;
+  }
+
+  public void setPendingProperties(PendingSections pendingProperties) {
+    this.pendingProperties = pendingProperties;
+  }
+
+  public void setPendingAdjacency(PendingSections pendingAdjacency) {
+    this.pendingAdjacency = pendingAdjacency;
+  }
+
+  public boolean isPropertiesMaterialized() {
+    return pendingProperties == null;
+  }
+
+  public boolean isAdjacencyMaterialized() {
+    return pendingAdjacency == null;
+  }
+
+  /**
+   * decodes the properties, if they haven't been materialized yet
+   */
+  public final void loadProperties() {
+    if (pendingProperties != null) {
+      synchronized (this) {
+        final PendingSections pending = pendingProperties;
+        if (pending != null && !materializing) {
+          materializing = true;
+          try {
+            pending.materializeProperties(this);
+            pendingProperties = null;
+          } catch (IOException e) {
+            throw new UncheckedIOException("unable to materialize properties of node " + ref.id, e);
+          } finally {
+            materializing = false;
+          }
+        }
+      }
+    }
+  }
+
+  private void loadAdjacency() {
+    if (pendingAdjacency != null) {
+      synchronized (this) {
+        final PendingSections pending = pendingAdjacency;
+        if (pending != null && !materializing) {
+          materializing = true;
+          try {
+            pending.materializeAdjacency(this);
+            pendingAdjacency = null;
+          } catch (IOException e) {
+            throw new UncheckedIOException("unable to materialize adjacency of node " + ref.id, e);
+          } finally {
+            materializing = false;
+          }
+        }
+      }
+    }
+  }
+
   @Override
   public Graph graph() {
     return ref.graph;
@@ -91,6 +256,7 @@ public abstract class OdbNode implements Vertex {
 
   @Override
   public <V> VertexProperty<V> property(String key) {
+    loadProperties();
     return specificProperty(key);
   }
 
@@ -108,6 +274,7 @@ public abstract class OdbNode implements Vertex {
 
   @Override
   public <V> Iterator<VertexProperty<V>> properties(String... propertyKeys) {
+    loadProperties();
     if (propertyKeys.length == 0) { // return all properties
       return (Iterator) layoutInformation().propertyKeys().stream().flatMap(key ->
           StreamSupport.stream(Spliterators.spliteratorUnknownSize(
@@ -127,10 +294,11 @@ public abstract class OdbNode implements Vertex {
   public <V> VertexProperty<V> property(VertexProperty.Cardinality cardinality, String key, V value, Object... keyValues) {
     ElementHelper.legalPropertyKeyValueArray(keyValues);
     ElementHelper.validateProperty(key, value);
+    loadProperties();
     synchronized (this) {
-//            this.modifiedSinceLastSerialization = true;
+      markModified();
       final VertexProperty<V> vp = updateSpecificProperty(cardinality, key, value);
-      OdbIndex.autoUpdateIndex(this, key, value, null);
+      OdbIndex.autoUpdateIndex(ref, key, value, null);
       return vp;
     }
   }
@@ -138,6 +306,18 @@ public abstract class OdbNode implements Vertex {
   protected abstract <V> VertexProperty<V> updateSpecificProperty(
       VertexProperty.Cardinality cardinality, String key, V value);
 
+  /**
+   * Sets a property while restoring the node from storage. Unlike `property`, this doesn't validate the value or mark
+   * the node as modified: that happened when the property was originally set.
+   * The index holds the node's ref, which stays the same across evictions, i.e. updating it again is a no-op unless the
+   * index has been created in the meantime.
+   * List properties are set element by element, primitive arrays (e.g. `int[]`) are set as a whole.
+   */
+  public void initProperty(String key, Object value) {
+    updateSpecificProperty(VertexProperty.Cardinality.list, key, value);
+    OdbIndex.autoUpdateIndex(ref, key, value, null);
+  }
+
   protected abstract void removeSpecificProperty(String key);
 
   @Override
@@ -150,17 +330,30 @@ public abstract class OdbNode implements Vertex {
         edge.remove();
       }
     }
-    OdbIndex.removeElementIndex(this);
-    graph.nodes.remove(ref.id);
+    OdbIndex.removeElementIndex(ref);
+    graph.removeNodeRef(ref.id);
     graph.getElementsByLabel(graph.nodesByLabel, label()).remove(this);
 
     graph.storage.removeNode(ref.id);
-//        this.modifiedSinceLastSerialization = true;
+    /* removing the edges above has marked this node as modified - make sure it won't be written to storage again
+     * if it's ref gets cleared later on */
+    setModifiedSinceLastSerialization(false);
+  }
+
+  public boolean isModifiedSinceLastSerialization() {
+    return modifiedSinceLastSerialization;
+  }
+
+  public void setModifiedSinceLastSerialization(boolean modifiedSinceLastSerialization) {
+    this.modifiedSinceLastSerialization = modifiedSinceLastSerialization;
   }
 
-//    public void setModifiedSinceLastSerialization(boolean modifiedSinceLastSerialization) {
-//        this.modifiedSinceLastSerialization = modifiedSinceLastSerialization;
-//    }
+  /* avoids a volatile write if the node is already marked as modified, e.g. when adding many edges */
+  protected void markModified() {
+    if (!modifiedSinceLastSerialization) {
+      modifiedSinceLastSerialization = true;
+    }
+  }
 
   public <V> Iterator<Property<V>> getEdgeProperties(Direction direction,
                                                      OdbEdge edge,
@@ -173,7 +366,7 @@ public abstract class OdbNode implements Vertex {
         result.add(getEdgeProperty(direction, edge, blockOffset, key));
       }
     } else {
-      for (String propertyKey : layoutInformation().edgePropertyKeys(edge.label())) {
+      for (String propertyKey : layoutInformation().edgePropertyKeys(edge.labelOrdinal())) {
         result.add(getEdgeProperty(direction, edge, blockOffset, propertyKey));
       }
     }
@@ -185,7 +378,8 @@ public abstract class OdbNode implements Vertex {
                                          OdbEdge edge,
                                          int blockOffset,
                                          String key) {
-    int propertyPosition = getEdgePropertyIndex(direction, edge.label(), key, blockOffset);
+    loadAdjacency();
+    int propertyPosition = getEdgePropertyIndex(direction, edge.labelOrdinal(), key, blockOffset);
     if (propertyPosition == -1) {
       return EmptyProperty.instance();
     }
@@ -201,17 +395,36 @@ public abstract class OdbNode implements Vertex {
                                   String key,
                                   V value,
                                   int blockOffset) {
-    int propertyPosition = getEdgePropertyIndex(direction, edgeLabel, key, blockOffset);
+    setEdgeProperty(direction, NodeLayoutInformation.edgeLabelOrdinal(edgeLabel), edgeLabel, key, value, blockOffset);
+  }
+
+  public <V> void setEdgeProperty(Direction direction,
+                                  OdbEdge edge,
+                                  String key,
+                                  V value,
+                                  int blockOffset) {
+    setEdgeProperty(direction, edge.labelOrdinal(), edge.label(), key, value, blockOffset);
+  }
+
+  private <V> void setEdgeProperty(Direction direction,
+                                   int edgeLabelOrdinal,
+                                   String edgeLabel,
+                                   String key,
+                                   V value,
+                                   int blockOffset) {
+    loadAdjacency();
+    int propertyPosition = getEdgePropertyIndex(direction, edgeLabelOrdinal, key, blockOffset);
     if (propertyPosition == -1) {
       throw new RuntimeException("Edge " + edgeLabel + " does not support property " + key + ".");
     }
     adjacentNodesWithProperties[propertyPosition] = value;
+    markModified();
   }
 
   private int calcAdjacentNodeIndex(Direction direction,
-                                    String edgeLabel,
+                                    int edgeLabelOrdinal,
                                     int blockOffset) {
-    int offsetPos = getPositionInEdgeOffsets(direction, edgeLabel);
+    int offsetPos = getPositionInEdgeOffsets(direction, edgeLabelOrdinal);
     if (offsetPos == -1) {
       return -1;
     }
@@ -224,20 +437,21 @@ public abstract class OdbNode implements Vertex {
    * Return -1 if there exists no edge property for the provided argument combination.
    */
   private int getEdgePropertyIndex(Direction direction,
-                                   String label,
+                                   int labelOrdinal,
                                    String key,
                                    int blockOffset) {
-    int adjacentNodeIndex = calcAdjacentNodeIndex(direction, label, blockOffset);
+    int adjacentNodeIndex = calcAdjacentNodeIndex(direction, labelOrdinal, blockOffset);
     if (adjacentNodeIndex == -1) {
       return -1;
     }
 
-    int propertyOffset = layoutInformation().getOffsetRelativeToAdjacentNodeRef(label, key);
+    int propertyOffset = layoutInformation().getOffsetRelativeToAdjacentNodeRef(
+        labelOrdinal, NodeLayoutInformation.edgePropertyKeyOrdinal(key));
     if (propertyOffset == -1) {
       return -1;
     }
 
-    return adjacentNodeIndex + propertyOffset;
+    return layoutInformation().edgePropertyIndex(adjacentNodeIndex, propertyOffset, adjacencyCapacity());
   }
 
   @Override
@@ -246,17 +460,26 @@ public abstract class OdbNode implements Vertex {
     NodeRef thisNodeRef = ref;
 
     int outBlockOffset = storeAdjacentNode(Direction.OUT, label, inNodeRef, keyValues);
-    int inBlockOffset = inNodeRef.get().storeAdjacentNode(Direction.IN, label, thisNodeRef, keyValues);
+    AdjacencyEpoch outEpoch = currentEpoch();
+    OdbNode inNodeInstance = inNodeRef.get();
+    int inBlockOffset = inNodeInstance.storeAdjacentNode(Direction.IN, label, thisNodeRef, keyValues);
+    AdjacencyEpoch inEpoch = inNodeInstance.currentEpoch();
 
     OdbEdge dummyEdge = instantiateDummyEdge(label, thisNodeRef, inNodeRef);
-    dummyEdge.setOutBlockOffset(outBlockOffset);
-    dummyEdge.setInBlockOffset(inBlockOffset);
+    dummyEdge.setOutBlockOffset(outBlockOffset, outEpoch);
+    dummyEdge.setInBlockOffset(inBlockOffset, inEpoch);
+
+    /* for self loops, storing the IN side may have compacted this node, i.e. the OUT side offset needs to be rebased */
+    outBlockOffset = dummyEdge.getOutBlockOffset();
+    pairEdge(Direction.OUT, dummyEdge.labelOrdinal(), outBlockOffset, inBlockOffset, inNodeInstance.compactionEpoch());
+    inNodeInstance.pairEdge(Direction.IN, dummyEdge.labelOrdinal(), inBlockOffset, outBlockOffset, compactionEpoch());
 
     return dummyEdge;
   }
 
   @Override
   public Iterator<Edge> edges(Direction direction, String... edgeLabels) {
+    loadAdjacency();
     final MultiIterator2<Edge> multiIterator = new MultiIterator2<>();
     if (direction == Direction.IN || direction == Direction.BOTH) {
       for (String label : calcInLabels(edgeLabels)) {
@@ -276,6 +499,7 @@ public abstract class OdbNode implements Vertex {
 
   @Override
   public Iterator<Vertex> vertices(Direction direction, String... edgeLabels) {
+    loadAdjacency();
     final MultiIterator2<Vertex> multiIterator = new MultiIterator2<>();
     if (direction == Direction.IN || direction == Direction.BOTH) {
       for (String label : calcInLabels(edgeLabels)) {
@@ -303,13 +527,21 @@ public abstract class OdbNode implements Vertex {
                                      String label,
                                      NodeRef otherNode,
                                      int blockOffset) {
-    int offsetPos = getPositionInEdgeOffsets(direction, label);
+    return blockOffsetToOccurrence(direction, NodeLayoutInformation.edgeLabelOrdinal(label), otherNode, blockOffset);
+  }
+
+  public int blockOffsetToOccurrence(Direction direction,
+                                     int labelOrdinal,
+                                     NodeRef otherNode,
+                                     int blockOffset) {
+    loadAdjacency();
+    int offsetPos = getPositionInEdgeOffsets(direction, labelOrdinal);
     int start = startIndex(offsetPos);
-    int strideSize = getStrideSize(label);
+    int strideSize = layoutInformation().indexStride(offsetPos);
 
     int occurrenceCount = -1;
     for (int i = start; i <= start + blockOffset; i += strideSize) {
-      if (((NodeRef) adjacentNodesWithProperties[i]).id().equals(otherNode.id())) {
+      if (isAdjacentNode(i, otherNode)) {
         occurrenceCount++;
       }
     }
@@ -328,14 +560,22 @@ public abstract class OdbNode implements Vertex {
                                      String label,
                                      NodeRef adjacentNode,
                                      int occurrence) {
-    int offsetPos = getPositionInEdgeOffsets(direction, label);
+    return occurrenceToBlockOffset(direction, NodeLayoutInformation.edgeLabelOrdinal(label), adjacentNode, occurrence);
+  }
+
+  public int occurrenceToBlockOffset(Direction direction,
+                                     int labelOrdinal,
+                                     NodeRef adjacentNode,
+                                     int occurrence) {
+    loadAdjacency();
+    int offsetPos = getPositionInEdgeOffsets(direction, labelOrdinal);
     int start = startIndex(offsetPos);
     int length = blockLength(offsetPos);
-    int strideSize = getStrideSize(label);
+    int strideSize = layoutInformation().indexStride(offsetPos);
 
     int currentOccurrence = 0;
     for (int i = start; i < start + length; i += strideSize) {
-      if (((NodeRef) adjacentNodesWithProperties[i]).id().equals(adjacentNode.id())) {
+      if (isAdjacentNode(i, adjacentNode)) {
         if (currentOccurrence == occurrence) {
           int adjacentNodeIndex = i - start;
           return adjacentNodeIndex;
@@ -345,24 +585,198 @@ public abstract class OdbNode implements Vertex {
       }
     }
     throw new RuntimeException("Unable to find occurrence " + occurrence + " of "
-        + label + " edge to node " + adjacentNode.id());
+        + edgeLabel(direction, offsetPos) + " edge to node " + adjacentNode.id());
+  }
+
+  /**
+   * Finds the other side of an edge in constant time, via `pairedSlots`.
+   *
+   * @param blockOffset may be -1 (unknown), e.g. for an edge whose block offset couldn't be rebased
+   * @return the block offset of the given edge in the adjacent node, valid for it's current compaction epoch,
+   * or -1 if it's unknown, e.g. because the adjacent node has been compacted more than once since the edges have
+   * been paired, or because the block is below the edge pairing threshold. Use `blockOffsetToOccurrence` and `occurrenceToBlockOffset` in that case.
+   */
+  public int pairedBlockOffset(Direction direction, String label, int blockOffset) {
+    return pairedBlockOffset(direction, NodeLayoutInformation.edgeLabelOrdinal(label), blockOffset);
+  }
+
+  public int pairedBlockOffset(Direction direction, int labelOrdinal, int blockOffset) {
+    if (blockOffset < 0) {
+      return -1;
+    }
+    loadAdjacency();
+    final int offsetPos = getPositionInEdgeOffsets(direction, labelOrdinal);
+    final long[] blockPairedSlots = blockPairedSlots(offsetPos);
+    final int entry = blockOffset / layoutInformation().indexStride(offsetPos);
+    if (blockPairedSlots == null || entry >= blockPairedSlots.length) {
+      return -1;
+    }
+    final long pairedSlot = blockPairedSlots[entry];
+    final NodeRef adjacentRef = adjacentNode(startIndex(offsetPos) + blockOffset);
+    if (pairedSlot == UNPAIRED || adjacentRef == null) {
+      return -1;
+    }
+
+    final OdbNode adjacentNode = adjacentRef.get();
+    adjacentNode.loadAdjacency();
+    final Direction pairedDirection = direction.opposite();
+    final int epoch = adjacentNode.compactionEpoch();
+    final int pairedBlockOffset = adjacentNode.rebaseBlockOffset(
+        pairedDirection, labelOrdinal, pairedSlotBlockOffset(pairedSlot), pairedSlotEpoch(pairedSlot));
+    if (pairedBlockOffset == -1 || !adjacentNode.isPairedWith(pairedDirection, labelOrdinal, pairedBlockOffset, ref)) {
+      return -1;
+    }
+    if (epoch != pairedSlotEpoch(pairedSlot)) {
+      blockPairedSlots[entry] = pairedSlot(pairedBlockOffset, epoch);
+    }
+    return pairedBlockOffset;
+  }
+
+  /**
+   * Records where the other side of the given edge is stored, see `pairedBlockOffset` - unless the block is below the
+   * edge pairing threshold, see `OdbConfig.withEdgePairingThreshold`.
+   * n.b. this doesn't mark the node as modified: the pairing can always be derived again.
+   *
+   * @param pairedEpoch the adjacent node's compaction epoch which `pairedBlockOffset` is valid for
+   */
+  protected void pairEdge(Direction direction, int labelOrdinal, int blockOffset, int pairedBlockOffset, int pairedEpoch) {
+    loadAdjacency();
+    final int offsetPos = getPositionInEdgeOffsets(direction, labelOrdinal);
+    final int strideSize = layoutInformation().indexStride(offsetPos);
+    final int entryCount = blockLength(offsetPos) / strideSize;
+    if (entryCount < edgePairingThreshold()) {
+      return;
+    }
+    final int entry = blockOffset / strideSize;
+    long[] blockPairedSlots = blockPairedSlots(offsetPos);
+    if (blockPairedSlots == null || entry >= blockPairedSlots.length) {
+      blockPairedSlots = growPairedSlots(offsetPos, entryCount);
+    }
+    blockPairedSlots[entry] = pairedSlot(pairedBlockOffset, pairedEpoch);
+  }
+
+  /* the paired slots of the given block, or `null` if it doesn't have any (yet) */
+  private long[] blockPairedSlots(int offsetPos) {
+    final long[][] pairedSlots = this.pairedSlots;
+    return pairedSlots == null ? null : pairedSlots[offsetPos];
+  }
+
+  /* grows the paired slots of the given block to at least `minLength` entries, the new ones are unpaired */
+  private long[] growPairedSlots(int offsetPos, int minLength) {
+    if (pairedSlots == null) {
+      pairedSlots = new long[edgeOffsets.length / 2][];
+    }
+    final long[] blockPairedSlots = pairedSlots[offsetPos];
+    final int length = blockPairedSlots == null ? minLength : Integer.max(minLength, blockPairedSlots.length * 3 / 2);
+    final long[] grown = blockPairedSlots == null ? new long[length] : Arrays.copyOf(blockPairedSlots, length);
+    Arrays.fill(grown, blockPairedSlots == null ? 0 : blockPairedSlots.length, length, UNPAIRED);
+    pairedSlots[offsetPos] = grown;
+    return grown;
+  }
+
+  private int edgePairingThreshold() {
+    return ref.graph != null ? ref.graph.config.getEdgePairingThreshold() : OdbConfig.DEFAULT_EDGE_PAIRING_THRESHOLD;
+  }
+
+  /* sanity check for `pairedBlockOffset`: whether the given block offset (still) holds an edge to the given node */
+  private boolean isPairedWith(Direction direction, int labelOrdinal, int blockOffset, NodeRef node) {
+    final int offsetPos = getPositionInEdgeOffsets(direction, labelOrdinal);
+    return blockOffset < blockLength(offsetPos) && isAdjacentNode(startIndex(offsetPos) + blockOffset, node);
   }
 
   /**
    * Removes an 'edge', i.e. in reality it removes the information about the adjacent node from
    * `adjacentNodesWithProperties`. The corresponding elements will be set to `null`, i.e. we'll have holes.
-   * Note: this decrements the `offset` of the following edges in the same block by one, but that's ok because the only
-   * thing that matters is that the offset is identical for both connected nodes (assuming thread safety).
+   * The holes are skipped when traversing, and removed by `compactAdjacency`.
    *
    * @param blockOffset must have been initialized
    */
-  protected void removeEdge(Direction direction, String label, int blockOffset) {
-    int offsetPos = getPositionInEdgeOffsets(direction, label);
+  protected void removeEdge(Direction direction, int labelOrdinal, int blockOffset) {
+    loadAdjacency();
+    int offsetPos = getPositionInEdgeOffsets(direction, labelOrdinal);
     int start = startIndex(offsetPos) + blockOffset;
-    int strideSize = getStrideSize(label);
+    int propertyCount = layoutInformation().strideSize(offsetPos) - 1;
+
+    if (adjacentNodeOrdinals != null) {
+      adjacentNodeOrdinals[start] = NO_ADJACENT_NODE;
+    } else {
+      adjacentNodesWithProperties[start] = null;
+    }
+    final long[] blockPairedSlots = blockPairedSlots(offsetPos);
+    final int entry = blockOffset / layoutInformation().indexStride(offsetPos);
+    if (blockPairedSlots != null && entry < blockPairedSlots.length) {
+      blockPairedSlots[entry] = UNPAIRED;
+    }
+    for (int strideIndex = 1; strideIndex <= propertyCount; strideIndex++) {
+      adjacentNodesWithProperties[layoutInformation().edgePropertyIndex(start, strideIndex, adjacencyCapacity())] = null;
+    }
+    markModified();
+  }
+
+  /* whether there's an edge to the given node at the given index, i.e. false for holes */
+  private boolean isAdjacentNode(int index, NodeRef node) {
+    if (adjacentNodeOrdinals != null) {
+      final int ordinal = adjacentNodeOrdinals[index];
+      return ordinal != NO_ADJACENT_NODE && ordinal == ref.graph.nodeOrdinal(node);
+    } else {
+      final NodeRef candidate = (NodeRef) adjacentNodesWithProperties[index];
+      return candidate != null && candidate.id == node.id;
+    }
+  }
+
+  /* the adjacent node at the given index, or null for holes */
+  private NodeRef adjacentNode(int index) {
+    if (adjacentNodeOrdinals != null) {
+      final int ordinal = adjacentNodeOrdinals[index];
+      return ordinal == NO_ADJACENT_NODE ? null : ref.graph.nodeByOrdinal(ordinal);
+    } else {
+      return (NodeRef) adjacentNodesWithProperties[index];
+    }
+  }
 
-    for (int i = start; i < start + strideSize; i++) {
-      adjacentNodesWithProperties[i] = null;
+  private boolean isHole(int index) {
+    if (adjacentNodeOrdinals != null) {
+      return adjacentNodeOrdinals[index] == NO_ADJACENT_NODE;
+    } else {
+      return adjacentNodesWithProperties[index] == null;
+    }
+  }
+
+  /* length of the adjacency arrays, including free capacity */
+  private int adjacencyCapacity() {
+    return adjacentNodeOrdinals != null ? adjacentNodeOrdinals.length : adjacentNodesWithProperties.length;
+  }
+
+  /* for the NODE_IDS and COLUMNAR adjacency layouts, `adjacentNodesWithProperties` is only allocated if there are
+   * edge properties */
+  private boolean hasEdgePropertySlots() {
+    return adjacentNodeOrdinals == null || layoutInformation().hasEdgeProperties();
+  }
+
+  private Object[] newEdgePropertySlots(int capacity) {
+    if (layoutInformation().adjacencyLayout() == NodeLayoutInformation.AdjacencyLayout.NODE_REFS) {
+      return new Object[capacity];
+    } else {
+      return new Object[capacity * layoutInformation().edgePropertyColumnCount()];
+    }
+  }
+
+  /* copies `length` slots of `adjacentNodesWithProperties`, i.e. for the NODE_IDS and COLUMNAR layouts: the properties
+   * of `length` edges */
+  private void copyEdgePropertySlots(Object[] source, int sourceCapacity, int sourceIndex,
+                                     Object[] target, int targetCapacity, int targetIndex, int length) {
+    final int columnCount = layoutInformation().edgePropertyColumnCount();
+    switch (layoutInformation().adjacencyLayout()) {
+      case NODE_IDS:
+        System.arraycopy(source, sourceIndex * columnCount, target, targetIndex * columnCount, length * columnCount);
+        break;
+      case COLUMNAR:
+        for (int column = 0; column < columnCount; column++) {
+          System.arraycopy(source, column * sourceCapacity + sourceIndex, target, column * targetCapacity + targetIndex, length);
+        }
+        break;
+      default:
+        System.arraycopy(source, sourceIndex, target, targetIndex, length);
     }
   }
 
@@ -372,10 +786,14 @@ public abstract class OdbNode implements Vertex {
     if (offsetPos != -1) {
       int start = startIndex(offsetPos);
       int length = blockLength(offsetPos);
-      int strideSize = getStrideSize(label);
+      int strideSize = layoutInformation().indexStride(offsetPos);
 
+      if (adjacentNodeOrdinals != null) {
+        return new DummyEdgeIterator(adjacentNodeOrdinals, start, start + length, strideSize,
+            direction, label, (NodeRef) ref, currentEpoch());
+      }
       return new DummyEdgeIterator(adjacentNodesWithProperties, start, start + length, strideSize,
-          direction, label, (NodeRef) ref);
+          direction, label, (NodeRef) ref, currentEpoch());
     } else {
       return Collections.emptyIterator();
     }
@@ -386,14 +804,54 @@ public abstract class OdbNode implements Vertex {
     if (offsetPos != -1) {
       int start = startIndex(offsetPos);
       int length = blockLength(offsetPos);
-      int strideSize = getStrideSize(label);
+      int strideSize = layoutInformation().indexStride(offsetPos);
 
+      if (prefetchNeighbors && length > 0) {
+        prefetchNeighbors = false;
+        ref.graph.neighborPrefetcher.get().prefetch(ref.id, direction, label);
+      }
+      if (adjacentNodeOrdinals != null) {
+        return new NodeIdIterator(ref.graph, adjacentNodeOrdinals, start, start + length, strideSize);
+      }
       return new ArrayOffsetIterator<>(adjacentNodesWithProperties, start, start + length, strideSize);
     } else {
       return Collections.emptyIterator();
     }
   }
 
+  /**
+   * only called by NodeRef when the node has been faulted in, and a NeighborPrefetcher is configured
+   */
+  void requestNeighborPrefetch() {
+    prefetchNeighbors = true;
+  }
+
+  /**
+   * @return the adjacent nodes for the given direction and label which are currently not in memory,
+   * without reading them from storage
+   */
+  public List<NodeRef> clearedAdjacentNodes(Direction direction, String label) {
+    loadAdjacency();
+    final List<NodeRef> clearedNodes = new ArrayList<>();
+    int offsetPos = getPositionInEdgeOffsets(direction, label);
+    if (offsetPos != -1) {
+      final Object[] adjacentNodesWithProperties = this.adjacentNodesWithProperties;
+      final int[] adjacentNodeOrdinals = this.adjacentNodeOrdinals;
+      int start = startIndex(offsetPos);
+      int end = Integer.min(start + blockLength(offsetPos), adjacentNodeOrdinals != null ? adjacentNodeOrdinals.length : adjacentNodesWithProperties.length);
+      int strideSize = layoutInformation().indexStride(offsetPos);
+      for (int i = start; i < end; i += strideSize) {
+        final NodeRef adjacentNode = adjacentNodeOrdinals != null ?
+            (adjacentNodeOrdinals[i] == NO_ADJACENT_NODE ? null : ref.graph.nodeByOrdinal(adjacentNodeOrdinals[i])) :
+            (NodeRef) adjacentNodesWithProperties[i];
+        if (adjacentNode != null && adjacentNode.isCleared()) {
+          clearedNodes.add(adjacentNode);
+        }
+      }
+    }
+    return clearedNodes;
+  }
+
   private int storeAdjacentNode(Direction direction,
                                 String edgeLabel,
                                 NodeRef nodeRef,
@@ -413,6 +871,7 @@ public abstract class OdbNode implements Vertex {
   }
 
   private int storeAdjacentNode(Direction direction, String edgeLabel, NodeRef nodeRef) {
+    loadAdjacency();
     int offsetPos = getPositionInEdgeOffsets(direction, edgeLabel);
     if (offsetPos == -1) {
       throw new RuntimeException("Edge of type " + edgeLabel + " with direction " + direction +
@@ -420,17 +879,38 @@ public abstract class OdbNode implements Vertex {
     }
     int start = startIndex(offsetPos);
     int length = blockLength(offsetPos);
-    int strideSize = getStrideSize(edgeLabel);
+    int strideSize = layoutInformation().indexStride(offsetPos);
 
     int insertAt = start + length;
-    if (adjacentNodesWithProperties.length <= insertAt || adjacentNodesWithProperties[insertAt] != null) {
-      // space already occupied - grow adjacentNodesWithProperties array, leaving some room for more elements
-      adjacentNodesWithProperties = growAdjacentNodesWithProperties(offsetPos, strideSize, insertAt, length);
+    /* blocks are ordered by their offset position, i.e. the free capacity of this block ends where the next one starts
+     * - checking for null isn't enough: the next block may start with a removed edge */
+    int capacityEnd = 2 * (offsetPos + 1) < edgeOffsets.length ? startIndex(offsetPos + 1) : adjacencyCapacity();
+    if (insertAt >= capacityEnd) {
+      if (shouldCompactBeforeGrowing(start, length, strideSize)) {
+        // reclaim the holes of removed edges as free capacity for this block
+        compactAdjacency(offsetPos);
+        start = startIndex(offsetPos);
+        length = blockLength(offsetPos);
+        insertAt = start + length;
+      } else {
+        // space already occupied - grow adjacentNodesWithProperties array, leaving some room for more elements
+        growAdjacentNodesWithProperties(offsetPos, strideSize, insertAt, length);
+      }
     }
 
-    adjacentNodesWithProperties[insertAt] = nodeRef;
+    if (adjacentNodeOrdinals != null) {
+      adjacentNodeOrdinals[insertAt] = ref.graph.nodeOrdinal(nodeRef);
+    } else {
+      adjacentNodesWithProperties[insertAt] = nodeRef;
+    }
+    // paired by `addEdge` once the other side has been stored
+    final long[] blockPairedSlots = blockPairedSlots(offsetPos);
+    if (blockPairedSlots != null && length / strideSize < blockPairedSlots.length) {
+      blockPairedSlots[length / strideSize] = UNPAIRED;
+    }
     // update edgeOffset length to include the newly inserted element
     edgeOffsets[2 * offsetPos + 1] = length + strideSize;
+    markModified();
 
     int blockOffset = length;
     return blockOffset;
@@ -440,33 +920,29 @@ public abstract class OdbNode implements Vertex {
     return edgeOffsets[2 * offsetPosition];
   }
 
-  /**
-   * @return number of elements reserved in `adjacentNodesWithProperties` for a given edge label
-   * includes space for the node ref and all properties
-   */
-  private int getStrideSize(String edgeLabel) {
-    int sizeForNodeRef = 1;
-    Set<String> allowedPropertyKeys = layoutInformation().edgePropertyKeys(edgeLabel);
-    return sizeForNodeRef + allowedPropertyKeys.size();
-  }
-
   /**
    * @return The position in edgeOffsets array. -1 if the edge label is not supported
    */
   private int getPositionInEdgeOffsets(Direction direction, String label) {
-    final Integer positionOrNull;
+    return getPositionInEdgeOffsets(direction, NodeLayoutInformation.edgeLabelOrdinal(label));
+  }
+
+  private int getPositionInEdgeOffsets(Direction direction, int labelOrdinal) {
     if (direction == Direction.OUT) {
-      positionOrNull = layoutInformation().outEdgeToOffsetPosition(label);
+      return layoutInformation().outEdgeToOffsetPosition(labelOrdinal);
     } else {
-      positionOrNull = layoutInformation().inEdgeToOffsetPosition(label);
+      return layoutInformation().inEdgeToOffsetPosition(labelOrdinal);
     }
-    if (positionOrNull != null) {
-      return positionOrNull;
+  }
+  private String edgeLabel(Direction direction, int offsetPos) {
+    if (direction == Direction.OUT) {
+      return layoutInformation().allowedOutEdgeLabels()[offsetPos];
     } else {
-      return -1;
+      return layoutInformation().allowedInEdgeLabels()[offsetPos - layoutInformation().allowedOutEdgeLabels().length];
     }
   }
 
+
   /**
    * Returns the length of an edge type block in the adjacentNodesWithProperties array.
    * Length means number of index positions.
@@ -491,34 +967,308 @@ public abstract class OdbNode implements Vertex {
     }
   }
 
+  /**
+   * whether enough edges of a (full) block have been removed, so that it should be compacted rather than grown,
+   * see `OdbConfig.withAdjacencyCompactionThreshold`
+   */
+  private boolean shouldCompactBeforeGrowing(int start, int length, int strideSize) {
+    final double threshold = ref.graph != null ?
+        ref.graph.config.getAdjacencyCompactionThreshold() : OdbConfig.DEFAULT_ADJACENCY_COMPACTION_THRESHOLD;
+    int holeCount = 0;
+    for (int i = start; i < start + length; i += strideSize) {
+      if (isHole(i)) holeCount++;
+    }
+    return holeCount > 0 && holeCount >= threshold * (length / strideSize);
+  }
+
+  /**
+   * Removes the holes left behind by removed edges from `adjacentNodesWithProperties`, so that traversals don't need
+   * to skip them and they're not serialized. The free capacity at the end of each block is retained.
+   * Edges keep their order, but their block offsets change: offsets obtained earlier (e.g. by OdbEdge) are only valid
+   * together with the `compactionEpoch` they were obtained in, see `rebaseBlockOffset`.
+   *
+   * @return the number of removed holes
+   */
+  public int compactAdjacency() {
+    loadAdjacency();
+    return compactAdjacency(-1);
+  }
+
+  /**
+   * @param retainCapacityOffsetPos the holes of this block (if any) become free capacity of the block, rather than being
+   *                                removed from the array
+   */
+  private synchronized int compactAdjacency(int retainCapacityOffsetPos) {
+    final int blockCount = edgeOffsets.length / 2;
+
+    /* find the holes first: if there are none, we're done */
+    final int[][] removedBlockOffsets = new int[blockCount][];
+    int holeCount = 0;
+    int removedSlots = 0;
+    for (int offsetPos = 0; offsetPos < blockCount; offsetPos++) {
+      final int start = startIndex(offsetPos);
+      final int end = start + blockLength(offsetPos);
+      final int strideSize = layoutInformation().indexStride(offsetPos);
+      int blockHoleCount = 0;
+      for (int i = start; i < end; i += strideSize) {
+        if (isHole(i)) blockHoleCount++;
+      }
+      if (blockHoleCount > 0) {
+        final int[] blockOffsets = new int[blockHoleCount];
+        int hole = 0;
+        for (int i = start; i < end; i += strideSize) {
+          if (isHole(i)) blockOffsets[hole++] = i - start;
+        }
+        removedBlockOffsets[offsetPos] = blockOffsets;
+        holeCount += blockHoleCount;
+        if (offsetPos != retainCapacityOffsetPos) removedSlots += blockHoleCount * strideSize;
+      }
+    }
+    if (holeCount == 0) {
+      return 0;
+    }
+
+    final int capacity = adjacencyCapacity();
+    final int compactedSize = capacity - removedSlots;
+    final Object[] compacted = hasEdgePropertySlots() ? newEdgePropertySlots(compactedSize) : adjacentNodesWithProperties;
+    final int[] compactedOrdinals = adjacentNodeOrdinals != null ? new int[compactedSize] : null;
+    final long[][] compactedPairedSlots = pairedSlots != null ? new long[blockCount][] : null;
+    final int[] compactedEdgeOffsets = new int[edgeOffsets.length];
+    int position = startIndex(0);
+    for (int offsetPos = 0; offsetPos < blockCount; offsetPos++) {
+      final int start = startIndex(offsetPos);
+      final int length = blockLength(offsetPos);
+      final int strideSize = layoutInformation().indexStride(offsetPos);
+      final int capacityEnd = offsetPos + 1 < blockCount ? startIndex(offsetPos + 1) : capacity;
+      final long[] blockPairedSlots = blockPairedSlots(offsetPos);
+      final int blockHoleCount = removedBlockOffsets[offsetPos] == null ? 0 : removedBlockOffsets[offsetPos].length;
+      final long[] compactedBlockPairedSlots = blockPairedSlots != null ? new long[length / strideSize - blockHoleCount] : null;
+
+      int compactedLength = 0;
+      for (int i = start; i < start + length; i += strideSize) {
+        if (!isHole(i)) {
+          if (compactedOrdinals != null) {
+            compactedOrdinals[position + compactedLength] = adjacentNodeOrdinals[i];
+          }
+          if (compactedBlockPairedSlots != null) {
+            final int entry = (i - start) / strideSize;
+            compactedBlockPairedSlots[compactedLength / strideSize] =
+                entry < blockPairedSlots.length ? blockPairedSlots[entry] : UNPAIRED;
+          }
+          if (compacted != adjacentNodesWithProperties) {
+            copyEdgePropertySlots(adjacentNodesWithProperties, capacity, i, compacted, compactedSize, position + compactedLength, strideSize);
+          }
+          compactedLength += strideSize;
+        }
+      }
+      compactedEdgeOffsets[2 * offsetPos] = position;
+      compactedEdgeOffsets[2 * offsetPos + 1] = compactedLength;
+      if (compactedPairedSlots != null) {
+        compactedPairedSlots[offsetPos] = compactedBlockPairedSlots;
+      }
+
+      int freeCapacity = capacityEnd - start - length;
+      if (offsetPos == retainCapacityOffsetPos) freeCapacity += length - compactedLength;
+      position += compactedLength + freeCapacity;
+    }
+
+    this.adjacentNodesWithProperties = compacted;
+    this.adjacentNodeOrdinals = compactedOrdinals;
+    this.pairedSlots = compactedPairedSlots;
+    this.edgeOffsets = compactedEdgeOffsets;
+    final AdjacencyEpoch nextEpoch = new AdjacencyEpoch(compactionEpoch() + 1, removedBlockOffsets);
+    if (epoch != null) epoch.next = nextEpoch;
+    epoch = nextEpoch;
+    markModified();
+    return holeCount;
+  }
+
+  /**
+   * Incremented whenever the adjacency is compacted, see `compactAdjacency`.
+   */
+  public int compactionEpoch() {
+    final AdjacencyEpoch epoch = this.epoch;
+    return epoch == null ? 0 : epoch.epoch;
+  }
+
+  /**
+   * @return the current compaction epoch, for OdbEdge to rebase it's block offsets later on, see `rebaseBlockOffset`
+   */
+  synchronized AdjacencyEpoch currentEpoch() {
+    if (epoch == null) epoch = new AdjacencyEpoch(0, null);
+    return epoch;
+  }
+
+  /**
+   * @return per offset position: the block offsets removed by the last compaction, in ascending order (`null` if there
+   * were none) - or `null` if the adjacency has never been compacted, see `rebaseBlockOffset`
+   */
+  public int[][] lastCompactionRemovedBlockOffsets() {
+    final AdjacencyEpoch epoch = this.epoch;
+    return epoch == null ? null : epoch.removedBlockOffsets;
+  }
+
+  /**
+   * only used when reading the node from storage, so that block offsets of earlier epochs (e.g. in the paired slots of
+   * adjacent nodes) can still be rebased
+   */
+  public void setCompactionEpoch(int epoch, int[][] removedBlockOffsets) {
+    this.epoch = epoch == 0 ? null : new AdjacencyEpoch(epoch, removedBlockOffsets);
+  }
+
+  /**
+   * Translates a block offset which has been obtained in an earlier `compactionEpoch` into the current one, e.g. for
+   * the paired slots (see `pairedBlockOffset`). Only the last compaction is known by it's number, OdbEdge therefore
+   * keeps the `AdjacencyEpoch` instead.
+   *
+   * @return the current block offset, or -1 if it cannot be translated, i.e. the edge has been removed, or the
+   * adjacency has been compacted more than once since the offset was obtained
+   */
+  public synchronized int rebaseBlockOffset(Direction direction, int labelOrdinal, int blockOffset, int epoch) {
+    final int currentEpoch = compactionEpoch();
+    if (epoch == currentEpoch) {
+      return blockOffset;
+    } else if (epoch != currentEpoch - 1) {
+      return -1;
+    }
+    return rebaseBlockOffset(getPositionInEdgeOffsets(direction, labelOrdinal), blockOffset, this.epoch.removedBlockOffsets);
+  }
+
+  /**
+   * Like `rebaseBlockOffset(Direction, int, int, int)`, but follows all compactions since the given epoch.
+   *
+   * @return the current block offset, or -1 if the edge has been removed
+   */
+  synchronized int rebaseBlockOffset(Direction direction, int labelOrdinal, int blockOffset, AdjacencyEpoch epoch) {
+    if (epoch == this.epoch) {
+      return blockOffset;
+    }
+    final int offsetPos = getPositionInEdgeOffsets(direction, labelOrdinal);
+    while (epoch.next != null) {
+      epoch = epoch.next;
+      blockOffset = rebaseBlockOffset(offsetPos, blockOffset, epoch.removedBlockOffsets);
+      if (blockOffset == -1) return -1;
+    }
+    if (epoch == this.epoch) {
+      return blockOffset;
+    }
+    /* `epoch` belongs to an earlier instance of this node, i.e. it has been read from storage since */
+    return rebaseBlockOffset(direction, labelOrdinal, blockOffset, epoch.epoch);
+  }
+
+  /* translates a block offset across one compaction, which removed the given block offsets */
+  private int rebaseBlockOffset(int offsetPos, int blockOffset, int[][] removedBlockOffsetsByOffsetPos) {
+    final int[] removedBlockOffsets = removedBlockOffsetsByOffsetPos[offsetPos];
+    if (removedBlockOffsets == null) {
+      return blockOffset;
+    }
+    final int index = Arrays.binarySearch(removedBlockOffsets, blockOffset);
+    if (index >= 0) {
+      return -1;
+    }
+    final int removedBefore = -index - 1;
+    return blockOffset - removedBefore * layoutInformation().indexStride(offsetPos);
+  }
+
+  /**
+   * One compaction epoch of the adjacency, see `compactAdjacency`. OdbEdge keeps the epoch it's block offsets were
+   * obtained in, and follows `next` to rebase them across any number of compactions. The node itself only refers to
+   * the current epoch, i.e. earlier ones are garbage collected once no edge refers to them anymore.
+   */
+  public static final class AdjacencyEpoch {
+    private final int epoch;
+    /* per offset position: the block offsets removed by the compaction which started this epoch, in ascending order
+     * (`null` if there were none) */
+    private final int[][] removedBlockOffsets;
+    /* the following epoch, once the adjacency has been compacted again. Guarded by the node */
+    private AdjacencyEpoch next;
+
+    private AdjacencyEpoch(int epoch, int[][] removedBlockOffsets) {
+      this.epoch = epoch;
+      this.removedBlockOffsets = removedBlockOffsets;
+    }
+  }
+
+  /**
+   * Removes the unused capacity at the end of each edge block, e.g. after the graph has been loaded. Holes (see
+   * `compactAdjacency`) are kept, i.e. the block offsets of the edges don't change.
+   *
+   * @return the number of freed array slots
+   */
+  public int trimToSize() {
+    loadAdjacency();
+    synchronized (this) {
+      final int blockCount = edgeOffsets.length / 2;
+      int usedSize = 0;
+      for (int offsetPos = 0; offsetPos < blockCount; offsetPos++) {
+        usedSize += blockLength(offsetPos);
+      }
+      final int capacity = adjacencyCapacity();
+      if (usedSize == capacity) {
+        return 0;
+      }
+
+      final Object[] trimmed = hasEdgePropertySlots() ? newEdgePropertySlots(usedSize) : adjacentNodesWithProperties;
+      final int[] trimmedOrdinals = adjacentNodeOrdinals != null ? new int[usedSize] : null;
+      final int[] trimmedEdgeOffsets = new int[edgeOffsets.length];
+      int position = 0;
+      for (int offsetPos = 0; offsetPos < blockCount; offsetPos++) {
+        final int start = startIndex(offsetPos);
+        final int length = blockLength(offsetPos);
+        if (trimmed != adjacentNodesWithProperties) {
+          copyEdgePropertySlots(adjacentNodesWithProperties, capacity, start, trimmed, usedSize, position, length);
+        }
+        if (trimmedOrdinals != null) {
+          System.arraycopy(adjacentNodeOrdinals, start, trimmedOrdinals, position, length);
+        }
+        final long[] blockPairedSlots = blockPairedSlots(offsetPos);
+        final int entryCount = length / layoutInformation().indexStride(offsetPos);
+        if (blockPairedSlots != null && blockPairedSlots.length > entryCount) {
+          pairedSlots[offsetPos] = Arrays.copyOf(blockPairedSlots, entryCount);
+        }
+        trimmedEdgeOffsets[2 * offsetPos] = position;
+        trimmedEdgeOffsets[2 * offsetPos + 1] = length;
+        position += length;
+      }
+
+      this.adjacentNodesWithProperties = trimmed;
+      this.adjacentNodeOrdinals = trimmedOrdinals;
+      this.edgeOffsets = trimmedEdgeOffsets;
+      return capacity - usedSize;
+    }
+  }
+
   /**
    * grow the adjacentNodesWithProperties array
    * <p>
    * preallocates more space than immediately necessary, so we don't need to grow the array every time
-   * (tradeoff between performance and memory).
-   * grows with the square root of the double of the current capacity.
+   * (tradeoff between performance and memory), see `AdjacencyGrowthPolicy`.
    */
-  private Object[] growAdjacentNodesWithProperties(int offsetPos,
-                                                   int strideSize,
-                                                   int insertAt,
-                                                   int currentLength) {
-    // TODO optimize growth function - optimizing has potential to save a lot of memory, but the below slowed down processing massively
-//    int currentCapacity = currentLength / strideSize;
-//    double additionalCapacity = Math.sqrt(currentCapacity) + 1;
-//    int additionalCapacityInt = (int) Math.ceil(additionalCapacity);
-//    int additionalEntriesCount = additionalCapacityInt * strideSize;
-    int growthEmptyFactor = 2;
-    int additionalEntriesCount = (currentLength + strideSize) * growthEmptyFactor;
-    int newSize = adjacentNodesWithProperties.length + additionalEntriesCount;
-    Object[] newArray = new Object[newSize];
-    System.arraycopy(adjacentNodesWithProperties, 0, newArray, 0, insertAt);
-    System.arraycopy(adjacentNodesWithProperties, insertAt, newArray, insertAt + additionalEntriesCount, adjacentNodesWithProperties.length - insertAt);
-
+  private void growAdjacentNodesWithProperties(int offsetPos,
+                                               int strideSize,
+                                               int insertAt,
+                                               int currentLength) {
+    final AdjacencyGrowthPolicy growthPolicy = ref.graph != null ?
+        ref.graph.config.getAdjacencyGrowthPolicy() : AdjacencyGrowthPolicy.TRIPLING;
+    int additionalEntriesCount = growthPolicy.additionalCapacity(currentLength / strideSize) * strideSize;
+    int oldSize = adjacencyCapacity();
+    int newSize = oldSize + additionalEntriesCount;
+    if (hasEdgePropertySlots()) {
+      Object[] newArray = newEdgePropertySlots(newSize);
+      copyEdgePropertySlots(adjacentNodesWithProperties, oldSize, 0, newArray, newSize, 0, insertAt);
+      copyEdgePropertySlots(adjacentNodesWithProperties, oldSize, insertAt, newArray, newSize, insertAt + additionalEntriesCount, oldSize - insertAt);
+      adjacentNodesWithProperties = newArray;
+    }
+    if (adjacentNodeOrdinals != null) {
+      int[] newOrdinals = new int[newSize];
+      System.arraycopy(adjacentNodeOrdinals, 0, newOrdinals, 0, insertAt);
+      System.arraycopy(adjacentNodeOrdinals, insertAt, newOrdinals, insertAt + additionalEntriesCount, oldSize - insertAt);
+      adjacentNodeOrdinals = newOrdinals;
+    }
     // Increment all following start offsets by `additionalEntriesCount`.
     for (int i = offsetPos + 1; 2 * i < edgeOffsets.length; i++) {
       edgeOffsets[2 * i] = edgeOffsets[2 * i] + additionalEntriesCount;
     }
-    return newArray;
   }
 
   /**
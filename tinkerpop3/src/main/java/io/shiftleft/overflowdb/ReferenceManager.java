@@ -1,13 +1,12 @@
 package io.shiftleft.overflowdb;
 
+import io.shiftleft.overflowdb.storage.OdbStorage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -27,15 +26,48 @@ public class ReferenceManager implements AutoCloseable, HeapUsageMonitor.HeapNot
 
   public final int releaseCount = 100000; //TODO make configurable
   private AtomicInteger totalReleaseCount = new AtomicInteger(0);
-  private final Integer cpuCount = Runtime.getRuntime().availableProcessors();
-  private final ExecutorService executorService = Executors.newFixedThreadPool(cpuCount);
+  /* one clearing round at a time - the serialization within a round is parallelized by `OdbStorage.persistAll` */
+  private final ExecutorService executorService = Executors.newSingleThreadExecutor();
   private int clearingProcessCount = 0;
   private final Object backPressureSyncObject = new Object();
 
-  private final List<NodeRef> clearableRefs = Collections.synchronizedList(new LinkedList<>());
+  /* newly registered refs are buffered without taking any locks, and only handed over to the eviction policy when
+   * we're collecting refs to clear */
+  private final StripedRefBuffer registeredRefs = new StripedRefBuffer();
+  /* refs of nodes which have been prefetched, see `registerColdRef` */
+  private final StripedRefBuffer registeredColdRefs = new StripedRefBuffer();
+
+  /* decides which refs to clear - not thread safe, so all access is synchronized on the instance itself */
+  private final EvictionPolicy evictionPolicy;
+
+  private final OdbStorage storage;
+  private final OdbMetrics metrics;
+
+  public ReferenceManager(OdbStorage storage, EvictionPolicy evictionPolicy) {
+    this(storage, evictionPolicy, new OdbMetrics());
+  }
+
+  public ReferenceManager(OdbStorage storage, EvictionPolicy evictionPolicy, OdbMetrics metrics) {
+    this.metrics = metrics;
+    this.storage = storage;
+    this.evictionPolicy = evictionPolicy;
+  }
 
   public void registerRef(NodeRef ref) {
-    clearableRefs.add(ref);
+    registeredRefs.add(ref);
+  }
+
+  /**
+   * for nodes that have been read from storage speculatively, see `EvictionPolicy.registerCold`
+   */
+  public void registerColdRef(NodeRef ref) {
+    registeredColdRefs.add(ref);
+  }
+
+  private int clearableRefsCount() {
+    synchronized (evictionPolicy) {
+      return registeredRefs.size() + registeredColdRefs.size() + evictionPolicy.size();
+    }
   }
 
   /**
@@ -60,10 +92,10 @@ public class ReferenceManager implements AutoCloseable, HeapUsageMonitor.HeapNot
   public void notifyHeapAboveThreshold() {
     if (clearingProcessCount > 0) {
       logger.debug("cleaning in progress, will only queue up more references to clear after that's completed");
-    } else if (clearableRefs.isEmpty()) {
+    } else if (clearableRefsCount() == 0) {
       logger.info("no refs to clear at the moment.");
     } else {
-      int releaseCount = Integer.min(this.releaseCount, clearableRefs.size());
+      int releaseCount = Integer.min(this.releaseCount, clearableRefsCount());
       logger.info("scheduled to clear " + releaseCount + " references (asynchronously)");
       asynchronouslyClearReferences(releaseCount);
     }
@@ -71,42 +103,26 @@ public class ReferenceManager implements AutoCloseable, HeapUsageMonitor.HeapNot
 
   /**
    * run clearing of references asynchronously to not block the gc notification thread
-   * using executor with one thread and capacity=1, drop `clearingInProgress` flag
    */
   private List<Future> asynchronouslyClearReferences(final int releaseCount) {
-    List<Future> futures = new ArrayList<>(cpuCount);
-    // use Math.ceil to err on the larger side
-    final int releaseCountPerThread = (int) Math.ceil(releaseCount / cpuCount.floatValue());
-    for (int i = 0; i < cpuCount; i++) {
-      // doing this concurrently is tricky and won't be much faster since PriorityBlockingQueue is `blocking` anyway
-      final List<NodeRef> refsToClear = collectRefsToClear(releaseCountPerThread);
-      if (!refsToClear.isEmpty()) {
-        futures.add(executorService.submit(() -> {
-          safelyClearReferences(refsToClear);
-          logger.info("completed clearing of " + refsToClear.size() + " references");
-          logger.debug("current clearable queue size: " + clearableRefs.size());
-          logger.debug("references cleared in total: " + totalReleaseCount);
-        }));
-      }
+    final List<NodeRef> refsToClear = collectRefsToClear(releaseCount);
+    if (refsToClear.isEmpty()) {
+      return Collections.emptyList();
     }
-    return futures;
+    return Collections.singletonList(executorService.submit(() -> {
+      safelyClearReferences(refsToClear);
+      logger.info("completed clearing of " + refsToClear.size() + " references");
+      logger.debug("current clearable queue size: " + clearableRefsCount());
+      logger.debug("references cleared in total: " + totalReleaseCount);
+    }));
   }
 
   private List<NodeRef> collectRefsToClear(int releaseCount) {
-    final List<NodeRef> refsToClear = new ArrayList<>(releaseCount);
-
-    while (releaseCount > 0) {
-      if (clearableRefs.isEmpty()) {
-        break;
-      }
-      final NodeRef ref = clearableRefs.remove(0);
-      if (ref != null) {
-        refsToClear.add(ref);
-      }
-      releaseCount--;
+    synchronized (evictionPolicy) {
+      registeredRefs.drainTo(evictionPolicy);
+      registeredColdRefs.drainTo(evictionPolicy::registerCold);
+      return evictionPolicy.selectForEviction(releaseCount);
     }
-
-    return refsToClear;
   }
 
   /**
@@ -130,25 +146,46 @@ public class ReferenceManager implements AutoCloseable, HeapUsageMonitor.HeapNot
     }
   }
 
+  /**
+   * serializes all modified nodes in batches of `releaseCount`, each of which is written (and committed) to storage
+   * in one go, and only then clears the refs.
+   */
   private void clearReferences(final List<NodeRef> refsToClear) throws IOException {
     logger.info("attempting to clear " + refsToClear.size() + " references");
-    final Iterator<NodeRef> refsIterator = refsToClear.iterator();
-    while (refsIterator.hasNext()) {
-      final NodeRef ref = refsIterator.next();
-      if (ref.isSet()) {
-        ref.clear();
-        totalReleaseCount.incrementAndGet();
+    for (int batchStart = 0; batchStart < refsToClear.size(); batchStart += releaseCount) {
+      final List<NodeRef> batch = refsToClear.subList(batchStart, Integer.min(batchStart + releaseCount, refsToClear.size()));
+      final List<OdbNode> modifiedNodes = new ArrayList<>(batch.size());
+      for (NodeRef ref : batch) {
+        final OdbNode node = ref.getIfSet();
+        if (node != null && node.isModifiedSinceLastSerialization()) {
+          modifiedNodes.add(node);
+        }
+      }
+      storage.persistAll(modifiedNodes);
+
+      for (NodeRef ref : batch) {
+        if (ref.isSet()) {
+          /* only writes to storage if the node has been modified since it was serialized above */
+          ref.clear();
+          totalReleaseCount.incrementAndGet();
+          metrics.recordEviction();
+        }
       }
     }
   }
 
+  /** whether any reference has been cleared yet, i.e. whether some nodes might need to be read from storage */
+  public boolean hasClearedRefs() {
+    return totalReleaseCount.get() > 0;
+  }
+
   /**
    * writes all references to disk overflow, blocks until complete.
    * useful when saving the graph
    */
   public void clearAllReferences() {
-    while (!clearableRefs.isEmpty()) {
-      int clearableRefsSize = clearableRefs.size();
+    int clearableRefsSize;
+    while ((clearableRefsSize = clearableRefsCount()) > 0) {
       logger.info("clearing " + clearableRefsSize + " references - this may take some time");
       for (Future clearRefFuture : asynchronouslyClearReferences(clearableRefsSize)) {
         try {
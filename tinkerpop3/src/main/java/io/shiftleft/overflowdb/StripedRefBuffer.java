@@ -0,0 +1,106 @@
+package io.shiftleft.overflowdb;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Lock-free buffer for newly registered NodeRefs, which are handed over to the EvictionPolicy in bulk.
+ *
+ * Producers (any thread creating or faulting in a node) append to a fixed size segment of their stripe (chosen by
+ * thread id), reserving a slot with a single atomic increment. Full segments are queued up for the consumer.
+ * Memory overhead is one array slot per ref - no wrapper objects.
+ *
+ * There must only be one consumer at a time, i.e. `drainTo` must be externally synchronized.
+ */
+class StripedRefBuffer {
+  static final int SEGMENT_SIZE = 1024;
+
+  private final AtomicReferenceArray<Segment> stripes;
+  private final int stripeMask;
+  private final ConcurrentLinkedQueue<Segment> fullSegments = new ConcurrentLinkedQueue<>();
+  private final LongAdder size = new LongAdder();
+
+  StripedRefBuffer() {
+    this(Runtime.getRuntime().availableProcessors() * 2);
+  }
+
+  StripedRefBuffer(int minStripeCount) {
+    int stripeCount = Integer.highestOneBit(Integer.max(minStripeCount - 1, 1)) << 1;
+    stripes = new AtomicReferenceArray<>(stripeCount);
+    stripeMask = stripeCount - 1;
+    for (int i = 0; i < stripeCount; i++) {
+      stripes.set(i, new Segment());
+    }
+  }
+
+  void add(NodeRef ref) {
+    final int stripeIndex = (int) Thread.currentThread().getId() & stripeMask;
+    while (true) {
+      final Segment segment = stripes.get(stripeIndex);
+      final int index = segment.reserved.getAndIncrement();
+      if (index < SEGMENT_SIZE) {
+        segment.refs.lazySet(index, ref);
+        size.increment();
+        return;
+      }
+      /* segment is full: whoever manages to replace it is responsible for handing it over to the consumer */
+      if (stripes.compareAndSet(stripeIndex, segment, new Segment())) {
+        fullSegments.add(segment);
+      }
+    }
+  }
+
+  /** approximate number of buffered refs */
+  int size() {
+    return size.intValue();
+  }
+
+  /**
+   * hands over all buffered refs to the given policy, including those in partially filled segments.
+   * must not be called concurrently
+   */
+  void drainTo(EvictionPolicy evictionPolicy) {
+    drainTo(evictionPolicy::register);
+  }
+
+  /**
+   * hands over all buffered refs to the given consumer, see `drainTo(EvictionPolicy)`.
+   * must not be called concurrently
+   */
+  void drainTo(Consumer<NodeRef> consumer) {
+    Segment segment;
+    while ((segment = fullSegments.poll()) != null) {
+      drain(segment, SEGMENT_SIZE, consumer);
+    }
+
+    for (int i = 0; i < stripes.length(); i++) {
+      segment = stripes.get(i);
+      if (segment.reserved.get() > 0 && stripes.compareAndSet(i, segment, new Segment())) {
+        /* seal the segment: any producer still holding on to it will fail to reserve a slot and move on to the new one */
+        final int reservedCount = Integer.min(segment.reserved.getAndSet(SEGMENT_SIZE), SEGMENT_SIZE);
+        drain(segment, reservedCount, consumer);
+      }
+    }
+  }
+
+  private void drain(Segment segment, int count, Consumer<NodeRef> consumer) {
+    for (int i = 0; i < count; i++) {
+      NodeRef ref = segment.refs.get(i);
+      while (ref == null) {
+        /* the slot has been reserved, but the producer didn't get to write it yet */
+        Thread.yield();
+        ref = segment.refs.get(i);
+      }
+      consumer.accept(ref);
+    }
+    size.add(-count);
+  }
+
+  private static class Segment {
+    private final AtomicInteger reserved = new AtomicInteger(0);
+    private final AtomicReferenceArray<NodeRef> refs = new AtomicReferenceArray<>(SEGMENT_SIZE);
+  }
+}
@@ -0,0 +1,135 @@
+package io.shiftleft.overflowdb.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression of serialized nodes, see `NodeSerializer.setCompression`.
+ *
+ * A compressed node starts with `[FORMAT_HEADER][COMPRESSED | codec id]`, followed by the uncompressed length (varint)
+ * and the compressed bytes. Format versions never have the COMPRESSED bit set, i.e. the deserializer can tell
+ * compressed nodes apart from uncompressed ones, regardless of the configuration. Nodes which are below the threshold,
+ * or don't get any smaller, are stored uncompressed.
+ */
+public enum Compression {
+  NONE((byte) 0),
+  /** fast, moderate ratio - pure java implementation of the LZ4 block format */
+  LZ4((byte) 1),
+  /** slower, better ratio - java.util.zip, at the fastest level */
+  DEFLATE((byte) 2);
+
+  public static final int DEFAULT_THRESHOLD = 128;
+  private static final byte COMPRESSED = (byte) 0x80;
+
+  /* neither of them is thread safe */
+  private static final ThreadLocal<Deflater> deflater = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+  private static final ThreadLocal<Inflater> inflater = ThreadLocal.withInitial(Inflater::new);
+
+  public final byte id;
+
+  Compression(byte id) {
+    this.id = id;
+  }
+
+  /**
+   * @return the compressed node with header, or the given bytes if compression doesn't make them smaller
+   */
+  byte[] compress(byte[] bytes) {
+    final byte[] compressed;
+    switch (this) {
+      case LZ4:
+        compressed = Lz4Codec.compress(bytes);
+        break;
+      case DEFLATE:
+        compressed = deflate(bytes);
+        break;
+      default:
+        return bytes;
+    }
+
+    final VarIntBuffer header = new VarIntBuffer(7);
+    header.writeUnsigned(bytes.length);
+    final int headerLength = 2 + header.size();
+    if (headerLength + compressed.length >= bytes.length) {
+      return bytes;
+    }
+    final byte[] result = new byte[headerLength + compressed.length];
+    result[0] = NodeSerializer.FORMAT_HEADER;
+    result[1] = (byte) (COMPRESSED | id);
+    System.arraycopy(header.array(), 0, result, 2, header.size());
+    System.arraycopy(compressed, 0, result, headerLength, compressed.length);
+    return result;
+  }
+
+  static boolean isCompressed(byte[] bytes) {
+    return bytes.length > 1 && bytes[0] == NodeSerializer.FORMAT_HEADER && (bytes[1] & COMPRESSED) != 0;
+  }
+
+  static boolean isCompressed(ByteBuffer buffer) {
+    final int position = buffer.position();
+    return buffer.remaining() > 1 &&
+        buffer.get(position) == NodeSerializer.FORMAT_HEADER && (buffer.get(position + 1) & COMPRESSED) != 0;
+  }
+
+  /**
+   * @return the uncompressed node - or the given bytes, if they aren't compressed
+   */
+  static byte[] decompressIfNecessary(byte[] bytes) throws IOException {
+    if (!isCompressed(bytes)) {
+      return bytes;
+    }
+
+    final VarIntBuffer header = new VarIntBuffer(Arrays.copyOfRange(bytes, 2, Integer.min(bytes.length, 2 + 10)));
+    final int uncompressedLength = (int) header.readUnsigned();
+    final int offset = 2 + header.size();
+    final byte codecId = (byte) (bytes[1] & ~COMPRESSED);
+    if (codecId == LZ4.id) {
+      return Lz4Codec.decompress(bytes, offset, bytes.length - offset, uncompressedLength);
+    } else if (codecId == DEFLATE.id) {
+      return inflate(bytes, offset, uncompressedLength);
+    } else {
+      throw new IOException("unknown compression codec " + codecId);
+    }
+  }
+
+  private static byte[] deflate(byte[] bytes) {
+    final Deflater deflater = Compression.deflater.get();
+    deflater.reset();
+    deflater.setInput(bytes);
+    deflater.finish();
+    /* deflate may slightly expand incompressible input */
+    byte[] buffer = new byte[bytes.length + (bytes.length >> 3) + 64];
+    int length = 0;
+    while (!deflater.finished()) {
+      if (length == buffer.length) {
+        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+      }
+      length += deflater.deflate(buffer, length, buffer.length - length);
+    }
+    return Arrays.copyOf(buffer, length);
+  }
+
+  private static byte[] inflate(byte[] compressed, int offset, int uncompressedLength) throws IOException {
+    final Inflater inflater = Compression.inflater.get();
+    inflater.reset();
+    inflater.setInput(compressed, offset, compressed.length - offset);
+    final byte[] bytes = new byte[uncompressedLength];
+    try {
+      int length = 0;
+      while (length < uncompressedLength && !inflater.finished()) {
+        final int inflated = inflater.inflate(bytes, length, uncompressedLength - length);
+        if (inflated == 0 && inflater.needsInput()) {
+          throw new IOException("truncated deflate stream");
+        }
+        length += inflated;
+      }
+    } catch (DataFormatException e) {
+      throw new IOException("unable to decompress stored node", e);
+    }
+    return bytes;
+  }
+}
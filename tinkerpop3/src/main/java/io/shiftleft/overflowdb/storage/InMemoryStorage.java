@@ -0,0 +1,176 @@
+package io.shiftleft.overflowdb.storage;
+
+import io.shiftleft.overflowdb.OdbNode;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * Keeps the serialized nodes on the heap, deflate-compressed by default (see `NodeSerializer.setCompression`). Doesn't save anything on close, i.e. it's mostly useful
+ * for tests and benchmarks: it's the baseline for other storage implementations, without any disk i/o.
+ */
+public class InMemoryStorage implements OdbStorage {
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+  protected final NodeSerializer nodeSerializer;
+  protected final Optional<NodeDeserializer> nodeDeserializer;
+
+  private final ConcurrentSkipListMap<Long, StoredNode> nodes = new ConcurrentSkipListMap<>();
+  private final AtomicLong sizeInBytes = new AtomicLong(0);
+  private volatile boolean closed;
+
+  public InMemoryStorage(final NodeDeserializer nodeDeserializer) {
+    this.nodeDeserializer = Optional.ofNullable(nodeDeserializer);
+    /* nothing is persisted, i.e. neither is the dictionary */
+    final StringDictionary stringDictionary = new StringDictionary();
+    this.nodeSerializer = new NodeSerializer(
+        this.nodeDeserializer.map(NodeDeserializer::labels).orElse(Collections.emptySet()), Optional.of(stringDictionary));
+    this.nodeDeserializer.ifPresent(deserializer -> deserializer.setStringDictionary(stringDictionary));
+    this.nodeSerializer.setCompression(Compression.DEFLATE, Compression.DEFAULT_THRESHOLD);
+  }
+
+  @Override
+  public void persist(final OdbNode node) throws IOException {
+    if (!closed) {
+      /* reset before serializing: should the node be modified concurrently, it'll be marked as modified again */
+      node.setModifiedSinceLastSerialization(false);
+      put(node.ref.id, new StoredNode(node.label(), nodeSerializer.serialize(node)));
+    }
+  }
+
+  /**
+   * Serializes (and compresses) the given nodes in parallel.
+   */
+  @Override
+  public void persistAll(final Collection<? extends OdbNode> nodes) throws IOException {
+    if (closed || nodes.isEmpty()) {
+      return;
+    }
+
+    final OdbNode[] sortedNodes = nodes.toArray(new OdbNode[0]);
+    Arrays.sort(sortedNodes, Comparator.comparingLong(node -> node.ref.id));
+    for (OdbNode node : sortedNodes) {
+      /* reset before serializing: should the node be modified concurrently, it'll be marked as modified again */
+      node.setModifiedSinceLastSerialization(false);
+    }
+    final byte[][] serializedNodes = nodeSerializer.serializeAll(sortedNodes);
+    IntStream.range(0, sortedNodes.length).parallel().forEach(i ->
+        put(sortedNodes[i].ref.id, new StoredNode(sortedNodes[i].label(), serializedNodes[i]))
+    );
+  }
+
+  private void put(long id, StoredNode storedNode) {
+    final StoredNode previous = nodes.put(id, storedNode);
+    sizeInBytes.addAndGet(storedNode.bytes.length - (previous == null ? 0 : previous.bytes.length));
+  }
+
+  /**
+   * nothing to do, everything is in memory
+   */
+  @Override
+  public void commit() {
+  }
+
+  @Override
+  public <A extends Vertex> A readNode(final long id) throws IOException {
+    final byte[] bytes = readBytes(id);
+    return bytes == null ? null : (A) nodeDeserializer.get().deserialize(bytes);
+  }
+
+  private byte[] readBytes(long id) {
+    final StoredNode storedNode = nodes.get(id);
+    return storedNode == null ? null : storedNode.bytes;
+  }
+
+  @Override
+  public void removeNode(final Long id) {
+    final StoredNode previous = nodes.remove(id);
+    if (previous != null) {
+      sizeInBytes.addAndGet(-previous.bytes.length);
+    }
+  }
+
+  @Override
+  public List<Iterator<Map.Entry<Long, String>>> allNodeLabelsPartitioned(int partitionCount) {
+    final List<Iterator<Map.Entry<Long, String>>> partitions = new ArrayList<>();
+    for (long[] ids : LazyEntryIterator.partition(sortedIds(), partitionCount)) {
+      partitions.add(new LazyEntryIterator<>(ids, id -> {
+        final StoredNode storedNode = nodes.get(id);
+        return storedNode == null ? null : storedNode.label;
+      }));
+    }
+    return partitions;
+  }
+
+  @Override
+  public List<Iterator<Map.Entry<Long, byte[]>>> allNodesPartitioned(int partitionCount) {
+    final List<Iterator<Map.Entry<Long, byte[]>>> partitions = new ArrayList<>();
+    for (long[] ids : LazyEntryIterator.partition(sortedIds(), partitionCount)) {
+      partitions.add(new LazyEntryIterator<>(ids, this::readBytes));
+    }
+    return partitions;
+  }
+
+  @Override
+  public Iterator<Map.Entry<Long, byte[]>> allNodes() {
+    return new LazyEntryIterator<>(sortedIds(), this::readBytes);
+  }
+
+  private long[] sortedIds() {
+    return nodes.keySet().stream().mapToLong(Long::longValue).toArray();
+  }
+
+  @Override
+  public long nodeCount() {
+    return nodes.size();
+  }
+
+  /**
+   * the compressed size of all stored nodes
+   */
+  @Override
+  public long sizeInBytes() {
+    return sizeInBytes.get();
+  }
+
+  @Override
+  public Optional<NodeDeserializer> getNodeDeserializer() {
+    return nodeDeserializer;
+  }
+
+  @Override
+  public NodeSerializer getNodeSerializer() {
+    return nodeSerializer;
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    logger.info("closing " + getClass().getSimpleName());
+    nodes.clear();
+    sizeInBytes.set(0);
+  }
+
+  private static class StoredNode {
+    private final String label;
+    private final byte[] bytes;
+
+    StoredNode(String label, byte[] bytes) {
+      this.label = label;
+      this.bytes = bytes;
+    }
+  }
+}
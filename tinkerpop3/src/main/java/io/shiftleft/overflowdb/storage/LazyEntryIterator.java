@@ -0,0 +1,60 @@
+package io.shiftleft.overflowdb.storage;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.LongFunction;
+
+/**
+ * Iterates over the given ids and looks up their values lazily. Nodes that have been removed in the meantime
+ * are skipped.
+ */
+class LazyEntryIterator<R> implements Iterator<Map.Entry<Long, R>> {
+  private final long[] ids;
+  private final LongFunction<R> lookup;
+  private int index = 0;
+  private Map.Entry<Long, R> next;
+
+  LazyEntryIterator(long[] ids, LongFunction<R> lookup) {
+    this.ids = ids;
+    this.lookup = lookup;
+  }
+
+  /**
+   * splits the given (sorted) ids into `partitionCount` consecutive ranges of (roughly) equal size
+   */
+  static List<long[]> partition(long[] sortedIds, int partitionCount) {
+    final int actualPartitionCount = Integer.max(1, Integer.min(partitionCount, sortedIds.length));
+    final List<long[]> partitions = new ArrayList<>(actualPartitionCount);
+    for (int i = 0; i < actualPartitionCount; i++) {
+      final int start = (int) ((long) sortedIds.length * i / actualPartitionCount);
+      final int end = (int) ((long) sortedIds.length * (i + 1) / actualPartitionCount);
+      partitions.add(Arrays.copyOfRange(sortedIds, start, end));
+    }
+    return partitions;
+  }
+
+  @Override
+  public boolean hasNext() {
+    while (next == null && index < ids.length) {
+      final long id = ids[index++];
+      final R value = lookup.apply(id);
+      if (value != null) {
+        next = new AbstractMap.SimpleImmutableEntry<>(id, value);
+      }
+    }
+    return next != null;
+  }
+
+  @Override
+  public Map.Entry<Long, R> next() {
+    if (!hasNext()) throw new NoSuchElementException();
+    final Map.Entry<Long, R> result = next;
+    next = null;
+    return result;
+  }
+}
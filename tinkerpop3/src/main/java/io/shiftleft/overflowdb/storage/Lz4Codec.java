@@ -0,0 +1,152 @@
+package io.shiftleft.overflowdb.storage;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Pure java implementation of the LZ4 block format (https://github.com/lz4/lz4/blob/dev/doc/lz4_Block_format.md),
+ * without the frame format: the caller needs to keep track of the uncompressed length.
+ * Trades compression ratio for speed: a single hash table probe per position, no lazy matching.
+ */
+class Lz4Codec {
+  private static final int MIN_MATCH = 4;
+  /* the last match needs to start at least 12 bytes before the end of the input, and the last 5 bytes are literals */
+  private static final int MF_LIMIT = 12;
+  private static final int LAST_LITERALS = 5;
+  private static final int MAX_OFFSET = 0xFFFF;
+  private static final int HASH_BITS = 12;
+
+  /* reused by each thread, to avoid allocating (and zeroing) it for every node */
+  private static final ThreadLocal<int[]> hashTable = ThreadLocal.withInitial(() -> new int[1 << HASH_BITS]);
+
+  static int maxCompressedLength(int length) {
+    return length + length / 255 + 16;
+  }
+
+  static byte[] compress(byte[] src) {
+    final byte[] dst = new byte[maxCompressedLength(src.length)];
+    final int length = compress(src, dst);
+    return Arrays.copyOf(dst, length);
+  }
+
+  /**
+   * @return the number of bytes written to `dst`, which must be at least `maxCompressedLength(src.length)` long
+   */
+  static int compress(byte[] src, byte[] dst) {
+    /* positions are stored +1, so that 0 means 'empty' */
+    final int[] table = hashTable.get();
+    Arrays.fill(table, 0);
+    final int matchLimit = src.length - LAST_LITERALS;
+    int anchor = 0;
+    int ip = 0;
+    int op = 0;
+
+    while (ip < src.length - MF_LIMIT) {
+      final int sequence = readInt(src, ip);
+      final int hash = (sequence * -1640531535) >>> (32 - HASH_BITS);
+      final int candidate = table[hash] - 1;
+      table[hash] = ip + 1;
+      if (candidate < 0 || ip - candidate > MAX_OFFSET || readInt(src, candidate) != sequence) {
+        ip++;
+        continue;
+      }
+
+      int matchLength = MIN_MATCH;
+      while (ip + matchLength < matchLimit && src[candidate + matchLength] == src[ip + matchLength]) {
+        matchLength++;
+      }
+
+      final int tokenPosition = op++;
+      final int literalLength = ip - anchor;
+      op = writeLength(dst, op, literalLength);
+      System.arraycopy(src, anchor, dst, op, literalLength);
+      op += literalLength;
+      final int offset = ip - candidate;
+      dst[op++] = (byte) offset;
+      dst[op++] = (byte) (offset >>> 8);
+      op = writeLength(dst, op, matchLength - MIN_MATCH);
+      dst[tokenPosition] = (byte) ((Integer.min(literalLength, 15) << 4) | Integer.min(matchLength - MIN_MATCH, 15));
+
+      ip += matchLength;
+      anchor = ip;
+    }
+
+    final int literalLength = src.length - anchor;
+    dst[op++] = (byte) (Integer.min(literalLength, 15) << 4);
+    op = writeLength(dst, op, literalLength);
+    System.arraycopy(src, anchor, dst, op, literalLength);
+    return op + literalLength;
+  }
+
+  /* lengths of 15 and above continue after the token, in chunks of 255 */
+  private static int writeLength(byte[] dst, int op, int length) {
+    if (length >= 15) {
+      length -= 15;
+      while (length >= 255) {
+        dst[op++] = (byte) 255;
+        length -= 255;
+      }
+      dst[op++] = (byte) length;
+    }
+    return op;
+  }
+
+  static byte[] decompress(byte[] src, int srcOffset, int srcLength, int uncompressedLength) throws IOException {
+    final byte[] dst = new byte[uncompressedLength];
+    final int end = srcOffset + srcLength;
+    int ip = srcOffset;
+    int op = 0;
+    try {
+      while (true) {
+        final int token = src[ip++] & 0xFF;
+        int literalLength = token >>> 4;
+        if (literalLength == 15) {
+          int b;
+          do {
+            b = src[ip++] & 0xFF;
+            literalLength += b;
+          } while (b == 255);
+        }
+        System.arraycopy(src, ip, dst, op, literalLength);
+        ip += literalLength;
+        op += literalLength;
+        if (ip >= end) {
+          break;
+        }
+
+        final int offset = (src[ip] & 0xFF) | ((src[ip + 1] & 0xFF) << 8);
+        ip += 2;
+        int matchLength = token & 0x0F;
+        if (matchLength == 15) {
+          int b;
+          do {
+            b = src[ip++] & 0xFF;
+            matchLength += b;
+          } while (b == 255);
+        }
+        matchLength += MIN_MATCH;
+        int match = op - offset;
+        if (offset == 0 || match < 0) {
+          throw new IOException("invalid lz4 match offset " + offset + " at position " + op);
+        }
+        /* matches may overlap with the bytes they produce, i.e. we can't use arraycopy */
+        for (int i = 0; i < matchLength; i++) {
+          dst[op++] = dst[match++];
+        }
+      }
+    } catch (IndexOutOfBoundsException e) {
+      throw new IOException("corrupt lz4 block", e);
+    }
+    if (op != uncompressedLength) {
+      throw new IOException("lz4 block decompressed to " + op + " bytes, expected " + uncompressedLength);
+    }
+    return dst;
+  }
+
+  private static int readInt(byte[] bytes, int position) {
+    return (bytes[position] & 0xFF) |
+        ((bytes[position + 1] & 0xFF) << 8) |
+        ((bytes[position + 2] & 0xFF) << 16) |
+        ((bytes[position + 3] & 0xFF) << 24);
+  }
+}
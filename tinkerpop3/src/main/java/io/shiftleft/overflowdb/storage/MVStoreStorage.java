@@ -0,0 +1,329 @@
+package io.shiftleft.overflowdb.storage;
+
+import io.shiftleft.overflowdb.OdbMetrics;
+import io.shiftleft.overflowdb.OdbNode;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+import org.h2.mvstore.Cursor;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+public class MVStoreStorage implements OdbStorage {
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+  protected final NodeSerializer nodeSerializer;
+  protected final Optional<NodeDeserializer> nodeDeserializer;
+
+  private final File mvstoreFile;
+  private MVStore mvstore; // initialized in `getNodesMVMap`
+  private volatile MVMap<Long, byte[]> nodesMVMap;
+  private boolean closed;
+
+  /* compact catalog of all stored nodes: id -> label ordinal. Allows to initialize all NodeRefs on startup without
+   * reading the (much bigger) serialized nodes. */
+  private MVMap<Long, Integer> nodeLabelsMVMap;
+  private MVMap<Integer, String> labelsMVMap;
+  private final Map<String, Integer> labelOrdinals = new ConcurrentHashMap<>();
+  private final List<String> labelsByOrdinal = new ArrayList<>();
+  /* kept in it's own map, see `openMVStore` */
+  private final StringDictionary stringDictionary = new StringDictionary();
+  private volatile OdbMetrics metrics = new OdbMetrics();
+
+  public static MVStoreStorage createWithTempFile(final NodeDeserializer nodeDeserializer) {
+    return new MVStoreStorage(Optional.empty(), Optional.ofNullable(nodeDeserializer));
+  }
+
+  /**
+   * create with specific mvstore file - which may or may not yet exist.
+   * mvstoreFile won't be deleted at the end (unlike temp file constructors above)
+   */
+  public static MVStoreStorage createWithSpecificLocation(
+      final NodeDeserializer nodeDeserializer, final File mvstoreFile) {
+    return new MVStoreStorage(Optional.ofNullable(mvstoreFile), Optional.ofNullable(nodeDeserializer));
+  }
+
+  /**
+   * create with specific mvstore file - which may or may not yet exist.
+   * mvstoreFile won't be deleted at the end (unlike temp file constructors above)
+   */
+  public static MVStoreStorage createWithSpecificLocation(final File mvstoreFile) {
+    return new MVStoreStorage(Optional.ofNullable(mvstoreFile), Optional.empty());
+  }
+
+  private MVStoreStorage(
+      final Optional<File> mvstoreFileMaybe,
+      final Optional<NodeDeserializer> nodeDeserializer) {
+    this.nodeDeserializer = nodeDeserializer;
+    this.nodeSerializer = new NodeSerializer(
+        this.nodeDeserializer.map(NodeDeserializer::labels).orElse(Collections.emptySet()), Optional.of(stringDictionary));
+    this.nodeDeserializer.ifPresent(deserializer -> deserializer.setStringDictionary(stringDictionary));
+
+    if (mvstoreFileMaybe.isPresent()) {
+      mvstoreFile = mvstoreFileMaybe.get();
+    } else {
+      try {
+        mvstoreFile = File.createTempFile("mvstore", ".bin");
+        mvstoreFile.deleteOnExit();
+      } catch (IOException e) {
+        throw new RuntimeException("cannot create tmp file for mvstore", e);
+      }
+    }
+    logger.trace("storge file: " + mvstoreFile);
+  }
+
+  @Override
+  public void persist(final OdbNode node) throws IOException {
+    if (!closed) {
+      final long id = node.ref.id;
+      /* reset before serializing: should the node be modified concurrently, it'll be marked as modified again */
+      node.setModifiedSinceLastSerialization(false);
+      final byte[] serializedNode = nodeSerializer.serialize(node);
+      final MVMap<Long, byte[]> nodesMVMap = getNodesMVMap();
+      final long start = System.nanoTime();
+      nodesMVMap.put(id, serializedNode);
+      metrics.recordStorageWrite(System.nanoTime() - start);
+      addToNodeCatalog(id, node.label());
+      commit();
+    }
+  }
+
+  /**
+   * Serializes the given nodes in parallel, writes them to the store in one batch (ordered by id, which is the order
+   * of the underlying b-tree) and commits.
+   */
+  @Override
+  public void persistAll(final Collection<? extends OdbNode> nodes) throws IOException {
+    if (closed || nodes.isEmpty()) {
+      return;
+    }
+
+    final OdbNode[] sortedNodes = nodes.toArray(new OdbNode[0]);
+    Arrays.sort(sortedNodes, Comparator.comparingLong(node -> node.ref.id));
+    for (OdbNode node : sortedNodes) {
+      /* reset before serializing: should the node be modified concurrently, it'll be marked as modified again */
+      node.setModifiedSinceLastSerialization(false);
+    }
+    /* opens the store, and thereby the string dictionary, before serializing */
+    final MVMap<Long, byte[]> nodesMVMap = getNodesMVMap();
+    final byte[][] serializedNodes = nodeSerializer.serializeAll(sortedNodes);
+
+    for (int i = 0; i < sortedNodes.length; i++) {
+      final OdbNode node = sortedNodes[i];
+      final long start = System.nanoTime();
+      nodesMVMap.put(node.ref.id, serializedNodes[i]);
+      metrics.recordStorageWrite(System.nanoTime() - start);
+      addToNodeCatalog(node.ref.id, node.label());
+    }
+    commit();
+  }
+
+  /**
+   * auto commit is disabled - we commit after each write (or batch of writes), and when closing
+   */
+  @Override
+  public void commit() {
+    if (mvstore != null && !closed) {
+      final long start = System.nanoTime();
+      mvstore.commit();
+      metrics.recordStorageCommit(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public <A extends Vertex> A readNode(final long id) throws IOException {
+    final MVMap<Long, byte[]> nodesMVMap = getNodesMVMap();
+    final long start = System.nanoTime();
+    final byte[] bytes = nodesMVMap.get(id);
+    metrics.recordStorageRead(System.nanoTime() - start);
+    return (A) nodeDeserializer.get().deserialize(bytes);
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    logger.info("closing " + getClass().getSimpleName());
+    if (mvstore != null) mvstore.close();
+  }
+
+  public File getStorageFile() {
+    return new File(mvstore.getFileStore().getFileName());
+  }
+
+  @Override
+  public void removeNode(final Long id) {
+    getNodesMVMap().remove(id);
+    nodeLabelsMVMap.remove(id);
+  }
+
+  /**
+   * the label of a node doesn't change, i.e. we only need to write the catalog entry once
+   */
+  @Override
+  public void addToNodeCatalog(final long id, final String label) {
+    getNodesMVMap();
+    nodeLabelsMVMap.putIfAbsent(id, labelOrdinal(label));
+  }
+
+  /**
+   * the node catalog was introduced later, i.e. storage files written by earlier versions only contain the nodes
+   */
+  @Override
+  public boolean hasCompleteNodeCatalog() {
+    final long nodeCount = getNodesMVMap().sizeAsLong();
+    return nodeLabelsMVMap.sizeAsLong() == nodeCount;
+  }
+
+  /**
+   * Like `allNodesPartitioned`, but only returns the node ids and labels from the compact node catalog.
+   */
+  @Override
+  public List<Iterator<Map.Entry<Long, String>>> allNodeLabelsPartitioned(int partitionCount) {
+    getNodesMVMap();
+    return partitioned(nodeLabelsMVMap, partitionCount, labelsByOrdinal::get);
+  }
+
+  private synchronized int labelOrdinal(final String label) {
+    Integer ordinal = labelOrdinals.get(label);
+    if (ordinal == null) {
+      ordinal = labelsByOrdinal.size();
+      labelsByOrdinal.add(label);
+      labelsMVMap.put(ordinal, label);
+      labelOrdinals.put(label, ordinal);
+    }
+    return ordinal;
+  }
+
+  @Override
+  public Iterator<Map.Entry<Long, byte[]>> allNodes() {
+    return getNodesMVMap().entrySet().iterator();
+  }
+
+  @Override
+  public long nodeCount() {
+    return getNodesMVMap().sizeAsLong();
+  }
+
+  @Override
+  public long sizeInBytes() {
+    getNodesMVMap();
+    return mvstore.getFileStore().size();
+  }
+
+  /**
+   * Splits the stored nodes into `partitionCount` consecutive id ranges of (roughly) equal size, so that they can be
+   * processed in parallel. Uses the b-tree's positional index, i.e. doesn't need to scan the keys.
+   */
+  @Override
+  public List<Iterator<Map.Entry<Long, byte[]>>> allNodesPartitioned(int partitionCount) {
+    return partitioned(getNodesMVMap(), partitionCount, Function.identity());
+  }
+
+  private <V, R> List<Iterator<Map.Entry<Long, R>>> partitioned(MVMap<Long, V> map, int partitionCount, Function<V, R> valueMapper) {
+    final long size = map.sizeAsLong();
+    final int actualPartitionCount = (int) Long.max(1, Long.min(partitionCount, size));
+    final List<Iterator<Map.Entry<Long, R>>> partitions = new ArrayList<>(actualPartitionCount);
+    for (int i = 0; i < actualPartitionCount; i++) {
+      final long startIndex = size * i / actualPartitionCount;
+      final long endIndex = size * (i + 1) / actualPartitionCount;
+      final Long startKey = map.getKey(startIndex);
+      final Long exclusiveEndKey = endIndex < size ? map.getKey(endIndex) : null;
+      if (startKey != null) {
+        partitions.add(new RangeIterator<>(map.cursor(startKey), exclusiveEndKey, valueMapper));
+      }
+    }
+    return partitions;
+  }
+
+  @Override
+  public NodeSerializer getNodeSerializer() {
+    return nodeSerializer;
+  }
+
+  @Override
+  public void setMetrics(OdbMetrics metrics) {
+    OdbStorage.super.setMetrics(metrics);
+    this.metrics = metrics;
+  }
+
+  public MVMap<Long, byte[]> getNodesMVMap() {
+    if (nodesMVMap == null) {
+      openMVStore();
+    }
+    return nodesMVMap;
+  }
+
+  private synchronized void openMVStore() {
+    if (mvstore == null) {
+      mvstore = new MVStore.Builder().fileName(mvstoreFile.getAbsolutePath()).autoCommitDisabled().open();
+      nodeLabelsMVMap = mvstore.openMap("nodeLabels");
+      labelsMVMap = mvstore.openMap("labels");
+      for (Map.Entry<Integer, String> ordinalAndLabel : labelsMVMap.entrySet()) {
+        labelOrdinals.put(ordinalAndLabel.getValue(), ordinalAndLabel.getKey());
+        labelsByOrdinal.add(ordinalAndLabel.getKey(), ordinalAndLabel.getValue());
+      }
+      stringDictionary.attach(mvstore.openMap("strings"));
+      /* assigned last: it's what `getNodesMVMap` checks without synchronization */
+      nodesMVMap = mvstore.openMap("nodes");
+    }
+  }
+
+  @Override
+  public Optional<NodeDeserializer> getNodeDeserializer() {
+    return nodeDeserializer;
+  }
+
+  private static class RangeIterator<V, R> implements Iterator<Map.Entry<Long, R>> {
+    private final Cursor<Long, V> cursor;
+    private final Long exclusiveEndKey;
+    private final Function<V, R> valueMapper;
+    private Map.Entry<Long, R> next;
+    private boolean endReached = false;
+
+    RangeIterator(Cursor<Long, V> cursor, Long exclusiveEndKey, Function<V, R> valueMapper) {
+      this.cursor = cursor;
+      this.exclusiveEndKey = exclusiveEndKey;
+      this.valueMapper = valueMapper;
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (next == null && !endReached) {
+        if (cursor.hasNext()) {
+          final Long key = cursor.next();
+          if (exclusiveEndKey == null || key < exclusiveEndKey) {
+            next = new AbstractMap.SimpleImmutableEntry<>(key, valueMapper.apply(cursor.getValue()));
+          } else {
+            endReached = true;
+          }
+        } else {
+          endReached = true;
+        }
+      }
+      return next != null;
+    }
+
+    @Override
+    public Map.Entry<Long, R> next() {
+      if (!hasNext()) throw new NoSuchElementException();
+      final Map.Entry<Long, R> result = next;
+      next = null;
+      return result;
+    }
+  }
+}
@@ -2,58 +2,296 @@ package io.shiftleft.overflowdb.storage;
 
 import gnu.trove.map.hash.THashMap;
 import io.shiftleft.overflowdb.NodeFactory;
+import io.shiftleft.overflowdb.NodeLayoutInformation;
 import io.shiftleft.overflowdb.NodeRef;
 import io.shiftleft.overflowdb.OdbGraph;
+import io.shiftleft.overflowdb.OdbMetrics;
 import io.shiftleft.overflowdb.OdbNode;
 import org.apache.commons.lang3.NotImplementedException;
 import org.apache.tinkerpop.gremlin.structure.VertexProperty;
 import org.apache.tinkerpop.gremlin.structure.util.ElementHelper;
+import org.msgpack.core.ExtensionTypeHeader;
+import org.msgpack.core.MessageFormat;
 import org.msgpack.core.MessagePack;
 import org.msgpack.core.MessageUnpacker;
+import org.msgpack.core.buffer.ArrayBufferInput;
+import org.msgpack.core.buffer.ByteBufferInput;
+import org.msgpack.core.buffer.MessageBufferInput;
 import org.msgpack.value.ArrayValue;
 import org.msgpack.value.Value;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.msgpack.value.ValueType;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 
 public class NodeDeserializer {
-  private final Logger logger = LoggerFactory.getLogger(getClass());
+  /* msgpack can only read from direct buffers if it has access to the jdk internals, which depends on the jvm */
+  private static final boolean UNPACKER_SUPPORTS_DIRECT_BUFFERS = unpackerSupportsDirectBuffers();
   protected final OdbGraph graph;
   protected final Map<String, NodeFactory> nodeFactoryByLabel;
-  private int deserializedCount = 0;
-  private long deserializationTimeSpentMillis = 0;
+  /* label ordinals, as written by NodeSerializer */
+  private final String[] sortedLabels;
+  private Optional<StringDictionary> stringDictionary = Optional.empty();
+  private final boolean lazyMaterialization;
+  private volatile OdbMetrics metrics = new OdbMetrics();
+
+  /* reused by each thread, so that deserializing a node allocates (almost) nothing but the node itself */
+  private static final ThreadLocal<ThreadBuffers> threadBuffers = ThreadLocal.withInitial(ThreadBuffers::new);
+  private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+  private static boolean unpackerSupportsDirectBuffers() {
+    final ByteBuffer nil = ByteBuffer.allocateDirect(1);
+    nil.put(0, MessagePack.Code.NIL);
+    try (MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(nil)) {
+      unpacker.unpackNil();
+      return true;
+    } catch (UnsupportedOperationException | IOException e) {
+      return false;
+    }
+  }
 
   public NodeDeserializer(OdbGraph graph, Map<String, NodeFactory> nodeFactoryByLabel) {
+    this(graph, nodeFactoryByLabel, false);
+  }
+
+  /**
+   * @param lazyMaterialization only decode the properties and the adjacency of a node when they're first accessed,
+   *                            see `PendingSections`
+   */
+  public NodeDeserializer(OdbGraph graph, Map<String, NodeFactory> nodeFactoryByLabel, boolean lazyMaterialization) {
     this.graph = graph;
     this.nodeFactoryByLabel = nodeFactoryByLabel;
+    this.sortedLabels = NodeSerializer.sortedLabels(nodeFactoryByLabel.keySet());
+    this.lazyMaterialization = lazyMaterialization;
   }
 
   public OdbNode deserialize(byte[] bytes) throws IOException {
-    long start = System.currentTimeMillis();
     if (null == bytes)
       return null;
 
-    try (MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(bytes)) {
+    final long start = System.nanoTime();
+    final byte[] uncompressed = Compression.decompressIfNecessary(bytes);
+    final OdbNode node = deserialize(new ArrayBufferInput(uncompressed), uncompressed);
+    metrics.recordDeserialization(System.nanoTime() - start, bytes.length);
+    return node;
+  }
+
+  /**
+   * deserialize directly from the given buffer (from it's position to it's limit), e.g. a slice of a memory mapped file
+   */
+  public OdbNode deserialize(ByteBuffer buffer) throws IOException {
+    /* pending sections keep the serialized node, i.e. we need our own copy of it */
+    if (lazyMaterialization || Compression.isCompressed(buffer) || (buffer.isDirect() && !UNPACKER_SUPPORTS_DIRECT_BUFFERS)) {
+      final byte[] bytes = new byte[buffer.remaining()];
+      buffer.duplicate().get(bytes);
+      return deserialize(bytes);
+    }
+
+    final long start = System.nanoTime();
+    final int length = buffer.remaining();
+    final OdbNode node = deserialize(new ByteBufferInput(buffer), null);
+    metrics.recordDeserialization(System.nanoTime() - start, length);
+    return node;
+  }
+
+  /**
+   * @param bytes the bytes of `input`, if they may be kept for lazy materialization
+   */
+  private OdbNode deserialize(MessageBufferInput input, byte[] bytes) throws IOException {
+    final ThreadBuffers buffers = acquireBuffers();
+    try {
+      return deserialize(input, bytes, buffers);
+    } finally {
+      releaseBuffers(buffers);
+    }
+  }
+
+  /* buffers which have grown beyond MAX_RETAINED_BUFFER_SIZE, e.g. for a big array property, are dropped */
+  private void releaseBuffers(ThreadBuffers buffers) {
+    buffers.inUse = false;
+    if (buffers.varInts.array().length > MAX_RETAINED_BUFFER_SIZE && threadBuffers.get() == buffers) {
+      threadBuffers.remove();
+    }
+  }
+
+  private ThreadBuffers acquireBuffers() {
+    final ThreadBuffers buffers = threadBuffers.get();
+    if (buffers.inUse) {
+      /* reentrant call, e.g. from a node factory - can't reuse the buffers */
+      return new ThreadBuffers();
+    }
+    buffers.inUse = true;
+    return buffers;
+  }
+
+  private OdbNode deserialize(MessageBufferInput input, byte[] bytes, ThreadBuffers buffers) throws IOException {
+    final MessageUnpacker unpacker = buffers.unpacker;
+    unpacker.reset(input);
+    final OdbNode node;
+    final int formatVersion = readFormatVersion(unpacker, buffers);
+    if (formatVersion == 0) {
       final long id = unpacker.unpackLong();
       final String label = unpacker.unpackString();
       final Map<String, Object> properties = unpackProperties(unpacker);
       final int[] edgeOffsets = unpackEdgeOffsets(unpacker);
       final Object[] adjacentNodesWithProperties = unpackAdjacentNodesWithProperties(unpacker);
+      node = createNode(id, label, properties, edgeOffsets, adjacentNodesWithProperties);
+    } else {
+      node = deserializeSchemaAware(unpacker, bytes, buffers);
+    }
+    return node;
+  }
+
+  /**
+   * @return NodeSerializer.FORMAT_VERSION, or 0 for the original, unversioned format
+   */
+  private int readFormatVersion(MessageUnpacker unpacker, ThreadBuffers buffers) throws IOException {
+    if (unpacker.getNextFormat() != MessageFormat.NEVER_USED) {
+      return 0;
+    }
+    final byte[] header = buffers.header;
+    unpacker.readPayload(header);
+    if (header[0] != NodeSerializer.FORMAT_HEADER || header[1] != NodeSerializer.FORMAT_VERSION) {
+      throw new IOException("unsupported format version " + header[1] + " - only know " + NodeSerializer.FORMAT_VERSION);
+    }
+    return header[1];
+  }
 
-      OdbNode node = createNode(id, label, properties, edgeOffsets, adjacentNodesWithProperties);
+  /**
+   * The node layout defines the properties and the edge layout, so we need to create the node first.
+   * Properties are assigned directly, while reading them.
+   * The sections can be found independently, i.e. in lazy mode we only keep the bytes and decode each section when
+   * it's first accessed.
+   */
+  private OdbNode deserializeSchemaAware(MessageUnpacker unpacker, byte[] bytes, ThreadBuffers buffers) throws IOException {
+    final long id = unpacker.unpackLong();
+    final String label = unpackLabel(unpacker, buffers);
+    final OdbNode node = nodeFactory(label).createNode(graph, id);
 
-      deserializedCount++;
-      deserializationTimeSpentMillis += System.currentTimeMillis() - start;
-      if (deserializedCount % 131072 == 0) { //2^17
-        float avgDeserializationTime = deserializationTimeSpentMillis / (float) deserializedCount;
-        logger.debug("stats: deserialized " + deserializedCount + " nodes in total (avg time: " + avgDeserializationTime + "ms)");
+    final byte[] adjacencyOffset = buffers.adjacencyOffset;
+    unpacker.readPayload(adjacencyOffset);
+    if (lazyMaterialization && bytes != null) {
+      final PendingSections pendingSections = new PendingSections(
+          this, bytes, (int) unpacker.getTotalReadBytes(), ByteBuffer.wrap(adjacencyOffset).getInt());
+      if (node.supportsLazyProperties()) {
+        node.setPendingProperties(pendingSections);
+      } else {
+        unpackProperties(unpacker, node, buffers);
       }
-      return node;
+      node.setPendingAdjacency(pendingSections);
+    } else {
+      unpackProperties(unpacker, node, buffers);
+      unpackAdjacency(unpacker, node, buffers);
+    }
+
+    /* freshly deserialized, i.e. identical to what's in storage */
+    node.setModifiedSinceLastSerialization(false);
+    return node;
+  }
+
+  /**
+   * decode the properties section of the given serialized node, which starts at `offset`
+   */
+  void materializeProperties(OdbNode node, byte[] bytes, int offset) throws IOException {
+    final ThreadBuffers buffers = acquireBuffers();
+    try {
+      final MessageUnpacker unpacker = buffers.unpacker;
+      unpacker.reset(new ArrayBufferInput(bytes, offset, bytes.length - offset));
+      unpackProperties(unpacker, node, buffers);
+    } finally {
+      releaseBuffers(buffers);
+    }
+  }
+
+  /**
+   * decode the adjacency section of the given serialized node, which starts at `offset`
+   */
+  void materializeAdjacency(OdbNode node, byte[] bytes, int offset) throws IOException {
+    final ThreadBuffers buffers = acquireBuffers();
+    try {
+      final MessageUnpacker unpacker = buffers.unpacker;
+      unpacker.reset(new ArrayBufferInput(bytes, offset, bytes.length - offset));
+      unpackAdjacency(unpacker, node, buffers);
+    } finally {
+      releaseBuffers(buffers);
+    }
+  }
+
+  private void unpackProperties(MessageUnpacker unpacker, OdbNode node, ThreadBuffers buffers) throws IOException {
+    final String[] propertyKeys = node.getLayoutInformation().sortedPropertyKeys();
+    final int propertyCount = unpacker.unpackArrayHeader();
+    if (propertyCount != propertyKeys.length) {
+      throw new IOException("node " + node.ref.id + " (" + node.label() + ") has been stored with a different schema: expected " +
+          propertyKeys.length + " properties, but got " + propertyCount);
+    }
+    for (int i = 0; i < propertyCount; i++) {
+      final Object value = unpackValue(unpacker, buffers);
+      if (value instanceof List) {
+        /* list properties are set element by element, like tinkerpop's `Cardinality.list` */
+        for (Object element : (List) value) {
+          node.initProperty(propertyKeys[i], element);
+        }
+      } else if (value != null) {
+        node.initProperty(propertyKeys[i], value);
+      }
+    }
+  }
+
+  private void unpackAdjacency(MessageUnpacker unpacker, OdbNode node, ThreadBuffers buffers) throws IOException {
+    final NodeLayoutInformation layoutInformation = node.getLayoutInformation();
+    final int blockCount = unpacker.unpackArrayHeader();
+    verifyBlockCount(node, layoutInformation, blockCount);
+    final int[] edgeOffsets = new int[blockCount * 2];
+    final int totalLength = unpacker.unpackInt();
+    unpackCompaction(unpacker, node, blockCount, buffers);
+    final Object[] adjacentNodesWithProperties;
+    int[] adjacentNodeOrdinals = null;
+    if (layoutInformation.adjacencyLayout() == NodeLayoutInformation.AdjacencyLayout.NODE_REFS) {
+      adjacentNodesWithProperties = new Object[totalLength];
+    } else {
+      adjacentNodeOrdinals = new int[totalLength];
+      adjacentNodesWithProperties = new Object[totalLength * layoutInformation.edgePropertyColumnCount()];
+    }
+    final long[][] pairedSlots =
+        unpackAdjacency(unpacker, layoutInformation, edgeOffsets, adjacentNodesWithProperties, adjacentNodeOrdinals, buffers);
+    initAdjacency(node, edgeOffsets, adjacentNodesWithProperties, adjacentNodeOrdinals, pairedSlots);
+  }
+
+  /* counterpart to `NodeSerializer.packCompaction` */
+  private void unpackCompaction(MessageUnpacker unpacker, OdbNode node, int blockCount, ThreadBuffers buffers) throws IOException {
+    final int epoch = unpacker.unpackInt();
+    int[][] removedBlockOffsets = null;
+    if (epoch != 0) {
+      final VarIntBuffer buffer = buffers.varInts;
+      buffer.readFrom(unpacker, unpacker.unpackBinaryHeader());
+      removedBlockOffsets = new int[blockCount][];
+      for (int offsetPosition = 0; offsetPosition < blockCount; offsetPosition++) {
+        final int count = (int) buffer.readUnsigned();
+        if (count > 0) {
+          final int[] blockOffsets = new int[count];
+          int blockOffset = 0;
+          for (int i = 0; i < count; i++) {
+            blockOffset += (int) buffer.readUnsigned();
+            blockOffsets[i] = blockOffset;
+          }
+          removedBlockOffsets[offsetPosition] = blockOffsets;
+        }
+      }
+    }
+    node.setCompactionEpoch(epoch, removedBlockOffsets);
+  }
+
+  private void verifyBlockCount(OdbNode node, NodeLayoutInformation layoutInformation, int blockCount) throws IOException {
+    if (blockCount != layoutInformation.numberOfDifferentAdjacentTypes()) {
+      throw new IOException("node " + node.ref.id + " (" + node.label() + ") has been stored with a different schema: expected " +
+          layoutInformation.numberOfDifferentAdjacentTypes() + " edge types, but got " + blockCount);
     }
   }
 
@@ -61,14 +299,70 @@ public class NodeDeserializer {
    * only deserialize the part we're keeping in memory, used during startup when initializing from disk
    */
   public NodeRef deserializeRef(byte[] bytes) throws IOException {
-    try (MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(bytes)) {
+    final ThreadBuffers buffers = new ThreadBuffers();
+    try (MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(Compression.decompressIfNecessary(bytes))) {
+      final int formatVersion = readFormatVersion(unpacker, buffers);
       long id = unpacker.unpackLong();
-      String label = unpacker.unpackString();
+      String label = formatVersion == 0 ? unpacker.unpackString() : unpackLabel(unpacker, buffers);
 
       return createNodeRef(id, label);
     }
   }
 
+  /**
+   * where to record the deserialization times and sizes - usually the graph's metrics
+   */
+  public void setMetrics(OdbMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * the dictionary of the storage, for strings which have been serialized as their id in the dictionary
+   */
+  public void setStringDictionary(StringDictionary stringDictionary) {
+    this.stringDictionary = Optional.of(stringDictionary);
+  }
+
+  /**
+   * labels of all known node types
+   */
+  public Set<String> labels() {
+    return nodeFactoryByLabel.keySet();
+  }
+
+  private String unpackLabel(MessageUnpacker unpacker, ThreadBuffers buffers) throws IOException {
+    if (unpacker.getNextFormat().getValueType() == ValueType.INTEGER) {
+      final int ordinal = unpacker.unpackInt();
+      if (ordinal < 0 || ordinal >= sortedLabels.length) {
+        throw new IOException("unknown label ordinal " + ordinal + " - there are only " + sortedLabels.length + " node types");
+      }
+      return sortedLabels[ordinal];
+    } else {
+      return unpackString(unpacker, buffers);
+    }
+  }
+
+  /**
+   * either a plain string, or it's id in the dictionary (see NodeSerializer)
+   */
+  private String unpackString(MessageUnpacker unpacker, ThreadBuffers buffers) throws IOException {
+    if (unpacker.getNextFormat().getValueType() != ValueType.EXTENSION) {
+      return unpacker.unpackString();
+    }
+    final ExtensionTypeHeader header = unpacker.unpackExtensionTypeHeader();
+    if (header.getType() != NodeSerializer.STRING_ID_EXTENSION_TYPE) {
+      throw new IOException("unknown msgpack extension type " + header.getType());
+    }
+    final VarIntBuffer buffer = buffers.varInts;
+    buffer.readFrom(unpacker, header.getLength());
+    final int id = (int) buffer.readUnsigned();
+    final String string = stringDictionary.isPresent() ? stringDictionary.get().lookup(id) : null;
+    if (string == null) {
+      throw new IOException("string with id " + id + " not found in the string dictionary");
+    }
+    return string;
+  }
+
   private Map<String, Object> unpackProperties(MessageUnpacker unpacker) throws IOException {
     int propertyCount = unpacker.unpackMapHeader();
     Map<String, Object> res = new THashMap<>(propertyCount);
@@ -98,6 +392,188 @@ public class NodeDeserializer {
     return adjacentNodesWithProperties;
   }
 
+  /**
+   * counterpart to `NodeSerializer.packAdjacency`: the blocks are laid out back to back, without any free capacity.
+   *
+   * @param adjacentNodeOrdinals only for the NODE_IDS and COLUMNAR adjacency layouts, `null` otherwise
+   * @return the paired slots (see `OdbNode.getPairedSlots`), only allocated for blocks which have any
+   */
+  private long[][] unpackAdjacency(MessageUnpacker unpacker,
+                               NodeLayoutInformation layoutInformation,
+                               int[] edgeOffsets,
+                               Object[] adjacentNodesWithProperties,
+                               int[] adjacentNodeOrdinals,
+                               ThreadBuffers buffers) throws IOException {
+    long[][] pairedSlots = null;
+    final int capacity = adjacentNodeOrdinals != null ? adjacentNodeOrdinals.length : adjacentNodesWithProperties.length;
+    final VarIntBuffer buffer = buffers.varInts;
+    int start = 0;
+    for (int offsetPosition = 0; offsetPosition < edgeOffsets.length / 2; offsetPosition++) {
+      final int strideSize = layoutInformation.indexStride(offsetPosition);
+      buffer.readFrom(unpacker, unpacker.unpackBinaryHeader());
+      final int entryCount = (int) buffer.readUnsigned();
+      final int length = entryCount * strideSize;
+      if (entryCount < 0 || start + length > capacity) {
+        throw new IOException("invalid adjacency block of " + entryCount + " entries at position " + start);
+      }
+
+      /* read the (ascending) hole positions first, so we know which entries to skip */
+      final int holeCount = (int) buffer.readUnsigned();
+      final int[] holes = buffers.holes(holeCount);
+      int hole = 0;
+      for (int i = 0; i < holeCount; i++) {
+        hole += (int) buffer.readUnsigned();
+        holes[i] = hole;
+      }
+
+      long id = 0;
+      int nextHole = 0;
+      for (int entry = 0; entry < entryCount; entry++) {
+        if (nextHole < holeCount && holes[nextHole] == entry) {
+          nextHole++;
+          if (adjacentNodeOrdinals != null) {
+            adjacentNodeOrdinals[start + entry * strideSize] = OdbNode.NO_ADJACENT_NODE;
+          }
+        } else {
+          id += VarIntBuffer.unZigZag(buffer.readUnsigned());
+          if (adjacentNodeOrdinals != null) {
+            adjacentNodeOrdinals[start + entry * strideSize] = graph.nodeOrdinal(id);
+          } else {
+            adjacentNodesWithProperties[start + entry * strideSize] = graph.vertex(id);
+          }
+        }
+      }
+
+      nextHole = 0;
+      long[] blockPairedSlots = null;
+      for (int entry = 0; entry < entryCount; entry++) {
+        if (nextHole < holeCount && holes[nextHole] == entry) {
+          nextHole++;
+        } else {
+          final long pairedSlot = buffer.readUnsigned();
+          if (pairedSlot != 0) {
+            if (blockPairedSlots == null) {
+              if (pairedSlots == null) pairedSlots = new long[edgeOffsets.length / 2][];
+              blockPairedSlots = new long[entryCount];
+              Arrays.fill(blockPairedSlots, OdbNode.UNPAIRED);
+              pairedSlots[offsetPosition] = blockPairedSlots;
+            }
+            final int epoch = (pairedSlot & 1) != 0 ? (int) buffer.readUnsigned() : 0;
+            blockPairedSlots[entry] = OdbNode.pairedSlot((int) (pairedSlot >>> 1) - 1, epoch);
+          }
+        }
+      }
+
+      for (int propertyIndex = 1; propertyIndex < layoutInformation.strideSize(offsetPosition); propertyIndex++) {
+        nextHole = 0;
+        for (int entry = 0; entry < entryCount; entry++) {
+          if (nextHole < holeCount && holes[nextHole] == entry) {
+            nextHole++;
+          } else {
+            final int index = layoutInformation.edgePropertyIndex(start + entry * strideSize, propertyIndex, capacity);
+            adjacentNodesWithProperties[index] = unpackValue(unpacker, buffers);
+          }
+        }
+      }
+
+      edgeOffsets[2 * offsetPosition] = start;
+      edgeOffsets[2 * offsetPosition + 1] = length;
+      start += length;
+    }
+    return pairedSlots;
+  }
+
+  /**
+   * counterpart to `NodeSerializer.packValue`: either a plain value or `[ValueType.id, value]`
+   * n.b. this reuses `buffers.varInts`, i.e. the caller must not be reading from it
+   */
+  private Object unpackValue(MessageUnpacker unpacker, ThreadBuffers buffers) throws IOException {
+    final MessageFormat format = unpacker.getNextFormat();
+    switch (format.getValueType()) {
+      case NIL:
+        unpacker.unpackNil();
+        return null;
+      case BOOLEAN:
+        return unpacker.unpackBoolean();
+      case STRING:
+      case EXTENSION:
+        return unpackString(unpacker, buffers);
+      case INTEGER:
+        return unpacker.unpackInt();
+      case FLOAT:
+        return format == MessageFormat.FLOAT32 ? (Object) unpacker.unpackFloat() : (Object) unpacker.unpackDouble();
+      case ARRAY:
+        unpacker.unpackArrayHeader();
+        final byte valueTypeId = unpacker.unpackByte();
+        switch (ValueTypes.lookup(valueTypeId)) {
+          case NODE_REF:
+            return graph.vertex(unpacker.unpackLong());
+          case BYTE:
+            return unpacker.unpackByte();
+          case SHORT:
+            return unpacker.unpackShort();
+          case LONG:
+            return unpacker.unpackLong();
+          case LIST:
+            final int size = unpacker.unpackArrayHeader();
+            final List list = new ArrayList(size);
+            for (int i = 0; i < size; i++) {
+              list.add(unpackValue(unpacker, buffers));
+            }
+            return list;
+          case INT_ARRAY: {
+            final VarIntBuffer buffer = buffers.varInts;
+            buffer.readFrom(unpacker, unpacker.unpackBinaryHeader());
+            final int[] array = new int[arrayLength(buffer)];
+            for (int i = 0; i < array.length; i++) {
+              array[i] = (int) VarIntBuffer.unZigZag(buffer.readUnsigned());
+            }
+            return array;
+          }
+          case LONG_ARRAY: {
+            final VarIntBuffer buffer = buffers.varInts;
+            buffer.readFrom(unpacker, unpacker.unpackBinaryHeader());
+            final long[] array = new long[arrayLength(buffer)];
+            for (int i = 0; i < array.length; i++) {
+              array[i] = VarIntBuffer.unZigZag(buffer.readUnsigned());
+            }
+            return array;
+          }
+          case DOUBLE_ARRAY: {
+            final VarIntBuffer buffer = buffers.varInts;
+            buffer.readFrom(unpacker, unpacker.unpackBinaryHeader());
+            final double[] array = new double[buffer.remaining() / Double.BYTES];
+            for (int i = 0; i < array.length; i++) {
+              array[i] = Double.longBitsToDouble(buffer.readFixed64());
+            }
+            return array;
+          }
+          case BYTE_ARRAY:
+            return unpacker.readPayload(unpacker.unpackBinaryHeader());
+          case STRING_ARRAY: {
+            final String[] array = new String[unpacker.unpackArrayHeader()];
+            for (int i = 0; i < array.length; i++) {
+              array[i] = (String) unpackValue(unpacker, buffers);
+            }
+            return array;
+          }
+          default:
+            throw new NotImplementedException("unknown valueTypeId=`" + valueTypeId);
+        }
+      default:
+        throw new IOException("unexpected value of type " + format.getValueType());
+    }
+  }
+
+  /* the length of a varint encoded array, which can't be bigger than the number of remaining bytes */
+  private int arrayLength(VarIntBuffer buffer) throws IOException {
+    final long length = buffer.readUnsigned();
+    if (length > buffer.remaining()) {
+      throw new IOException("invalid array length " + length + " - only " + buffer.remaining() + " bytes left");
+    }
+    return (int) length;
+  }
+
   private Object unpackValue(final ArrayValue packedValueAndType) {
     final Iterator<Value> iter = packedValueAndType.iterator();
     final byte valueTypeId = iter.next().asIntegerValue().asByte();
@@ -124,7 +600,7 @@ public class NodeDeserializer {
       case FLOAT:
         return value.asFloatValue().toFloat();
       case DOUBLE:
-        return Double.valueOf(value.asFloatValue().toFloat());
+        return value.asFloatValue().toDouble();
       case LIST:
         final ArrayValue arrayValue = value.asArrayValue();
         List deserializedArray = new ArrayList(arrayValue.size());
@@ -157,26 +633,88 @@ public class NodeDeserializer {
     return keyValues.toArray();
   }
 
-  protected NodeRef createNodeRef(long id, String label) {
-    NodeFactory nodeFactory = nodeFactoryByLabel.get(label);
-    if (nodeFactory == null) {
-      throw new AssertionError("nodeFactory not found for label=" + label);
-    }
-
-    return nodeFactory.createNodeRef(graph, id);
+  public NodeRef createNodeRef(long id, String label) {
+    return nodeFactory(label).createNodeRef(graph, id);
   }
 
   protected OdbNode createNode(long id, String label, Map<String, Object> properties, int[] edgeOffsets, Object[] adjacentNodesWithProperties) {
+    OdbNode node = nodeFactory(label).createNode(graph, id);
+    ElementHelper.attachProperties(node, VertexProperty.Cardinality.list, toTinkerpopKeyValues(properties));
+    initNode(node, edgeOffsets, adjacentNodesWithProperties);
+    return node;
+  }
+
+  private void initNode(OdbNode node, int[] edgeOffsets, Object[] adjacentNodesWithProperties) {
+    initAdjacency(node, edgeOffsets, adjacentNodesWithProperties);
+    /* freshly deserialized, i.e. identical to what's in storage */
+    node.setModifiedSinceLastSerialization(false);
+  }
+
+  private void initAdjacency(OdbNode node, int[] edgeOffsets, Object[] adjacentNodesWithProperties) {
+    initAdjacency(node, edgeOffsets, adjacentNodesWithProperties, null, null);
+  }
+
+  /**
+   * @param adjacentNodeOrdinals `null` if `adjacentNodesWithProperties` holds the adjacent nodes - they're converted to
+   *                             ordinals if the node uses the NODE_IDS or COLUMNAR adjacency layout, i.e. for the
+   *                             unversioned format
+   * @param pairedSlots          `null` for the unversioned format: the edges are paired again when they're first used
+   */
+  private void initAdjacency(OdbNode node, int[] edgeOffsets, Object[] adjacentNodesWithProperties, int[] adjacentNodeOrdinals, long[][] pairedSlots) {
+    final NodeLayoutInformation layoutInformation = node.getLayoutInformation();
+    if (adjacentNodeOrdinals == null && layoutInformation.adjacencyLayout() != NodeLayoutInformation.AdjacencyLayout.NODE_REFS) {
+      int entryCount = 0;
+      for (int offsetPosition = 0; offsetPosition < edgeOffsets.length / 2; offsetPosition++) {
+        entryCount += edgeOffsets[2 * offsetPosition + 1] / layoutInformation.strideSize(offsetPosition);
+      }
+      adjacentNodeOrdinals = new int[entryCount];
+      final Object[] edgeProperties = new Object[entryCount * layoutInformation.edgePropertyColumnCount()];
+      int position = 0;
+      for (int offsetPosition = 0; offsetPosition < edgeOffsets.length / 2; offsetPosition++) {
+        final int start = edgeOffsets[2 * offsetPosition];
+        final int end = start + edgeOffsets[2 * offsetPosition + 1];
+        final int strideSize = layoutInformation.strideSize(offsetPosition);
+        edgeOffsets[2 * offsetPosition] = position;
+        edgeOffsets[2 * offsetPosition + 1] = (end - start) / strideSize;
+        for (int i = start; i < end; i += strideSize) {
+          final NodeRef adjacentNode = (NodeRef) adjacentNodesWithProperties[i];
+          adjacentNodeOrdinals[position] = adjacentNode == null ? OdbNode.NO_ADJACENT_NODE : graph.nodeOrdinal(adjacentNode);
+          for (int propertyIndex = 1; propertyIndex < strideSize; propertyIndex++) {
+            edgeProperties[layoutInformation.edgePropertyIndex(position, propertyIndex, entryCount)] = adjacentNodesWithProperties[i + propertyIndex];
+          }
+          position++;
+        }
+      }
+      adjacentNodesWithProperties = edgeProperties;
+    }
+    node.setAdjacentNodesWithProperties(adjacentNodesWithProperties);
+    node.setAdjacentNodeOrdinals(adjacentNodeOrdinals);
+    node.setPairedSlots(pairedSlots);
+    node.setEdgeOffsets(edgeOffsets);
+  }
+
+  private NodeFactory nodeFactory(String label) {
     NodeFactory nodeFactory = nodeFactoryByLabel.get(label);
     if (nodeFactory == null) {
       throw new AssertionError("nodeFactory not found for label=" + label);
     }
-    OdbNode node = nodeFactory.createNode(graph, id);
-    ElementHelper.attachProperties(node, VertexProperty.Cardinality.list, toTinkerpopKeyValues(properties));
-    node.setEdgeOffsets(edgeOffsets);
-    node.setAdjacentNodesWithProperties(adjacentNodesWithProperties);
+    return nodeFactory;
+  }
 
-    return node;
+  private static class ThreadBuffers {
+    private final MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(new byte[0]);
+    private final VarIntBuffer varInts = new VarIntBuffer(64);
+    private final byte[] header = new byte[2];
+    private final byte[] adjacencyOffset = new byte[Integer.BYTES];
+    private int[] holes = new int[16];
+    private boolean inUse;
+
+    int[] holes(int count) {
+      if (holes.length < count) {
+        holes = new int[Integer.max(count, holes.length * 2)];
+      }
+      return holes;
+    }
   }
 
 }
@@ -1,116 +1,428 @@
 package io.shiftleft.overflowdb.storage;
 
+import io.shiftleft.overflowdb.NodeLayoutInformation;
 import io.shiftleft.overflowdb.NodeRef;
+import io.shiftleft.overflowdb.OdbGraph;
+import io.shiftleft.overflowdb.OdbMetrics;
 import io.shiftleft.overflowdb.OdbNode;
 import org.apache.commons.lang3.NotImplementedException;
 import org.msgpack.core.MessageBufferPacker;
 import org.msgpack.core.MessagePack;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.stream.IntStream;
 
+/**
+ * Serializes nodes in a schema aware format, i.e. it relies on the NodeLayoutInformation rather than writing property
+ * keys etc. for every node:
+ *
+ * `[header][id][label][adjacencyOffset][properties][adjacency]`
+ * - header: FORMAT_HEADER and FORMAT_VERSION (raw bytes)
+ * - label: ordinal within the sorted labels of all node types, or the label itself for unknown labels
+ * - adjacencyOffset: position of the adjacency section (4 raw bytes, big endian). Together with the properties
+ *   section following directly, this allows to deserialize each section independently (see `PendingSections`)
+ * - properties: one value per property key of the node type, in sorted key order (nil if not set)
+ * - adjacency: the number of blocks, their total length and the node's compaction epoch (see `packCompaction`),
+ *   followed by one entry per block (see `packAdjacency`)
+ *
+ * Values are written as native msgpack values if that's enough to deserialize them back to the same type, i.e.
+ * for String, Boolean, Integer, Float and Double. All other values are written as `[ValueType.id, value]`.
+ * If there's a StringDictionary, strings (and labels without an ordinal) which have an id in the dictionary are written
+ * as that id: a msgpack extension value of type STRING_ID_EXTENSION_TYPE, holding the id as a varint.
+ * n.b. this doesn't support schema changes
+ */
 public class NodeSerializer {
+  /* reserved ('never used') in msgpack, i.e. nodes serialized in the original, unversioned format (which starts with
+   * the msgpack encoded id) never start with this byte */
+  public static final byte FORMAT_HEADER = (byte) 0xC1;
+  public static final byte FORMAT_VERSION = 5;
+  private static final byte[] HEADER = new byte[]{FORMAT_HEADER, FORMAT_VERSION};
+  public static final byte STRING_ID_EXTENSION_TYPE = 1;
+  private static final byte[] ADJACENCY_OFFSET_PLACEHOLDER = new byte[Integer.BYTES];
 
-  private final Logger logger = LoggerFactory.getLogger(getClass());
-  private int serializedCount = 0;
-  private long serializationTimeSpentMillis = 0;
+  /* reused by each thread, so that serializing a node allocates (almost) nothing but the resulting byte array.
+   * Buffers which have grown beyond MAX_RETAINED_BUFFER_SIZE for a very big node are dropped after use. */
+  private static final ThreadLocal<MessageBufferPacker> packers = ThreadLocal.withInitial(MessagePack::newDefaultBufferPacker);
+  private static final ThreadLocal<VarIntBuffer> varIntBuffers = ThreadLocal.withInitial(() -> new VarIntBuffer(64));
+  private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+  private final Map<String, Integer> labelOrdinals;
+  private final Optional<StringDictionary> stringDictionary;
+  private volatile Compression compression = Compression.NONE;
+  private volatile int compressionThreshold = Compression.DEFAULT_THRESHOLD;
+  private volatile OdbMetrics metrics = new OdbMetrics();
+
+  /**
+   * serializer without knowledge of the node types, i.e. labels are written as strings
+   */
+  public NodeSerializer() {
+    this(Collections.emptySet());
+  }
+
+  /**
+   * @param labels labels of all node types, which will be written as ordinals
+   */
+  public NodeSerializer(Collection<String> labels) {
+    this(labels, Optional.empty());
+  }
+
+  /**
+   * @param labels labels of all node types, which will be written as ordinals
+   * @param stringDictionary if present, strings are written as their id in the dictionary
+   */
+  public NodeSerializer(Collection<String> labels, Optional<StringDictionary> stringDictionary) {
+    this.stringDictionary = stringDictionary;
+    final String[] sortedLabels = sortedLabels(labels);
+    labelOrdinals = new HashMap<>(sortedLabels.length);
+    for (int i = 0; i < sortedLabels.length; i++) {
+      labelOrdinals.put(sortedLabels[i], i);
+    }
+  }
+
+  static String[] sortedLabels(Collection<String> labels) {
+    return labels.stream().sorted().toArray(String[]::new);
+  }
 
   public byte[] serialize(OdbNode node) throws IOException {
-    long start = System.currentTimeMillis();
-    try (MessageBufferPacker packer = MessagePack.newDefaultBufferPacker()) {
+    final long start = System.nanoTime();
+    final MessageBufferPacker packer = packers.get();
+    packer.clear();
+    try {
+      final NodeLayoutInformation layoutInformation = node.getLayoutInformation();
+      /* the packer is reused, i.e. it's total doesn't start at 0 */
+      final long startPosition = packer.getTotalWrittenBytes();
+      packer.writePayload(HEADER);
       packer.packLong(node.ref.id);
-      packer.packString(node.label());
+      packLabel(packer, node.label());
+      final int adjacencyOffsetPosition = (int) (packer.getTotalWrittenBytes() - startPosition);
+      packer.writePayload(ADJACENCY_OFFSET_PLACEHOLDER);
 
-      packProperties(packer, node.valueMap());
-      packEdgeOffsets(packer, node.getEdgeOffsets());
-      packAdjacentNodesWithProperties(packer, node.getAdjacentNodesWithProperties());
+      node.loadProperties();
+      packProperties(packer, layoutInformation.sortedPropertyKeys(), node.valueMap());
+      final int adjacencyOffset = (int) (packer.getTotalWrittenBytes() - startPosition);
+      packAdjacency(packer, layoutInformation, node.getEdgeOffsets(), node.getAdjacentNodesWithProperties(),
+          (OdbGraph) node.graph(), node.getAdjacentNodeOrdinals(), node.getPairedSlots(), node.compactionEpoch(), node.lastCompactionRemovedBlockOffsets());
 
-      serializedCount++;
-      serializationTimeSpentMillis += System.currentTimeMillis() - start;
-      if (serializedCount % 131072 == 0) { //2^17
-        float avgSerializationTime = serializationTimeSpentMillis / (float) serializedCount;
-        logger.debug("stats: serialized " + serializedCount + " instances in total (avg time: " + avgSerializationTime + "ms)");
+      final byte[] bytes = packer.toByteArray();
+      ByteBuffer.wrap(bytes).putInt(adjacencyOffsetPosition, adjacencyOffset);
+      final byte[] result = bytes.length < compressionThreshold ? bytes : compression.compress(bytes);
+      metrics.recordSerialization(System.nanoTime() - start, result.length);
+      return result;
+    } finally {
+      if (packer.getBufferSize() > MAX_RETAINED_BUFFER_SIZE) {
+        packers.remove();
+      }
+      if (varIntBuffers.get().array().length > MAX_RETAINED_BUFFER_SIZE) {
+        varIntBuffers.remove();
       }
-      return packer.toByteArray();
     }
   }
 
   /**
-   * when deserializing, msgpack can't differentiate between e.g. int and long, so we need to encode the type as well - doing that with an array
-   * i.e. format is: Map[PropertyName, Array(TypeId, PropertyValue)]
+   * compress serialized nodes of at least `threshold` bytes with the given codec - smaller ones are kept as they are.
+   * The deserializer detects compressed nodes by their header, i.e. this can be changed at any time.
+   */
+  public void setCompression(Compression compression, int threshold) {
+    this.compression = compression;
+    this.compressionThreshold = threshold;
+  }
+
+  /**
+   * where to record the serialization times and sizes - usually the graph's metrics
    */
-  private void packProperties(MessageBufferPacker packer, Map<String, Object> properties) throws IOException {
-    packer.packMapHeader(properties.size());
-    for (Map.Entry<String, Object> property : properties.entrySet()) {
-      packer.packString(property.getKey());
-      packTypedValue(packer, property.getValue());
+  public void setMetrics(OdbMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * serializes (and compresses, if configured) the given nodes in parallel
+   * @return the serialized nodes, in the same order
+   */
+  public byte[][] serializeAll(OdbNode[] nodes) throws IOException {
+    final byte[][] serializedNodes = new byte[nodes.length][];
+    try {
+      IntStream.range(0, nodes.length).parallel().forEach(i -> {
+        try {
+          serializedNodes[i] = serialize(nodes[i]);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
     }
+    return serializedNodes;
   }
 
-  private void packEdgeOffsets(MessageBufferPacker packer, int[] edgeOffsets) throws IOException {
-    packer.packArrayHeader(edgeOffsets.length);
-    for (int i = 0; i < edgeOffsets.length; i++) {
-      packer.packInt(edgeOffsets[i]);
+  private void packLabel(MessageBufferPacker packer, String label) throws IOException {
+    final Integer ordinal = labelOrdinals.get(label);
+    if (ordinal != null) {
+      packer.packInt(ordinal);
+    } else {
+      packString(packer, label);
     }
   }
 
-  private void packAdjacentNodesWithProperties(MessageBufferPacker packer, Object[] adjacentNodesWithProperties) throws IOException {
-    packer.packArrayHeader(adjacentNodesWithProperties.length);
-    for (int i = 0; i < adjacentNodesWithProperties.length; i++) {
-      packTypedValue(packer, adjacentNodesWithProperties[i]);
+  private void packString(MessageBufferPacker packer, String string) throws IOException {
+    final int id = stringDictionary.isPresent() ? stringDictionary.get().idFor(string) : -1;
+    if (id >= 0) {
+      final VarIntBuffer buffer = varIntBuffers.get();
+      buffer.clear();
+      buffer.writeUnsigned(id);
+      packer.packExtensionTypeHeader(STRING_ID_EXTENSION_TYPE, buffer.size());
+      packer.writePayload(buffer.array(), 0, buffer.size());
+    } else {
+      packer.packString(string);
     }
   }
 
   /**
-   * format: `[ValueType.id, value]`
+   * format: Array(PropertyValue), one entry per property key of the node type, in sorted key order
    */
-  private void packTypedValue(final MessageBufferPacker packer, final Object value) throws IOException {
-    packer.packArrayHeader(2);
+  private void packProperties(MessageBufferPacker packer, String[] sortedPropertyKeys, Map<String, Object> properties) throws IOException {
+    packer.packArrayHeader(sortedPropertyKeys.length);
+    for (String key : sortedPropertyKeys) {
+      packValue(packer, properties.get(key));
+    }
+  }
+
+  /**
+   * Per block: `[bin: entryCount, holeCount, holes, ids, pairedSlots][property columns]`
+   * - entryCount: number of edges in the block, including removed ones (holes)
+   * - holes: block positions of removed edges, each as the distance to the previous hole
+   * - ids: the adjacent node ids of all other edges, each as the zig-zag encoded difference to the previous id
+   * - pairedSlots: for all other edges, where the edge is stored in the adjacent node (see `OdbNode.pairedBlockOffset`):
+   *   0 if unknown (e.g. for blocks below the edge pairing threshold), otherwise the block offset plus one, shifted
+   *   left by one bit. The lowest bit is set if the adjacent node's compaction epoch which the offset is valid for is
+   *   not 0, and that epoch follows
+   * - property columns: for each edge property key in sorted order, the values of all edges that aren't holes
+   * The numbers in `bin` are varints. The unused capacity at the end of each block isn't written, but holes keep
+   * their position, and edges stay in their original order: OdbEdge refers to them by their offset within the block.
+   * The format is the same for all adjacency layouts (see `NodeLayoutInformation.AdjacencyLayout`).
+   *
+   * @param adjacentNodeOrdinals only for the NODE_IDS and COLUMNAR adjacency layouts, `null` otherwise - they're
+   *                             resolved to node ids via the `graph`'s node table
+   */
+  private void packAdjacency(MessageBufferPacker packer,
+                             NodeLayoutInformation layoutInformation,
+                             int[] edgeOffsets,
+                             Object[] adjacentNodesWithProperties,
+                             OdbGraph graph,
+                             int[] adjacentNodeOrdinals,
+                             long[][] pairedSlots,
+                             int compactionEpoch,
+                             int[][] removedBlockOffsets) throws IOException {
+    final int blockCount = edgeOffsets.length / 2;
+    int totalLength = 0;
+    for (int offsetPosition = 0; offsetPosition < blockCount; offsetPosition++) {
+      totalLength += edgeOffsets[2 * offsetPosition + 1];
+    }
+    packer.packArrayHeader(blockCount);
+    packer.packInt(totalLength);
+
+    /* n.b. `packValue` reuses the same buffer, which is fine: each block's buffer is written before any values */
+    final VarIntBuffer buffer = varIntBuffers.get();
+    packCompaction(packer, buffer, compactionEpoch, removedBlockOffsets);
+    final int capacity = adjacentNodeOrdinals != null ? adjacentNodeOrdinals.length : adjacentNodesWithProperties.length;
+    for (int offsetPosition = 0; offsetPosition < blockCount; offsetPosition++) {
+      final int start = edgeOffsets[2 * offsetPosition];
+      final int length = edgeOffsets[2 * offsetPosition + 1];
+      final int strideSize = layoutInformation.indexStride(offsetPosition);
+      final int entryCount = length / strideSize;
+
+      int holeCount = 0;
+      for (int entry = 0; entry < entryCount; entry++) {
+        if (isHole(adjacentNodesWithProperties, adjacentNodeOrdinals, start + entry * strideSize)) holeCount++;
+      }
+
+      buffer.clear();
+      buffer.writeUnsigned(entryCount);
+      buffer.writeUnsigned(holeCount);
+      if (holeCount > 0) {
+        int previousHole = 0;
+        for (int entry = 0; entry < entryCount; entry++) {
+          if (isHole(adjacentNodesWithProperties, adjacentNodeOrdinals, start + entry * strideSize)) {
+            buffer.writeUnsigned(entry - previousHole);
+            previousHole = entry;
+          }
+        }
+      }
+      long previousId = 0;
+      for (int entry = 0; entry < entryCount; entry++) {
+        final int index = start + entry * strideSize;
+        if (!isHole(adjacentNodesWithProperties, adjacentNodeOrdinals, index)) {
+          final long id = adjacentNodeOrdinals != null
+              ? graph.nodeByOrdinal(adjacentNodeOrdinals[index]).id
+              : ((NodeRef) adjacentNodesWithProperties[index]).id;
+          buffer.writeUnsigned(VarIntBuffer.zigZag(id - previousId));
+          previousId = id;
+        }
+      }
+      final long[] blockPairedSlots = pairedSlots != null ? pairedSlots[offsetPosition] : null;
+      for (int entry = 0; entry < entryCount; entry++) {
+        final int index = start + entry * strideSize;
+        if (!isHole(adjacentNodesWithProperties, adjacentNodeOrdinals, index)) {
+          final long pairedSlot = blockPairedSlots != null && entry < blockPairedSlots.length
+              ? blockPairedSlots[entry] : OdbNode.UNPAIRED;
+          if (pairedSlot == OdbNode.UNPAIRED) {
+            buffer.writeUnsigned(0);
+          } else {
+            final int epoch = OdbNode.pairedSlotEpoch(pairedSlot);
+            buffer.writeUnsigned((OdbNode.pairedSlotBlockOffset(pairedSlot) + 1L) << 1 | (epoch != 0 ? 1 : 0));
+            if (epoch != 0) buffer.writeUnsigned(epoch);
+          }
+        }
+      }
+      packBinary(packer, buffer.array(), buffer.size());
+
+      for (int propertyIndex = 1; propertyIndex < layoutInformation.strideSize(offsetPosition); propertyIndex++) {
+        for (int entry = 0; entry < entryCount; entry++) {
+          final int index = start + entry * strideSize;
+          if (!isHole(adjacentNodesWithProperties, adjacentNodeOrdinals, index)) {
+            packValue(packer, adjacentNodesWithProperties[layoutInformation.edgePropertyIndex(index, propertyIndex, capacity)]);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * `compactionEpoch[bin: removedBlockOffsets]`: the bin (only if the epoch isn't 0) holds what the last compaction
+   * removed (see `OdbNode.rebaseBlockOffset`), per block: the number of removed holes, followed by their block offsets,
+   * each as the distance to the previous one. All numbers in `bin` are varints.
+   */
+  private void packCompaction(MessageBufferPacker packer,
+                              VarIntBuffer buffer,
+                              int compactionEpoch,
+                              int[][] removedBlockOffsets) throws IOException {
+    packer.packInt(compactionEpoch);
+    if (compactionEpoch != 0) {
+      buffer.clear();
+      for (int[] blockOffsets : removedBlockOffsets) {
+        if (blockOffsets == null) {
+          buffer.writeUnsigned(0);
+        } else {
+          buffer.writeUnsigned(blockOffsets.length);
+          int previous = 0;
+          for (int blockOffset : blockOffsets) {
+            buffer.writeUnsigned(blockOffset - previous);
+            previous = blockOffset;
+          }
+        }
+      }
+      packBinary(packer, buffer.array(), buffer.size());
+    }
+  }
+
+  private static boolean isHole(Object[] adjacentNodesWithProperties, int[] adjacentNodeOrdinals, int index) {
+    if (adjacentNodeOrdinals != null) {
+      return adjacentNodeOrdinals[index] == OdbNode.NO_ADJACENT_NODE;
+    } else {
+      return adjacentNodesWithProperties[index] == null;
+    }
+  }
+
+  /**
+   * msgpack can't differentiate between e.g. int and long, so we need to encode the type as well for some types - doing
+   * that with an array, i.e. format is either the plain value or `[ValueType.id, value]`.
+   * Primitive arrays are written in bulk, as binary:
+   * - int[] and long[]: the length, followed by the zig-zag encoded elements (all varints)
+   * - double[]: 8 bytes per element, big endian
+   * - byte[]: as is
+   */
+  private void packValue(final MessageBufferPacker packer, final Object value) throws IOException {
     if (value == null) {
-      packer.packByte(ValueTypes.UNKNOWN.id);
       packer.packNil();
-    } else if (value instanceof NodeRef) {
-      packer.packByte(ValueTypes.NODE_REF.id);
-      packer.packLong(((NodeRef) value).id);
     } else if (value instanceof Boolean) {
-      packer.packByte(ValueTypes.BOOLEAN.id);
       packer.packBoolean((Boolean) value);
     } else if (value instanceof String) {
-      packer.packByte(ValueTypes.STRING.id);
-      packer.packString((String) value);
-    } else if (value instanceof Byte) {
-      packer.packByte(ValueTypes.BYTE.id);
-      packer.packByte((byte) value);
-    } else if (value instanceof Short) {
-      packer.packByte(ValueTypes.SHORT.id);
-      packer.packShort((short) value);
+      packString(packer, (String) value);
     } else if (value instanceof Integer) {
-      packer.packByte(ValueTypes.INTEGER.id);
       packer.packInt((int) value);
-    } else if (value instanceof Long) {
-      packer.packByte(ValueTypes.LONG.id);
-      packer.packLong((long) value);
     } else if (value instanceof Float) {
-      packer.packByte(ValueTypes.FLOAT.id);
       packer.packFloat((float) value);
     } else if (value instanceof Double) {
-      packer.packByte(ValueTypes.DOUBLE.id);
-      packer.packFloat((float) value); //msgpack doesn't support double, but we still want to deserialize it as a double later
-    } else if (value instanceof List) {
-      packer.packByte(ValueTypes.LIST.id);
-      List listValue = (List) value;
-      packer.packArrayHeader(listValue.size());
-      final Iterator listIter = listValue.iterator();
-      while (listIter.hasNext()) {
-        packTypedValue(packer, listIter.next());
-      }
+      packer.packDouble((double) value);
     } else {
-      throw new NotImplementedException("id type `" + value.getClass() + "` not yet supported");
+      packer.packArrayHeader(2);
+      if (value instanceof NodeRef) {
+        packer.packByte(ValueTypes.NODE_REF.id);
+        packer.packLong(((NodeRef) value).id);
+      } else if (value instanceof Byte) {
+        packer.packByte(ValueTypes.BYTE.id);
+        packer.packByte((byte) value);
+      } else if (value instanceof Short) {
+        packer.packByte(ValueTypes.SHORT.id);
+        packer.packShort((short) value);
+      } else if (value instanceof Long) {
+        packer.packByte(ValueTypes.LONG.id);
+        packer.packLong((long) value);
+      } else if (value instanceof int[]) {
+        packer.packByte(ValueTypes.INT_ARRAY.id);
+        final int[] array = (int[]) value;
+        final VarIntBuffer buffer = varIntBuffers.get();
+        buffer.clear();
+        buffer.writeUnsigned(array.length);
+        for (int element : array) {
+          buffer.writeUnsigned(VarIntBuffer.zigZag(element));
+        }
+        packBinary(packer, buffer.array(), buffer.size());
+      } else if (value instanceof long[]) {
+        packer.packByte(ValueTypes.LONG_ARRAY.id);
+        final long[] array = (long[]) value;
+        final VarIntBuffer buffer = varIntBuffers.get();
+        buffer.clear();
+        buffer.writeUnsigned(array.length);
+        for (long element : array) {
+          buffer.writeUnsigned(VarIntBuffer.zigZag(element));
+        }
+        packBinary(packer, buffer.array(), buffer.size());
+      } else if (value instanceof double[]) {
+        packer.packByte(ValueTypes.DOUBLE_ARRAY.id);
+        final double[] array = (double[]) value;
+        final VarIntBuffer buffer = varIntBuffers.get();
+        buffer.clear();
+        for (double element : array) {
+          buffer.writeFixed64(Double.doubleToRawLongBits(element));
+        }
+        packBinary(packer, buffer.array(), buffer.size());
+      } else if (value instanceof byte[]) {
+        packer.packByte(ValueTypes.BYTE_ARRAY.id);
+        final byte[] array = (byte[]) value;
+        packBinary(packer, array, array.length);
+      } else if (value instanceof String[]) {
+        packer.packByte(ValueTypes.STRING_ARRAY.id);
+        final String[] array = (String[]) value;
+        packer.packArrayHeader(array.length);
+        for (String element : array) {
+          packValue(packer, element);
+        }
+      } else if (value instanceof List) {
+        packer.packByte(ValueTypes.LIST.id);
+        List listValue = (List) value;
+        packer.packArrayHeader(listValue.size());
+        final Iterator listIter = listValue.iterator();
+        while (listIter.hasNext()) {
+          packValue(packer, listIter.next());
+        }
+      } else {
+        throw new NotImplementedException("id type `" + value.getClass() + "` not yet supported");
+      }
     }
   }
 
+  private void packBinary(MessageBufferPacker packer, byte[] bytes, int length) throws IOException {
+    packer.packBinaryHeader(length);
+    packer.writePayload(bytes, 0, length);
+  }
+
 }
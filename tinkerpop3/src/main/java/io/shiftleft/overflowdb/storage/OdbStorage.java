@@ -1,110 +1,139 @@
 package io.shiftleft.overflowdb.storage;
 
+import io.shiftleft.overflowdb.OdbMetrics;
 import io.shiftleft.overflowdb.OdbNode;
 import org.apache.tinkerpop.gremlin.structure.Vertex;
-import org.h2.mvstore.MVMap;
-import org.h2.mvstore.MVStore;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
 
-public class OdbStorage implements AutoCloseable {
-  private final Logger logger = LoggerFactory.getLogger(getClass());
-  protected final NodeSerializer nodeSerializer = new NodeSerializer();
-  protected final Optional<NodeDeserializer> nodeDeserializer;
+/**
+ * Where nodes are written to when their references are cleared, and read from when they're accessed again.
+ * If a storage location is configured, the storage is also what the graph is saved to on close and restored from.
+ */
+public interface OdbStorage extends AutoCloseable {
 
-  private final File mvstoreFile;
-  private MVStore mvstore; // initialized in `getNodesMVMap`
-  private MVMap<Long, byte[]> nodesMVMap;
-  private boolean closed;
+  /**
+   * persist the given node, and commit
+   */
+  void persist(OdbNode node) throws IOException;
 
-  public static OdbStorage createWithTempFile(final NodeDeserializer nodeDeserializer) {
-    return new OdbStorage(Optional.empty(), Optional.ofNullable(nodeDeserializer));
-  }
+  /**
+   * persist the given nodes in one batch, and commit
+   */
+  void persistAll(Collection<? extends OdbNode> nodes) throws IOException;
 
   /**
-   * create with specific mvstore file - which may or may not yet exist.
-   * mvstoreFile won't be deleted at the end (unlike temp file constructors above)
+   * ensure everything persisted so far is durable
    */
-  public static OdbStorage createWithSpecificLocation(
-      final NodeDeserializer nodeDeserializer, final File mvstoreFile) {
-    return new OdbStorage(Optional.ofNullable(mvstoreFile), Optional.ofNullable(nodeDeserializer));
-  }
+  void commit();
 
   /**
-   * create with specific mvstore file - which may or may not yet exist.
-   * mvstoreFile won't be deleted at the end (unlike temp file constructors above)
+   * @return the deserialized node, or null if there is no node with the given id
    */
-  public static OdbStorage createWithSpecificLocation(final File mvstoreFile) {
-    return new OdbStorage(Optional.ofNullable(mvstoreFile), Optional.empty());
-  }
+  <A extends Vertex> A readNode(long id) throws IOException;
 
-  private OdbStorage(
-      final Optional<File> mvstoreFileMaybe,
-      final Optional<NodeDeserializer> nodeDeserializer) {
-    this.nodeDeserializer = nodeDeserializer;
-
-    if (mvstoreFileMaybe.isPresent()) {
-      mvstoreFile = mvstoreFileMaybe.get();
-    } else {
-      try {
-        mvstoreFile = File.createTempFile("mvstore", ".bin");
-        mvstoreFile.deleteOnExit();
-      } catch (IOException e) {
-        throw new RuntimeException("cannot create tmp file for mvstore", e);
-      }
+  /**
+   * reads the given nodes in one batch, in the order they're stored in (rather than the given order) if the storage
+   * implementation knows it
+   * @return the deserialized nodes, in the same order as `ids` - null for ids which aren't stored
+   */
+  default <A extends Vertex> List<A> readNodes(long[] ids) throws IOException {
+    final List<A> nodes = new ArrayList<>(ids.length);
+    for (long id : ids) {
+      nodes.add(readNode(id));
     }
-    logger.trace("storge file: " + mvstoreFile);
+    return nodes;
   }
 
-  public void persist(final OdbNode node) throws IOException {
-    if (!closed) {
-      final long id = node.ref.id;
-      getNodesMVMap().put(id, nodeSerializer.serialize(node));
-    }
-  }
+  void removeNode(Long id);
 
-  public <A extends Vertex> A readNode(final long id) throws IOException {
-    return (A) nodeDeserializer.get().deserialize(getNodesMVMap().get(id));
+  /**
+   * register the label of a stored node, so that the graph can be initialized without deserializing all nodes.
+   * only relevant for storage implementations which don't get the label with every node anyway
+   */
+  default void addToNodeCatalog(long id, String label) {
   }
 
-  @Override
-  public void close() {
-    closed = true;
-    logger.info("closing " + getClass().getSimpleName());
-    if (mvstore != null) mvstore.close();
+  /**
+   * whether `allNodeLabelsPartitioned` covers all stored nodes
+   */
+  default boolean hasCompleteNodeCatalog() {
+    return true;
   }
 
-  public File getStorageFile() {
-    return new File(mvstore.getFileStore().getFileName());
-  }
+  /**
+   * Like `allNodesPartitioned`, but only returns the node ids and labels.
+   */
+  List<Iterator<Map.Entry<Long, String>>> allNodeLabelsPartitioned(int partitionCount);
 
-  public void removeNode(final Long id) {
-    getNodesMVMap().remove(id);
-  }
+  /**
+   * Splits the stored nodes into `partitionCount` consecutive id ranges of (roughly) equal size, so that they can be
+   * processed in parallel.
+   */
+  List<Iterator<Map.Entry<Long, byte[]>>> allNodesPartitioned(int partitionCount);
 
-  public Set<Map.Entry<Long, byte[]>> allNodes() {
-    return getNodesMVMap().entrySet();
-  }
+  Iterator<Map.Entry<Long, byte[]>> allNodes();
 
-  public NodeSerializer getNodeSerializer() {
-    return nodeSerializer;
-  }
+  long nodeCount();
 
-  public MVMap<Long, byte[]> getNodesMVMap() {
-    if (mvstore == null) {
-      mvstore = new MVStore.Builder().fileName(mvstoreFile.getAbsolutePath()).open();
-      nodesMVMap = mvstore.openMap("nodes");
-    }
-    return nodesMVMap;
+  /**
+   * approximate number of bytes used by the stored nodes, including any overhead of the storage format
+   */
+  long sizeInBytes();
+
+  Optional<NodeDeserializer> getNodeDeserializer();
+
+  NodeSerializer getNodeSerializer();
+
+  /**
+   * where to record (de)serialization and storage access times - storage implementations which record the latter
+   * override this
+   */
+  default void setMetrics(OdbMetrics metrics) {
+    getNodeSerializer().setMetrics(metrics);
+    getNodeDeserializer().ifPresent(deserializer -> deserializer.setMetrics(metrics));
   }
 
-  public Optional<NodeDeserializer> getNodeDeserializer() {
-    return nodeDeserializer;
+  @Override
+  void close();
+
+  enum Type {
+    /** H2 MVStore: a single file */
+    MVSTORE,
+    /** memory mapped append-only segment files in a directory */
+    SEGMENT_LOG,
+    /** compressed byte arrays on the heap - doesn't support a storage location, useful for tests and benchmarks */
+    IN_MEMORY;
+
+    /**
+     * @param location file or directory (depending on the type) to save to and restore from. If empty, a temporary
+     *                 location is used which is deleted on exit.
+     */
+    public OdbStorage create(Optional<String> location, NodeDeserializer nodeDeserializer) {
+      switch (this) {
+        case MVSTORE:
+          return location.isPresent() ?
+              MVStoreStorage.createWithSpecificLocation(nodeDeserializer, new File(location.get())) :
+              MVStoreStorage.createWithTempFile(nodeDeserializer);
+        case SEGMENT_LOG:
+          return location.isPresent() ?
+              SegmentLogStorage.createWithSpecificLocation(nodeDeserializer, new File(location.get())) :
+              SegmentLogStorage.createWithTempDirectory(nodeDeserializer);
+        case IN_MEMORY:
+          if (location.isPresent()) {
+            throw new IllegalArgumentException("in-memory storage doesn't support a storage location, but got " + location.get());
+          }
+          return new InMemoryStorage(nodeDeserializer);
+        default:
+          throw new IllegalArgumentException("unknown storage type " + this);
+      }
+    }
   }
 }
@@ -0,0 +1,35 @@
+package io.shiftleft.overflowdb.storage;
+
+import io.shiftleft.overflowdb.OdbNode;
+
+import java.io.IOException;
+
+/**
+ * The sections of a serialized node which haven't been decoded yet, see `NodeDeserializer` in lazy mode.
+ * E.g. a traversal which only follows edges never decodes the properties of the nodes it passes - which saves the
+ * decoding time as well as the heap for (possibly big) property values.
+ *
+ * Keeps the serialized node until all of it's sections have been materialized. The node is responsible for
+ * materializing each section (only once) before accessing it.
+ */
+public class PendingSections {
+  private final NodeDeserializer deserializer;
+  private final byte[] bytes;
+  private final int propertiesOffset;
+  private final int adjacencyOffset;
+
+  PendingSections(NodeDeserializer deserializer, byte[] bytes, int propertiesOffset, int adjacencyOffset) {
+    this.deserializer = deserializer;
+    this.bytes = bytes;
+    this.propertiesOffset = propertiesOffset;
+    this.adjacencyOffset = adjacencyOffset;
+  }
+
+  public void materializeProperties(OdbNode node) throws IOException {
+    deserializer.materializeProperties(node, bytes, propertiesOffset);
+  }
+
+  public void materializeAdjacency(OdbNode node) throws IOException {
+    deserializer.materializeAdjacency(node, bytes, adjacencyOffset);
+  }
+}
@@ -0,0 +1,689 @@
+package io.shiftleft.overflowdb.storage;
+
+import gnu.trove.map.hash.TLongLongHashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import io.shiftleft.overflowdb.OdbMetrics;
+import io.shiftleft.overflowdb.OdbNode;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Alternative to the MVStore based OdbStorage, tailored to the overflow use case: an append-only log of serialized
+ * nodes, split into segment files which are memory mapped. There are no b-tree pages to maintain, and reading a node
+ * is a lookup in an in-memory index plus a slice of the mapped segment.
+ *
+ * Record layout: `[int length][long id][short labelLength][label (utf8)][serialized node]`, where `length` is the
+ * number of bytes following it. Removed nodes are recorded as tombstones: `[int -1][long id]`.
+ * Segment files are preallocated, a zero length marks the end of the written part.
+ *
+ * The index maps each node id to the location of its latest record (segment number and offset, packed into a long).
+ * It's rebuilt on startup by scanning all segments in order. Records which have been superseded (or removed) are dead
+ * bytes: segments with a high ratio of dead bytes are compacted in the background, i.e. their live records are
+ * appended to the current segment and the segment file is deleted.
+ */
+public class SegmentLogStorage implements OdbStorage {
+  public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+  /* compact a segment once at least this fraction of it is dead */
+  private static final double COMPACTION_THRESHOLD = 0.5;
+  private static final int TOMBSTONE = -1;
+  private static final int TOMBSTONE_SIZE = Integer.BYTES + Long.BYTES;
+  private static final long NO_LOCATION = -1L;
+  private static final String SEGMENT_FILE_PREFIX = "segment-";
+  private static final String SEGMENT_FILE_SUFFIX = ".log";
+
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+  protected final NodeSerializer nodeSerializer;
+  protected final Optional<NodeDeserializer> nodeDeserializer;
+
+  private final File directory;
+  private final boolean deleteOnClose;
+  private final int segmentSize;
+  private volatile OdbMetrics metrics = new OdbMetrics();
+
+  /* guards all of the below. written records are never modified, i.e. readers only need the lock to find them */
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+  private Segment currentSegment;
+  private final TLongLongHashMap locationById = new TLongLongHashMap(1024, 0.5f, -1L, NO_LOCATION);
+  private final TLongObjectHashMap<String> labelById = new TLongObjectHashMap<>();
+  /* so that all nodes with the same label share the same String instance */
+  private final Map<String, String> canonicalLabels = new HashMap<>();
+  private boolean closed;
+
+  private final ExecutorService compactionExecutor = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "overflowdb-segment-compaction");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  public static SegmentLogStorage createWithTempDirectory(final NodeDeserializer nodeDeserializer) {
+    try {
+      final File directory = Files.createTempDirectory("overflowdb-segments").toFile();
+      return new SegmentLogStorage(directory, true, DEFAULT_SEGMENT_SIZE, Optional.ofNullable(nodeDeserializer));
+    } catch (IOException e) {
+      throw new RuntimeException("cannot create tmp directory for segments", e);
+    }
+  }
+
+  /**
+   * create with specific directory - which may or may not yet exist.
+   * the directory won't be deleted at the end (unlike the temp directory constructor above)
+   */
+  public static SegmentLogStorage createWithSpecificLocation(final NodeDeserializer nodeDeserializer, final File directory) {
+    return createWithSpecificLocation(nodeDeserializer, directory, DEFAULT_SEGMENT_SIZE);
+  }
+
+  public static SegmentLogStorage createWithSpecificLocation(final NodeDeserializer nodeDeserializer, final File directory, final int segmentSize) {
+    return new SegmentLogStorage(directory, false, segmentSize, Optional.ofNullable(nodeDeserializer));
+  }
+
+  public static SegmentLogStorage createWithSpecificLocation(final File directory) {
+    return new SegmentLogStorage(directory, false, DEFAULT_SEGMENT_SIZE, Optional.empty());
+  }
+
+  private SegmentLogStorage(final File directory,
+                            final boolean deleteOnClose,
+                            final int segmentSize,
+                            final Optional<NodeDeserializer> nodeDeserializer) {
+    this.directory = directory;
+    this.deleteOnClose = deleteOnClose;
+    this.segmentSize = segmentSize;
+    this.nodeDeserializer = nodeDeserializer;
+    this.nodeSerializer = new NodeSerializer(this.nodeDeserializer.map(NodeDeserializer::labels).orElse(Collections.emptySet()));
+
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new RuntimeException("unable to create storage directory " + directory);
+    }
+    try {
+      openSegments();
+    } catch (IOException e) {
+      throw new RuntimeException("unable to open segments in " + directory, e);
+    }
+    logger.trace("storage directory: " + directory);
+  }
+
+  /**
+   * replays all existing segments in order, to rebuild the index
+   */
+  private void openSegments() throws IOException {
+    final File[] segmentFiles = directory.listFiles((dir, name) ->
+        name.startsWith(SEGMENT_FILE_PREFIX) && name.endsWith(SEGMENT_FILE_SUFFIX));
+    Arrays.sort(segmentFiles, Comparator.comparingInt(SegmentLogStorage::segmentNumber));
+    for (File segmentFile : segmentFiles) {
+      final Segment segment = new Segment(segmentNumber(segmentFile), segmentFile, (int) segmentFile.length());
+      segments.put(segment.number, segment);
+      scan(segment);
+      currentSegment = segment;
+    }
+    for (Segment segment : segments.values()) {
+      compactMaybe(segment);
+    }
+    if (!segments.isEmpty()) {
+      logger.info("opened " + segments.size() + " segments with " + locationById.size() + " nodes from " + directory);
+    }
+  }
+
+  private void scan(Segment segment) {
+    final ByteBuffer buffer = segment.buffer;
+    int offset = 0;
+    while (offset + TOMBSTONE_SIZE <= segment.capacity) {
+      final int length = buffer.getInt(offset);
+      if (length == 0) {
+        break;
+      }
+      final long id = buffer.getLong(offset + Integer.BYTES);
+      if (length == TOMBSTONE) {
+        markDead(locationById.remove(id));
+        labelById.remove(id);
+        segment.deadBytes += TOMBSTONE_SIZE;
+        offset += TOMBSTONE_SIZE;
+      } else if (length < Long.BYTES + Short.BYTES || offset + Integer.BYTES + length > segment.capacity) {
+        logger.warn("ignoring incomplete record at the end of " + segment.file + " (offset " + offset + ")");
+        break;
+      } else {
+        markDead(locationById.put(id, location(segment.number, offset)));
+        labelById.put(id, readLabel(buffer, offset));
+        offset += Integer.BYTES + length;
+      }
+    }
+    segment.writePosition = offset;
+  }
+
+  @Override
+  public void persist(final OdbNode node) throws IOException {
+    /* reset before serializing: should the node be modified concurrently, it'll be marked as modified again */
+    node.setModifiedSinceLastSerialization(false);
+    final byte[] serializedNode = nodeSerializer.serialize(node);
+    lock.writeLock().lock();
+    try {
+      if (!closed) {
+        append(node.ref.id, node.label(), serializedNode, 0, serializedNode.length);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+    commit();
+  }
+
+  /**
+   * Serializes the given nodes in parallel, appends them in one batch (ordered by id) and commits.
+   */
+  @Override
+  public void persistAll(final Collection<? extends OdbNode> nodes) throws IOException {
+    if (closed || nodes.isEmpty()) {
+      return;
+    }
+
+    final OdbNode[] sortedNodes = nodes.toArray(new OdbNode[0]);
+    Arrays.sort(sortedNodes, Comparator.comparingLong(node -> node.ref.id));
+    for (OdbNode node : sortedNodes) {
+      /* reset before serializing: should the node be modified concurrently, it'll be marked as modified again */
+      node.setModifiedSinceLastSerialization(false);
+    }
+    final byte[][] serializedNodes = nodeSerializer.serializeAll(sortedNodes);
+
+    lock.writeLock().lock();
+    try {
+      if (!closed) {
+        for (int i = 0; i < sortedNodes.length; i++) {
+          append(sortedNodes[i].ref.id, sortedNodes[i].label(), serializedNodes[i], 0, serializedNodes[i].length);
+        }
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+    commit();
+  }
+
+  /**
+   * forces all written segments to disk
+   */
+  @Override
+  public void commit() {
+    lock.writeLock().lock();
+    try {
+      if (!closed) {
+        final long start = System.nanoTime();
+        forceDirtySegments();
+        metrics.recordStorageCommit(System.nanoTime() - start);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public <A extends Vertex> A readNode(final long id) throws IOException {
+    final ByteBuffer record;
+    lock.readLock().lock();
+    try {
+      final long location = locationById.get(id);
+      if (closed || location == NO_LOCATION) {
+        return null;
+      }
+      record = payload(location);
+    } finally {
+      lock.readLock().unlock();
+    }
+    /* written records never change, and the mapping stays valid even if the segment gets compacted (and deleted)
+     * in the meantime, i.e. we don't need to hold the lock while deserializing */
+    return (A) nodeDeserializer.get().deserialize(record);
+  }
+
+  /**
+   * looks up all records first, and then deserializes them ordered by their location, i.e. reads the segments
+   * sequentially
+   */
+  @Override
+  public <A extends Vertex> List<A> readNodes(final long[] ids) throws IOException {
+    final long[] locations = new long[ids.length];
+    final ByteBuffer[] records = new ByteBuffer[ids.length];
+    lock.readLock().lock();
+    try {
+      for (int i = 0; i < ids.length && !closed; i++) {
+        locations[i] = locationById.get(ids[i]);
+        if (locations[i] != NO_LOCATION) {
+          records[i] = payload(locations[i]);
+        }
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    final Integer[] order = new Integer[ids.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, Comparator.comparingLong(i -> locations[i]));
+    final List<A> nodes = new ArrayList<>(Collections.nCopies(ids.length, (A) null));
+    for (int i : order) {
+      if (records[i] != null) {
+        nodes.set(i, (A) nodeDeserializer.get().deserialize(records[i]));
+      }
+    }
+    return nodes;
+  }
+
+  /* the serialized node of the record at the given location - must hold the lock */
+  private ByteBuffer payload(long location) {
+    final int offset = offset(location);
+    final ByteBuffer record = segments.get(segmentNumber(location)).buffer.duplicate();
+    final int payloadStart = payloadStart(record, offset);
+    record.limit(offset + Integer.BYTES + record.getInt(offset));
+    record.position(payloadStart);
+    return record.slice();
+  }
+
+  @Override
+  public void removeNode(final Long id) {
+    lock.writeLock().lock();
+    try {
+      if (!closed) {
+        final long location = locationById.remove(id);
+        if (location != NO_LOCATION) {
+          labelById.remove(id);
+          final Segment segment = ensureCapacity(TOMBSTONE_SIZE);
+          segment.buffer.putInt(segment.writePosition, TOMBSTONE);
+          segment.buffer.putLong(segment.writePosition + Integer.BYTES, id);
+          segment.writePosition += TOMBSTONE_SIZE;
+          segment.deadBytes += TOMBSTONE_SIZE;
+          segment.dirty = true;
+          compactMaybe(markDead(location));
+        }
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /* no need to maintain a node catalog: the label is part of every record */
+
+  @Override
+  public long nodeCount() {
+    lock.readLock().lock();
+    try {
+      return locationById.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public long sizeInBytes() {
+    lock.readLock().lock();
+    try {
+      long size = 0;
+      for (Segment segment : segments.values()) {
+        size += segment.writePosition;
+      }
+      return size;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  public int segmentCount() {
+    lock.readLock().lock();
+    try {
+      return segments.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Like `allNodesPartitioned`, but only returns the node ids and labels.
+   */
+  @Override
+  public List<Iterator<Map.Entry<Long, String>>> allNodeLabelsPartitioned(int partitionCount) {
+    final List<Iterator<Map.Entry<Long, String>>> partitions = new ArrayList<>();
+    for (long[] ids : partitionedIds(partitionCount)) {
+      partitions.add(new LazyEntryIterator<>(ids, this::label));
+    }
+    return partitions;
+  }
+
+  @Override
+  public Iterator<Map.Entry<Long, byte[]>> allNodes() {
+    return new LazyEntryIterator<>(partitionedIds(1).get(0), this::readBytes);
+  }
+
+  /**
+   * Splits the stored nodes into `partitionCount` consecutive id ranges of (roughly) equal size, so that they can be
+   * processed in parallel. The ids are taken from a snapshot of the index, the nodes are read lazily.
+   */
+  @Override
+  public List<Iterator<Map.Entry<Long, byte[]>>> allNodesPartitioned(int partitionCount) {
+    final List<Iterator<Map.Entry<Long, byte[]>>> partitions = new ArrayList<>();
+    for (long[] ids : partitionedIds(partitionCount)) {
+      partitions.add(new LazyEntryIterator<>(ids, this::readBytes));
+    }
+    return partitions;
+  }
+
+  private List<long[]> partitionedIds(int partitionCount) {
+    final long[] ids;
+    lock.readLock().lock();
+    try {
+      ids = locationById.keys();
+    } finally {
+      lock.readLock().unlock();
+    }
+    Arrays.sort(ids);
+    return LazyEntryIterator.partition(ids, partitionCount);
+  }
+
+  private String label(long id) {
+    lock.readLock().lock();
+    try {
+      return labelById.get(id);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private byte[] readBytes(long id) {
+    lock.readLock().lock();
+    try {
+      final long location = locationById.get(id);
+      if (location == NO_LOCATION) {
+        return null;
+      }
+      final ByteBuffer record = segments.get(segmentNumber(location)).buffer.duplicate();
+      final int offset = offset(location);
+      final int payloadStart = payloadStart(record, offset);
+      final byte[] bytes = new byte[offset + Integer.BYTES + record.getInt(offset) - payloadStart];
+      record.position(payloadStart);
+      record.get(bytes);
+      return bytes;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Compacts all segments (other than the current one) that exceed the dead bytes threshold, and blocks until done.
+   * Compaction normally happens automatically in the background.
+   */
+  public void compact() {
+    final List<Segment> candidates = new ArrayList<>();
+    lock.readLock().lock();
+    try {
+      for (Segment segment : segments.values()) {
+        if (segment != currentSegment && segment.exceedsCompactionThreshold()) {
+          candidates.add(segment);
+        }
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    candidates.forEach(this::compact);
+  }
+
+  @Override
+  public void close() {
+    compactionExecutor.shutdown();
+    try {
+      compactionExecutor.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    lock.writeLock().lock();
+    try {
+      if (closed) return;
+      closed = true;
+      logger.info("closing " + getClass().getSimpleName());
+      forceDirtySegments();
+      for (Segment segment : segments.values()) {
+        segment.close();
+        if (deleteOnClose) segment.file.delete();
+      }
+      if (deleteOnClose) directory.delete();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  public File getStorageDirectory() {
+    return directory;
+  }
+
+  @Override
+  public Optional<NodeDeserializer> getNodeDeserializer() {
+    return nodeDeserializer;
+  }
+
+  @Override
+  public NodeSerializer getNodeSerializer() {
+    return nodeSerializer;
+  }
+
+  @Override
+  public void setMetrics(OdbMetrics metrics) {
+    OdbStorage.super.setMetrics(metrics);
+    this.metrics = metrics;
+  }
+
+  /**
+   * must hold the write lock
+   */
+  private void append(long id, String label, byte[] bytes, int bytesOffset, int bytesLength) {
+    final byte[] labelBytes = label.getBytes(StandardCharsets.UTF_8);
+    final int length = Long.BYTES + Short.BYTES + labelBytes.length + bytesLength;
+    final Segment segment = ensureCapacity(Integer.BYTES + length);
+    final int offset = segment.writePosition;
+    final ByteBuffer buffer = segment.buffer.duplicate();
+    buffer.position(offset);
+    buffer.putInt(length);
+    buffer.putLong(id);
+    buffer.putShort((short) labelBytes.length);
+    buffer.put(labelBytes);
+    buffer.put(bytes, bytesOffset, bytesLength);
+    segment.writePosition = buffer.position();
+    segment.dirty = true;
+
+    labelById.put(id, canonicalLabels.computeIfAbsent(label, l -> l));
+    compactMaybe(markDead(locationById.put(id, location(segment.number, offset))));
+  }
+
+  /**
+   * must hold the write lock
+   * @return the segment with enough space for the given number of bytes at it's write position
+   */
+  private Segment ensureCapacity(int recordSize) {
+    if (currentSegment == null || currentSegment.writePosition + recordSize > currentSegment.capacity) {
+      final Segment previousSegment = currentSegment;
+      final int number = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+      final File file = new File(directory, String.format("%s%010d%s", SEGMENT_FILE_PREFIX, number, SEGMENT_FILE_SUFFIX));
+      try {
+        currentSegment = new Segment(number, file, Integer.max(segmentSize, recordSize));
+      } catch (IOException e) {
+        throw new RuntimeException("unable to create segment " + file, e);
+      }
+      segments.put(number, currentSegment);
+      if (previousSegment != null) {
+        compactMaybe(previousSegment);
+      }
+    }
+    return currentSegment;
+  }
+
+  /**
+   * must hold the write lock
+   * @return the segment the (now dead) record is in, or null if there was no record
+   */
+  private Segment markDead(long location) {
+    if (location == NO_LOCATION) {
+      return null;
+    }
+    final Segment segment = segments.get(segmentNumber(location));
+    segment.deadBytes += Integer.BYTES + segment.buffer.getInt(offset(location));
+    return segment;
+  }
+
+  /**
+   * must hold the write lock
+   */
+  private void compactMaybe(Segment segment) {
+    if (segment != null && segment != currentSegment && !segment.compactionScheduled && segment.exceedsCompactionThreshold()) {
+      segment.compactionScheduled = true;
+      compactionExecutor.execute(() -> compact(segment));
+    }
+  }
+
+  /**
+   * Appends the live records of the given segment to the current segment, and deletes it.
+   * Holds the write lock per record only, so that readers aren't blocked for long. Since the segment isn't the
+   * current one, nobody else writes to it in the meantime. Readers may still be deserializing from it when it's
+   * deleted, but the mapping remains valid until it's garbage collected.
+   */
+  private void compact(Segment segment) {
+    int offset = 0;
+    while (offset < segment.writePosition) {
+      lock.writeLock().lock();
+      try {
+        if (closed || !segments.containsKey(segment.number)) {
+          return;
+        }
+        final int length = segment.buffer.getInt(offset);
+        final long id = segment.buffer.getLong(offset + Integer.BYTES);
+        if (length == TOMBSTONE) {
+          /* the tombstone is still needed if the node may exist in one of the older segments */
+          if (!locationById.containsKey(id) && segments.firstKey() != segment.number) {
+            final Segment target = ensureCapacity(TOMBSTONE_SIZE);
+            target.buffer.putInt(target.writePosition, TOMBSTONE);
+            target.buffer.putLong(target.writePosition + Integer.BYTES, id);
+            target.writePosition += TOMBSTONE_SIZE;
+            target.deadBytes += TOMBSTONE_SIZE;
+            target.dirty = true;
+          }
+          offset += TOMBSTONE_SIZE;
+        } else {
+          if (locationById.get(id) == location(segment.number, offset)) {
+            final ByteBuffer record = segment.buffer.duplicate();
+            final int payloadStart = payloadStart(record, offset);
+            final byte[] bytes = new byte[offset + Integer.BYTES + length - payloadStart];
+            record.position(payloadStart);
+            record.get(bytes);
+            append(id, labelById.get(id), bytes, 0, bytes.length);
+          }
+          offset += Integer.BYTES + length;
+        }
+      } finally {
+        lock.writeLock().unlock();
+      }
+    }
+
+    lock.writeLock().lock();
+    try {
+      if (!closed && segments.remove(segment.number) != null) {
+        /* the live records must be on disk before the segment file is gone */
+        forceDirtySegments();
+        segment.close();
+        segment.file.delete();
+        logger.debug("compacted segment " + segment.file);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void forceDirtySegments() {
+    for (Segment segment : segments.values()) {
+      if (segment.dirty) {
+        segment.buffer.force();
+        segment.dirty = false;
+      }
+    }
+  }
+
+  private String readLabel(ByteBuffer buffer, int recordOffset) {
+    final int labelLength = buffer.getShort(recordOffset + Integer.BYTES + Long.BYTES);
+    final byte[] labelBytes = new byte[labelLength];
+    final ByteBuffer labelBuffer = buffer.duplicate();
+    labelBuffer.position(recordOffset + Integer.BYTES + Long.BYTES + Short.BYTES);
+    labelBuffer.get(labelBytes);
+    return canonicalLabels.computeIfAbsent(new String(labelBytes, StandardCharsets.UTF_8), l -> l);
+  }
+
+  private static int payloadStart(ByteBuffer buffer, int recordOffset) {
+    final int labelLength = buffer.getShort(recordOffset + Integer.BYTES + Long.BYTES);
+    return recordOffset + Integer.BYTES + Long.BYTES + Short.BYTES + labelLength;
+  }
+
+  private static long location(int segmentNumber, int offset) {
+    return ((long) segmentNumber << 32) | (offset & 0xFFFFFFFFL);
+  }
+
+  private static int segmentNumber(long location) {
+    return (int) (location >>> 32);
+  }
+
+  private static int offset(long location) {
+    return (int) location;
+  }
+
+  private static int segmentNumber(File segmentFile) {
+    final String name = segmentFile.getName();
+    return Integer.parseInt(name.substring(SEGMENT_FILE_PREFIX.length(), name.length() - SEGMENT_FILE_SUFFIX.length()));
+  }
+
+  private static class Segment {
+    private final int number;
+    private final File file;
+    private final int capacity;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private int writePosition;
+    private long deadBytes;
+    private boolean dirty;
+    private boolean compactionScheduled;
+
+    Segment(int number, File file, int capacity) throws IOException {
+      this.number = number;
+      this.file = file;
+      this.capacity = capacity;
+      this.channel = new RandomAccessFile(file, "rw").getChannel();
+      /* maps (and if necessary extends) the file */
+      this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    boolean exceedsCompactionThreshold() {
+      return writePosition > 0 && deadBytes >= writePosition * COMPACTION_THRESHOLD;
+    }
+
+    void close() {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        throw new RuntimeException("unable to close segment " + file, e);
+      }
+    }
+  }
+}
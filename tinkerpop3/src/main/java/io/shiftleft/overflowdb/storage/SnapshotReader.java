@@ -0,0 +1,215 @@
+package io.shiftleft.overflowdb.storage;
+
+import gnu.trove.map.TLongLongMap;
+import gnu.trove.map.hash.TLongLongHashMap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Reads a snapshot written by `SnapshotWriter`: verifies it's checksum (optional), reads the section indexes and memory
+ * maps the node sections. The nodes can then be deserialized in any order and in parallel, straight from the mapped
+ * file. Opening a snapshot doesn't touch the sections, unless the checksum is verified.
+ */
+public class SnapshotReader implements AutoCloseable {
+  /* the checksum is computed in chunks of this size, to keep the mappings small */
+  private static final int CHECKSUM_CHUNK_SIZE = 64 * 1024 * 1024;
+  private static final long NO_LOCATION = -1;
+
+  private final Path path;
+  private final FileChannel channel;
+  private final long currentId;
+  private final List<Section> sections;
+  /* id -> section index (upper 32 bits) and index within the section (lower 32 bits) */
+  private final TLongLongMap locationById;
+
+  public static SnapshotReader open(Path path) throws IOException {
+    return open(path, true);
+  }
+
+  /**
+   * @param verifyChecksum verify the checksum of the whole file before reading anything - that means reading the
+   *                       entire file, which defeats the purpose of loading the nodes lazily
+   */
+  public static SnapshotReader open(Path path, boolean verifyChecksum) throws IOException {
+    final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      return new SnapshotReader(path, channel, verifyChecksum);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  private SnapshotReader(Path path, FileChannel channel, boolean verifyChecksum) throws IOException {
+    this.path = path;
+    this.channel = channel;
+    final long size = channel.size();
+    if (size < SnapshotWriter.HEADER_SIZE + SnapshotWriter.TRAILER_SIZE) {
+      throw new IOException(path + " is not a snapshot: too small");
+    }
+
+    final ByteBuffer trailer = read(size - SnapshotWriter.TRAILER_SIZE, SnapshotWriter.TRAILER_SIZE);
+    final long labelTablePosition = trailer.getLong();
+    final long expectedChecksum = trailer.getLong();
+    if (trailer.getLong() != SnapshotWriter.MAGIC) {
+      throw new IOException(path + " is not a snapshot, or hasn't been written completely");
+    }
+    if (verifyChecksum) {
+      final long checksum = checksum(size - 2 * Long.BYTES);
+      if (checksum != expectedChecksum) {
+        throw new IOException("snapshot " + path + " is corrupt: checksum is " + checksum + ", expected " + expectedChecksum);
+      }
+    }
+
+    final ByteBuffer header = read(0, SnapshotWriter.HEADER_SIZE);
+    if (header.getLong() != SnapshotWriter.MAGIC) {
+      throw new IOException(path + " is not a snapshot");
+    }
+    final int version = header.getInt();
+    if (version != SnapshotWriter.VERSION) {
+      throw new IOException("unsupported snapshot version " + version + " - only know " + SnapshotWriter.VERSION);
+    }
+    currentId = header.getLong();
+
+    if (labelTablePosition < SnapshotWriter.HEADER_SIZE || labelTablePosition > size - SnapshotWriter.TRAILER_SIZE) {
+      throw new IOException("snapshot " + path + " is corrupt: invalid label table position " + labelTablePosition);
+    }
+    final ByteBuffer labelTable = read(labelTablePosition, (int) (size - SnapshotWriter.TRAILER_SIZE - labelTablePosition));
+    final int sectionCount = labelTable.getInt();
+    final List<Section> sections = new ArrayList<>(sectionCount);
+    long nodeCount = 0;
+    for (int i = 0; i < sectionCount; i++) {
+      final byte[] label = new byte[labelTable.getInt()];
+      labelTable.get(label);
+      final long sectionNodeCount = labelTable.getLong();
+      final long position = labelTable.getLong();
+      final long length = labelTable.getLong();
+      final long indexPosition = labelTable.getLong();
+      final long indexLength = sectionNodeCount * SnapshotWriter.INDEX_ENTRY_SIZE;
+      /* SnapshotWriter never writes bigger sections, see MAX_SECTION_SIZE */
+      if (length > SnapshotWriter.MAX_SECTION_SIZE
+          || sectionNodeCount < 0 || sectionNodeCount * SnapshotWriter.RECORD_HEADER_SIZE > length
+          || position < SnapshotWriter.HEADER_SIZE || position + length > indexPosition
+          || indexPosition + indexLength > labelTablePosition) {
+        throw new IOException("snapshot " + path + " is corrupt: invalid section " + new String(label, StandardCharsets.UTF_8));
+      }
+      final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+      final MappedByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, indexPosition, indexLength);
+      sections.add(new Section(new String(label, StandardCharsets.UTF_8), buffer, index, (int) sectionNodeCount));
+      nodeCount += sectionNodeCount;
+    }
+    this.sections = Collections.unmodifiableList(sections);
+
+    locationById = new TLongLongHashMap((int) Long.min(nodeCount, Integer.MAX_VALUE), 0.5f, NO_LOCATION, NO_LOCATION);
+    for (int sectionIndex = 0; sectionIndex < sections.size(); sectionIndex++) {
+      final long[] ids = sections.get(sectionIndex).ids;
+      for (int i = 0; i < ids.length; i++) {
+        locationById.put(ids[i], ((long) sectionIndex << 32) | i);
+      }
+    }
+  }
+
+  private ByteBuffer read(long position, int length) throws IOException {
+    final ByteBuffer buffer = ByteBuffer.allocate(length);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("unexpected end of snapshot " + path);
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  private long checksum(long length) throws IOException {
+    final CRC32 checksum = new CRC32();
+    for (long position = 0; position < length; position += CHECKSUM_CHUNK_SIZE) {
+      checksum.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Long.min(CHECKSUM_CHUNK_SIZE, length - position)));
+    }
+    return checksum.getValue();
+  }
+
+  /** the id of the last node when the snapshot was written */
+  public long currentId() {
+    return currentId;
+  }
+
+  public List<Section> sections() {
+    return sections;
+  }
+
+  /**
+   * @return the serialized node with the given id, or null if it's not in the snapshot
+   */
+  public ByteBuffer readNode(long id) {
+    final long location = locationById.get(id);
+    if (location == NO_LOCATION) {
+      return null;
+    }
+    return sections.get((int) (location >>> 32)).node((int) location);
+  }
+
+  /**
+   * only closes the file - the mappings stay valid until they're garbage collected
+   */
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  /**
+   * all nodes of one label
+   */
+  public static class Section {
+    public final String label;
+    private final MappedByteBuffer buffer;
+    private final long[] ids;
+    private final int[] offsets;
+
+    /**
+     * @param index the section's ids, followed by the node offsets within the section
+     */
+    private Section(String label, MappedByteBuffer buffer, MappedByteBuffer index, int nodeCount) throws IOException {
+      this.label = label;
+      this.buffer = buffer;
+      this.ids = new long[nodeCount];
+      this.offsets = new int[nodeCount];
+      index.asLongBuffer().get(ids);
+      index.position(nodeCount * Long.BYTES);
+      index.asIntBuffer().get(offsets);
+      for (int i = 0; i < nodeCount; i++) {
+        if (offsets[i] < 0 || offsets[i] > buffer.limit() - SnapshotWriter.RECORD_HEADER_SIZE) {
+          throw new IOException("section " + label + " is corrupt: invalid offset " + offsets[i] + " for node " + ids[i]);
+        }
+      }
+    }
+
+    public int nodeCount() {
+      return ids.length;
+    }
+
+    public long id(int index) {
+      return ids[index];
+    }
+
+    /**
+     * @return the serialized node at the given index, as a view into the mapped file - safe for concurrent use
+     */
+    public ByteBuffer node(int index) {
+      final int offset = offsets[index];
+      final ByteBuffer node = buffer.duplicate();
+      node.position(offset + SnapshotWriter.RECORD_HEADER_SIZE);
+      node.limit(offset + SnapshotWriter.RECORD_HEADER_SIZE + buffer.getInt(offset + Long.BYTES));
+      return node.slice();
+    }
+  }
+}
@@ -0,0 +1,205 @@
+package io.shiftleft.overflowdb.storage;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Writes a whole graph into a single file, sequentially and in large buffers, see `OdbGraph.saveSnapshot`.
+ *
+ * Format: `[header][sections][section indexes][label table][trailer]`
+ * - header: MAGIC, VERSION, the graph's current id (for assigning new ids after loading)
+ * - sections: a sequence of `[id][length][serialized node]`, all with the same label. Each section is memory mapped on
+ *   it's own, i.e. it can't be bigger than `MAX_SECTION_SIZE` - the nodes of a label are split into several sections
+ *   if necessary
+ * - section indexes: for each section, the ids of all it's nodes followed by their offsets within the section. That's
+ *   all the reader needs to find a node, i.e. it doesn't have to scan the sections
+ * - label table: number of sections, and for each section it's label, node count, position, length and index position
+ * - trailer: position of the label table, CRC32 of everything before the checksum, MAGIC
+ * All numbers are big endian. Nodes are written by NodeSerializer, without a string dictionary - i.e. a snapshot is
+ * self-contained.
+ */
+public class SnapshotWriter implements AutoCloseable {
+  public static final long MAGIC = 0x4F4442534E415031L; // "ODBSNAP1"
+  public static final int VERSION = 2;
+  public static final int MAX_SECTION_SIZE = Integer.MAX_VALUE;
+  static final int HEADER_SIZE = Long.BYTES + Integer.BYTES + Long.BYTES;
+  static final int TRAILER_SIZE = 3 * Long.BYTES;
+  static final int RECORD_HEADER_SIZE = Long.BYTES + Integer.BYTES;
+  /* id and offset */
+  static final int INDEX_ENTRY_SIZE = Long.BYTES + Integer.BYTES;
+  private static final int BUFFER_SIZE = 4 * 1024 * 1024;
+
+  private final FileChannel channel;
+  private final int maxSectionSize;
+  private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+  private final CRC32 checksum = new CRC32();
+  private final List<SectionInfo> sections = new ArrayList<>();
+  /* position in the file that the buffer starts at */
+  private long flushedBytes = 0;
+  private SectionInfo currentSection;
+
+  public SnapshotWriter(Path path, long currentId) throws IOException {
+    this(path, currentId, MAX_SECTION_SIZE);
+  }
+
+  /**
+   * @param maxSectionSize start a new section (with the same label) rather than growing the current one beyond this
+   */
+  SnapshotWriter(Path path, long currentId, int maxSectionSize) throws IOException {
+    this.maxSectionSize = maxSectionSize;
+    channel = FileChannel.open(path,
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    buffer.putLong(MAGIC);
+    buffer.putInt(VERSION);
+    buffer.putLong(currentId);
+  }
+
+  public void beginSection(String label) {
+    if (currentSection != null) {
+      throw new IllegalStateException("section " + currentSection.label + " hasn't been ended");
+    }
+    currentSection = new SectionInfo(label, position());
+  }
+
+  public void writeNode(long id, byte[] serializedNode) throws IOException {
+    if (currentSection == null) {
+      throw new IllegalStateException("no section has been started");
+    }
+    final long recordSize = RECORD_HEADER_SIZE + (long) serializedNode.length;
+    if (recordSize > maxSectionSize) {
+      throw new IOException("node " + id + " is too big for a snapshot: " + serializedNode.length + " bytes");
+    }
+    if (position() + recordSize - currentSection.position > maxSectionSize) {
+      final String label = currentSection.label;
+      endSection();
+      beginSection(label);
+    }
+    currentSection.ids.add(id);
+    currentSection.offsets.add((int) (position() - currentSection.position));
+    ensureRemaining(RECORD_HEADER_SIZE);
+    buffer.putLong(id);
+    buffer.putInt(serializedNode.length);
+    write(serializedNode);
+  }
+
+  public void endSection() {
+    currentSection.length = position() - currentSection.position;
+    if (!currentSection.ids.isEmpty()) {
+      sections.add(currentSection);
+    }
+    currentSection = null;
+  }
+
+  /** the number of sections so far, including the current one */
+  int sectionCount() {
+    return sections.size() + (currentSection != null ? 1 : 0);
+  }
+
+  private void write(byte[] bytes) throws IOException {
+    if (bytes.length > buffer.capacity()) {
+      flush();
+      checksum.update(bytes, 0, bytes.length);
+      writeFully(ByteBuffer.wrap(bytes));
+      flushedBytes += bytes.length;
+    } else {
+      ensureRemaining(bytes.length);
+      buffer.put(bytes);
+    }
+  }
+
+  private long position() {
+    return flushedBytes + buffer.position();
+  }
+
+  private void ensureRemaining(int length) throws IOException {
+    if (buffer.remaining() < length) {
+      flush();
+    }
+  }
+
+  private void flush() throws IOException {
+    checksum.update(buffer.array(), 0, buffer.position());
+    buffer.flip();
+    flushedBytes += buffer.remaining();
+    writeFully(buffer);
+    buffer.clear();
+  }
+
+  private void writeFully(ByteBuffer bytes) throws IOException {
+    while (bytes.hasRemaining()) {
+      channel.write(bytes);
+    }
+  }
+
+  /**
+   * writes the section indexes, label table and trailer, and closes the file
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      if (currentSection != null) {
+        endSection();
+      }
+      for (SectionInfo section : sections) {
+        section.indexPosition = position();
+        for (int i = 0; i < section.ids.size(); i++) {
+          ensureRemaining(Long.BYTES);
+          buffer.putLong(section.ids.getQuick(i));
+        }
+        for (int i = 0; i < section.offsets.size(); i++) {
+          ensureRemaining(Integer.BYTES);
+          buffer.putInt(section.offsets.getQuick(i));
+        }
+      }
+      final long labelTablePosition = position();
+      ensureRemaining(Integer.BYTES);
+      buffer.putInt(sections.size());
+      for (SectionInfo section : sections) {
+        final byte[] label = section.label.getBytes(StandardCharsets.UTF_8);
+        ensureRemaining(Integer.BYTES);
+        buffer.putInt(label.length);
+        write(label);
+        ensureRemaining(4 * Long.BYTES);
+        buffer.putLong(section.ids.size());
+        buffer.putLong(section.position);
+        buffer.putLong(section.length);
+        buffer.putLong(section.indexPosition);
+      }
+      ensureRemaining(Long.BYTES);
+      buffer.putLong(labelTablePosition);
+      flush();
+      buffer.putLong(checksum.getValue());
+      buffer.putLong(MAGIC);
+      buffer.flip();
+      writeFully(buffer);
+      channel.force(false);
+    } finally {
+      channel.close();
+    }
+  }
+
+  private static class SectionInfo {
+    private final String label;
+    private final long position;
+    private long length;
+    private final TLongArrayList ids = new TLongArrayList();
+    /* relative to the section's position */
+    private final TIntArrayList offsets = new TIntArrayList();
+    private long indexPosition;
+
+    SectionInfo(String label, long position) {
+      this.label = label;
+      this.position = position;
+    }
+  }
+}
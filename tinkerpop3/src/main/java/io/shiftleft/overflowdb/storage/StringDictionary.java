@@ -0,0 +1,159 @@
+package io.shiftleft.overflowdb.storage;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns ids to strings, so that the serializer can write the id instead of the string itself. The same strings
+ * (e.g. type names, file names) usually occur in many nodes. When deserializing, all nodes get the same (canonical)
+ * String instance for a given id, i.e. the strings are also deduplicated on the heap.
+ *
+ * Ids are assigned in ascending order and never reused. The dictionary only grows - strings which aren't used by any
+ * node any more (e.g. because it's been removed) are kept. That's why unique strings (e.g. names, hashes) must not get
+ * in: they would stay on the heap forever, even after their nodes have overflowed to disk. A string is therefore only
+ * admitted once it's been seen `admissionThreshold` times, and the dictionary doesn't grow beyond `maxSize` strings.
+ * Strings without an id are written as they are.
+ * A storage which is persisted needs to persist the dictionary as well, see `attach`.
+ */
+public class StringDictionary {
+  /* longer strings are unlikely to be repeated, and would only bloat the dictionary */
+  public static final int MAX_STRING_LENGTH = 256;
+  public static final int DEFAULT_ADMISSION_THRESHOLD = 3;
+  public static final int DEFAULT_MAX_SIZE = 1 << 20;
+
+  /* Approximate number of sightings of strings which haven't been admitted yet: a count-min sketch with two rows of
+   * (saturating) counters, indexed by two hashes of the string. It has a fixed size, no matter how many different
+   * strings we see. Collisions can only make a string be admitted early. To keep them rare, all counters are halved
+   * regularly, which also forgets strings that have been seen a few times long ago. */
+  private static final int SIGHTINGS_ROW_SIZE = 1 << 16;
+  private static final int SIGHTINGS_AGING_INTERVAL = SIGHTINGS_ROW_SIZE / 4;
+  private final byte[] sightings = new byte[2 * SIGHTINGS_ROW_SIZE];
+  private int sightingsSinceAging = 0;
+
+  private final int admissionThreshold;
+  private final int maxSize;
+  private final Map<String, Integer> idByString = new ConcurrentHashMap<>();
+  /* only replaced (never modified) for ids which have been handed out, i.e. readers don't need to synchronize */
+  private volatile String[] stringById = new String[1024];
+  private int size = 0;
+  private Map<Integer, String> persistentStrings;
+
+  public StringDictionary() {
+    this(DEFAULT_ADMISSION_THRESHOLD, DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * @param admissionThreshold how often a string needs to be seen before it gets an id (at most 127)
+   * @param maxSize            maximum number of strings in the dictionary
+   */
+  public StringDictionary(int admissionThreshold, int maxSize) {
+    if (admissionThreshold < 1 || admissionThreshold > Byte.MAX_VALUE) {
+      throw new IllegalArgumentException("admissionThreshold must be between 1 and " + Byte.MAX_VALUE + ", but was " + admissionThreshold);
+    }
+    this.admissionThreshold = admissionThreshold;
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * @return the id for the given string - assigns a new one if it's not in the dictionary yet, but has been seen often
+   *         enough. -1 if the string doesn't have an id (yet), i.e. it needs to be written as it is
+   */
+  public int idFor(String string) {
+    final Integer id = idByString.get(string);
+    if (id != null) {
+      return id;
+    } else if (string.length() > MAX_STRING_LENGTH) {
+      return -1;
+    } else {
+      return add(string);
+    }
+  }
+
+  private synchronized int add(String string) {
+    final Integer existingId = idByString.get(string);
+    if (existingId != null) {
+      return existingId;
+    } else if (size >= maxSize || !admit(string)) {
+      return -1;
+    }
+    final int id = size;
+    if (persistentStrings != null) {
+      persistentStrings.put(id, string);
+    }
+    append(string);
+    return id;
+  }
+
+  /**
+   * records a sighting of the given string (to be called while holding the lock)
+   * @return true if it's been seen `admissionThreshold` times
+   */
+  private boolean admit(String string) {
+    final int hash = string.hashCode();
+    final int index1 = hash & (SIGHTINGS_ROW_SIZE - 1);
+    final int index2 = SIGHTINGS_ROW_SIZE + ((hash * 0x9E3779B9) >>> 16);
+    final int count = Integer.min(sightings[index1], sightings[index2]) + 1;
+    if (count >= admissionThreshold) {
+      return true;
+    }
+    sightings[index1] = (byte) Integer.max(sightings[index1], count);
+    sightings[index2] = (byte) Integer.max(sightings[index2], count);
+    if (++sightingsSinceAging == SIGHTINGS_AGING_INTERVAL) {
+      for (int i = 0; i < sightings.length; i++) {
+        sightings[i] >>= 1;
+      }
+      sightingsSinceAging = 0;
+    }
+    return false;
+  }
+
+  /* to be called while holding the lock */
+  private void append(String string) {
+    String[] strings = stringById;
+    if (size == strings.length) {
+      strings = Arrays.copyOf(strings, strings.length * 2);
+    }
+    strings[size] = string;
+    /* publish the string before handing out it's id */
+    stringById = strings;
+    idByString.put(string, size);
+    size++;
+  }
+
+  /**
+   * @return the canonical instance of the string with the given id, or null if there is none
+   */
+  public String lookup(int id) {
+    final String[] strings = stringById;
+    return id >= 0 && id < strings.length ? strings[id] : null;
+  }
+
+  /**
+   * Keep the dictionary in the given map from now on, e.g. a map of the underlying store. Strings which are already in
+   * the map (from an earlier session) are loaded. Strings which have been added before attaching are written to the map.
+   */
+  public synchronized void attach(Map<Integer, String> persistentStrings) {
+    if (!persistentStrings.isEmpty()) {
+      if (size > 0) {
+        throw new IllegalStateException("cannot attach to a non-empty map: " + size + " strings have already been assigned");
+      }
+      final String[] strings = new String[persistentStrings.size()];
+      for (Map.Entry<Integer, String> idAndString : persistentStrings.entrySet()) {
+        strings[idAndString.getKey()] = idAndString.getValue();
+      }
+      for (String string : strings) {
+        append(string);
+      }
+    } else {
+      for (int id = 0; id < size; id++) {
+        persistentStrings.put(id, stringById[id]);
+      }
+    }
+    this.persistentStrings = persistentStrings;
+  }
+
+  public synchronized int size() {
+    return size;
+  }
+}
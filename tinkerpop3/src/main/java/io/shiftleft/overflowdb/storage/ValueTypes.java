@@ -15,7 +15,13 @@ public enum ValueTypes {
   DOUBLE((byte) 7),
   LIST((byte) 8),
   NODE_REF((byte) 9),
-  UNKNOWN((byte) 10);
+  UNKNOWN((byte) 10),
+  /* primitive arrays, encoded in bulk rather than element by element (see NodeSerializer) */
+  INT_ARRAY((byte) 11),
+  LONG_ARRAY((byte) 12),
+  DOUBLE_ARRAY((byte) 13),
+  BYTE_ARRAY((byte) 14),
+  STRING_ARRAY((byte) 15);
 
   public final byte id;
 
@@ -47,6 +53,16 @@ public enum ValueTypes {
         return NODE_REF;
       case 10:
         return UNKNOWN;
+      case 11:
+        return INT_ARRAY;
+      case 12:
+        return LONG_ARRAY;
+      case 13:
+        return DOUBLE_ARRAY;
+      case 14:
+        return BYTE_ARRAY;
+      case 15:
+        return STRING_ARRAY;
       default:
         throw new IllegalArgumentException("unknown id type " + id);
     }
@@ -0,0 +1,116 @@
+package io.shiftleft.overflowdb.storage;
+
+import org.msgpack.core.MessageUnpacker;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer for variable length integers (7 bits per byte, least significant group first, like protobuf).
+ * Signed values should be zig-zag encoded first, so that small negative values are short as well.
+ * Values which don't benefit from that (e.g. doubles) can be written with a fixed size.
+ */
+class VarIntBuffer {
+  private byte[] bytes;
+  /* write position when writing, read position when reading */
+  private int position;
+  private int limit;
+
+  /** for writing */
+  VarIntBuffer(int initialCapacity) {
+    this.bytes = new byte[initialCapacity];
+    this.limit = Integer.MAX_VALUE;
+  }
+
+  /** for reading */
+  VarIntBuffer(byte[] bytes) {
+    this.bytes = bytes;
+    this.limit = bytes.length;
+  }
+
+  /**
+   * reuse this buffer for reading the next `length` bytes of the given unpacker
+   */
+  void readFrom(MessageUnpacker unpacker, int length) throws IOException {
+    if (bytes.length < length) {
+      bytes = new byte[Integer.max(length, bytes.length * 2)];
+    }
+    unpacker.readPayload(bytes, 0, length);
+    position = 0;
+    limit = length;
+  }
+
+  void writeUnsigned(long value) {
+    if (position + 10 > bytes.length) {
+      bytes = Arrays.copyOf(bytes, Integer.max(bytes.length * 2, position + 10));
+    }
+    while ((value & ~0x7FL) != 0) {
+      bytes[position++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    bytes[position++] = (byte) value;
+  }
+
+  long readUnsigned() throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      if (position >= limit) {
+        throw new IOException("truncated varint");
+      }
+      final byte b = bytes[position++];
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("malformed varint");
+  }
+
+  /** 8 bytes, big endian - e.g. for the raw bits of a double */
+  void writeFixed64(long value) {
+    if (position + Long.BYTES > bytes.length) {
+      bytes = Arrays.copyOf(bytes, Integer.max(bytes.length * 2, position + Long.BYTES));
+    }
+    for (int shift = 56; shift >= 0; shift -= 8) {
+      bytes[position++] = (byte) (value >>> shift);
+    }
+  }
+
+  long readFixed64() throws IOException {
+    if (position + Long.BYTES > limit) {
+      throw new IOException("truncated fixed64");
+    }
+    long value = 0;
+    for (int i = 0; i < Long.BYTES; i++) {
+      value = (value << 8) | (bytes[position++] & 0xFF);
+    }
+    return value;
+  }
+
+  static long zigZag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  static long unZigZag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  /** the underlying array - only the first `size()` bytes are written */
+  byte[] array() {
+    return bytes;
+  }
+
+  int size() {
+    return position;
+  }
+
+  /** number of bytes left for reading */
+  int remaining() {
+    return limit - position;
+  }
+
+  void clear() {
+    position = 0;
+    limit = Integer.MAX_VALUE;
+  }
+}
@@ -1,6 +1,7 @@
 package io.shiftleft.overflowdb.util;
 
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 public class ArrayOffsetIterator<T> implements Iterator<T> {
   private final Object[] array;
@@ -17,11 +18,17 @@ public class ArrayOffsetIterator<T> implements Iterator<T> {
 
   @Override
   public boolean hasNext() {
+    /* there may be holes, e.g. if an edge was removed */
+    while (current < exclusiveEnd && array[current] == null) {
+      current += strideSize;
+    }
     return current < exclusiveEnd;
   }
 
   @Override
   public T next() {
+    if (!hasNext()) throw new NoSuchElementException();
+
     T element = (T) array[current];
     current += strideSize;
     return element;
@@ -0,0 +1,33 @@
+package io.shiftleft.overflowdb.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns dense ordinals (0, 1, 2...) to strings, e.g. edge labels, so that hot paths can use flat arrays indexed by
+ * ordinal rather than hash maps keyed by string.
+ * n.b. the ordinals depend on the registration order, i.e. they're only stable within the JVM: don't persist them
+ */
+public final class StringOrdinals {
+  private final ConcurrentHashMap<String, Integer> ordinals = new ConcurrentHashMap<>();
+  private int next = 0;
+
+  /**
+   * @return the ordinal of the given string, which is assigned if it hasn't been registered before
+   */
+  public synchronized int register(String string) {
+    final Integer ordinal = ordinals.get(string);
+    if (ordinal != null) {
+      return ordinal;
+    }
+    ordinals.put(string, next);
+    return next++;
+  }
+
+  /**
+   * @return the ordinal of the given string, or -1 if it has never been registered
+   */
+  public int ordinalOf(String string) {
+    final Integer ordinal = ordinals.get(string);
+    return ordinal == null ? -1 : ordinal;
+  }
+}
@@ -2,16 +2,21 @@ package io.shiftleft.overflowdb;
 
 import io.shiftleft.overflowdb.OdbGraph;
 import io.shiftleft.overflowdb.testdomains.gratefuldead.GratefulDead;
+import io.shiftleft.overflowdb.testdomains.simple.SimpleDomain;
+import io.shiftleft.overflowdb.testdomains.simple.TestNode;
 import org.apache.tinkerpop.gremlin.process.traversal.P;
 import org.apache.tinkerpop.gremlin.process.traversal.dsl.graph.GraphTraversalSource;
+import org.apache.tinkerpop.gremlin.structure.T;
 import org.apache.tinkerpop.gremlin.structure.Vertex;
 import org.apache.tinkerpop.gremlin.util.TimeUtil;
 import org.junit.Ignore;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class IndexesTest {
@@ -77,5 +82,26 @@ public class IndexesTest {
         avgTimeWithIndex < avgTimeWithoutIndex);
   }
 
+  @Test
+  public void indexSurvivesEvictionAndFaultIn() {
+    try (OdbGraph graph = SimpleDomain.newGraph()) {
+      graph.createIndex(TestNode.STRING_PROPERTY, Vertex.class);
+      Vertex node = graph.addVertex(T.label, TestNode.LABEL, TestNode.STRING_PROPERTY, "before");
+      graph.addVertex(T.label, TestNode.LABEL, TestNode.STRING_PROPERTY, "other");
+
+      // the index holds the ref, i.e. the node it returns is the current one even after it's been faulted in again
+      graph.referenceManager.clearAllReferences();
+      assertEquals("before", node.value(TestNode.STRING_PROPERTY));
+      List<Vertex> indexed = OdbIndex.queryNodeIndex(graph, TestNode.STRING_PROPERTY, "before");
+      assertEquals(1, indexed.size());
+      assertEquals(node, indexed.get(0));
+      assertSame(((NodeRef) node).get(), ((NodeRef) indexed.get(0)).get());
+
+      node.property(TestNode.STRING_PROPERTY, "after");
+      graph.referenceManager.clearAllReferences();
+      assertEquals(1, (long) graph.traversal().V().has(TestNode.STRING_PROPERTY, "after").count().next());
+      assertEquals(1, OdbIndex.queryNodeIndex(graph, TestNode.STRING_PROPERTY, "after").size());
+    }
+  }
 
 }
@@ -5,6 +5,10 @@ import io.shiftleft.overflowdb.testdomains.gratefuldead.ArtistDb;
 import io.shiftleft.overflowdb.testdomains.gratefuldead.FollowedBy;
 import io.shiftleft.overflowdb.testdomains.gratefuldead.GratefulDead;
 import io.shiftleft.overflowdb.testdomains.gratefuldead.Song;
+import io.shiftleft.overflowdb.testdomains.gratefuldead.SungBy;
+import io.shiftleft.overflowdb.testdomains.gratefuldead.WrittenBy;
+import io.shiftleft.overflowdb.testdomains.simple.ColumnarTestNode;
+import io.shiftleft.overflowdb.testdomains.simple.NodeIdsTestNode;
 import io.shiftleft.overflowdb.testdomains.simple.TestEdge;
 import io.shiftleft.overflowdb.testdomains.simple.TestNode;
 import io.shiftleft.overflowdb.testdomains.simple.SimpleDomain;
@@ -13,17 +17,26 @@ import org.apache.tinkerpop.gremlin.structure.Direction;
 import org.apache.tinkerpop.gremlin.structure.Edge;
 import org.apache.tinkerpop.gremlin.structure.T;
 import org.apache.tinkerpop.gremlin.structure.Vertex;
+import org.apache.tinkerpop.gremlin.util.iterator.IteratorUtils;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.apache.tinkerpop.gremlin.process.traversal.dsl.graph.__.__;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class OdbNodeTest {
@@ -119,6 +132,31 @@ public class OdbNodeTest {
     assertEquals(e0FromOut, e0FromIn);
   }
 
+  @Test
+  public void edgeLabelAndKeyOrdinals() {
+    try (OdbGraph graph = GratefulDead.newGraph()) {
+      Vertex song1 = graph.addVertex(T.label, Song.label, Song.NAME, "Song 1");
+      Vertex song2 = graph.addVertex(T.label, Song.label, Song.NAME, "Song 2");
+      OdbEdge edge = (OdbEdge) song1.addEdge(FollowedBy.LABEL, song2, FollowedBy.WEIGHT, 5);
+      NodeLayoutInformation layout = ((NodeRef) song1).get().getLayoutInformation();
+
+      int followedBy = NodeLayoutInformation.edgeLabelOrdinal(FollowedBy.LABEL);
+      int weight = NodeLayoutInformation.edgePropertyKeyOrdinal(FollowedBy.WEIGHT);
+      assertEquals(followedBy, edge.labelOrdinal());
+      assertEquals((int) layout.outEdgeToOffsetPosition(FollowedBy.LABEL), layout.outEdgeToOffsetPosition(followedBy));
+      assertEquals(layout.getOffsetRelativeToAdjacentNodeRef(FollowedBy.LABEL, FollowedBy.WEIGHT),
+          layout.getOffsetRelativeToAdjacentNodeRef(followedBy, weight));
+
+      // unknown labels and keys aren't registered, and unsupported ones don't have an offset
+      assertEquals(-1, NodeLayoutInformation.edgeLabelOrdinal("unknownLabel"));
+      assertEquals(-1, NodeLayoutInformation.edgePropertyKeyOrdinal("unknownKey"));
+      assertEquals(-1, layout.outEdgeToOffsetPosition(-1));
+      assertEquals(-1, layout.getOffsetRelativeToAdjacentNodeRef(followedBy, -1));
+      assertEquals(-1, layout.inEdgeToOffsetPosition(NodeLayoutInformation.edgeLabelOrdinal(SungBy.LABEL)));
+      assertEquals(Integer.valueOf(5), edge.value(FollowedBy.WEIGHT));
+    }
+  }
+
   @Test
   public void setAndGetEdgePropertyViaNewEdge() {
     OdbGraph graph = SimpleDomain.newGraph();
@@ -298,6 +336,352 @@ public class OdbNodeTest {
     }
   }
 
+  @Test
+  public void compactAdjacency() {
+    try (OdbGraph graph = SimpleDomain.newGraph()) {
+      NodeRef hub = (NodeRef) graph.addVertex(T.label, TestNode.LABEL, TestNode.STRING_PROPERTY, "hub");
+      List<Edge> edges = new ArrayList<>();
+      for (long i = 0; i < 10; i++) {
+        Vertex other = graph.addVertex(T.label, TestNode.LABEL);
+        edges.add(hub.addEdge(TestEdge.LABEL, other, TestEdge.LONG_PROPERTY, i));
+      }
+      for (int i = 0; i < 10; i += 2) {
+        edges.get(i).remove();
+      }
+      // holes are skipped
+      assertEquals(5, IteratorUtils.count(hub.vertices(Direction.OUT)));
+
+      OdbNode hubNode = hub.get();
+      int lengthBefore = hubNode.getAdjacentNodesWithProperties().length;
+      assertEquals(5, hubNode.compactAdjacency());
+      assertEquals(lengthBefore - 5 * 2, hubNode.getAdjacentNodesWithProperties().length);
+      assertEquals(5 * 2, hubNode.getEdgeOffsets()[1]);
+      assertEquals(0, hubNode.compactAdjacency());
+
+      // edges obtained before the compaction still refer to the right entries
+      for (int i = 1; i < 10; i += 2) {
+        assertEquals(Long.valueOf(i), edges.get(i).value(TestEdge.LONG_PROPERTY));
+      }
+      edges.get(1).property(TestEdge.LONG_PROPERTY, 100l);
+      edges.get(3).remove();
+      assertEquals(Arrays.asList(100l, 5l, 7l, 9l),
+          graph.traversal().V(hub.id()).outE().values(TestEdge.LONG_PROPERTY).toList());
+      assertEquals(Arrays.asList(100l, 5l, 7l, 9l),
+          graph.traversal().V(hub.id()).out().inE().values(TestEdge.LONG_PROPERTY).toList());
+
+      // the hub's hole, and the holes in the IN blocks of the other nodes
+      assertEquals(1 + 5 + 1, graph.compactAdjacency());
+      assertEquals(Long.valueOf(9), edges.get(9).value(TestEdge.LONG_PROPERTY));
+    }
+  }
+
+  @Test
+  public void compactAdjacencyRepeatedly() {
+    try (OdbGraph graph = SimpleDomain.newGraph()) {
+      Vertex x = graph.addVertex(T.label, TestNode.LABEL, TestNode.STRING_PROPERTY, "x");
+      Vertex y = graph.addVertex(T.label, TestNode.LABEL, TestNode.STRING_PROPERTY, "y");
+      List<Edge> edges = new ArrayList<>();
+      for (long i = 0; i < 6; i++) {
+        edges.add(x.addEdge(TestEdge.LABEL, y, TestEdge.LONG_PROPERTY, i));
+      }
+      Edge edge4 = edges.get(4);
+      Edge edge5 = edges.get(5);
+      assertEquals(Long.valueOf(4), edge4.value(TestEdge.LONG_PROPERTY));
+
+      // both sides of the edges are compacted twice, i.e. the edges need to be rebased across both compactions
+      edges.get(0).remove();
+      assertEquals(2, graph.compactAdjacency());
+      edges.get(1).remove();
+      assertEquals(2, graph.compactAdjacency());
+      edges.get(2).remove();
+      assertEquals(2, graph.compactAdjacency());
+
+      assertEquals(Long.valueOf(5), edge5.value(TestEdge.LONG_PROPERTY));
+      edge5.property(TestEdge.LONG_PROPERTY, 50l);
+      assertEquals(Arrays.asList(3l, 4l, 50l), graph.traversal().V(x.id()).outE().values(TestEdge.LONG_PROPERTY).toList());
+      assertEquals(Arrays.asList(3l, 4l, 50l), graph.traversal().V(y.id()).inE().values(TestEdge.LONG_PROPERTY).toList());
+
+      edge4.remove();
+      assertEquals(Arrays.asList(3l, 50l), graph.traversal().V(x.id()).outE().values(TestEdge.LONG_PROPERTY).toList());
+      assertEquals(Arrays.asList(3l, 50l), graph.traversal().V(y.id()).inE().values(TestEdge.LONG_PROPERTY).toList());
+      assertEquals(Long.valueOf(50), edge5.value(TestEdge.LONG_PROPERTY));
+    }
+  }
+
+  @Test
+  public void compactAdjacencyRepeatedlyOnGrowth() {
+    try (OdbGraph graph = SimpleDomain.newGraph()) {
+      NodeRef hub = (NodeRef) graph.addVertex(T.label, TestNode.LABEL, TestNode.STRING_PROPERTY, "hub");
+      Vertex other = graph.addVertex(T.label, TestNode.LABEL);
+      Edge kept = hub.addEdge(TestEdge.LABEL, other, TestEdge.LONG_PROPERTY, -1l);
+
+      // removing and adding edges compacts the (full) blocks rather than growing them, over and over again
+      for (long i = 0; i < 100; i++) {
+        hub.addEdge(TestEdge.LABEL, other, TestEdge.LONG_PROPERTY, i).remove();
+      }
+      assertTrue(hub.get().compactionEpoch() > 1);
+      assertEquals(Long.valueOf(-1), kept.value(TestEdge.LONG_PROPERTY));
+      kept.remove();
+      assertEquals(0, IteratorUtils.count(hub.edges(Direction.OUT)));
+      assertEquals(0, IteratorUtils.count(other.edges(Direction.IN)));
+    }
+  }
+
+  @Test
+  public void compactAdjacencyInsteadOfGrowing() {
+    try (OdbGraph graph = SimpleDomain.newGraph()) {
+      NodeRef hub = (NodeRef) graph.addVertex(T.label, TestNode.LABEL, TestNode.STRING_PROPERTY, "hub");
+      List<Vertex> others = new ArrayList<>();
+      for (int i = 0; i < 100; i++) {
+        others.add(graph.addVertex(T.label, TestNode.LABEL));
+      }
+      for (Vertex other : others) {
+        hub.addEdge(TestEdge.LABEL, other, TestEdge.LONG_PROPERTY, 0l);
+      }
+      int maxLength = 0;
+      for (long round = 1; round <= 10; round++) {
+        // remove and re-add all edges, while iterating over them
+        Iterator<Edge> edges = hub.edges(Direction.OUT);
+        int i = 0;
+        while (edges.hasNext()) {
+          edges.next().remove();
+          hub.addEdge(TestEdge.LABEL, others.get(i++), TestEdge.LONG_PROPERTY, round);
+        }
+        assertEquals(100, i);
+        maxLength = Integer.max(maxLength, hub.get().getAdjacentNodesWithProperties().length);
+
+        assertEquals(Collections.nCopies(100, round),
+            graph.traversal().V(hub.id()).outE().values(TestEdge.LONG_PROPERTY).toList());
+        assertEquals(Collections.nCopies(100, round),
+            graph.traversal().V(hub.id()).out().inE().values(TestEdge.LONG_PROPERTY).toList());
+      }
+      assertTrue("adjacency grew to " + maxLength, maxLength < 100 * 2 * 4);
+    }
+  }
+
+  @Test
+  public void adjacencyGrowthPolicies() {
+    for (AdjacencyGrowthPolicy growthPolicy : AdjacencyGrowthPolicy.values()) {
+      try (OdbGraph graph = SimpleDomain.newGraph(OdbConfig.withoutOverflow().withAdjacencyGrowthPolicy(growthPolicy))) {
+        NodeRef hub = (NodeRef) graph.addVertex(T.label, TestNode.LABEL);
+        for (long i = 0; i < 1000; i++) {
+          hub.addEdge(TestEdge.LABEL, graph.addVertex(T.label, TestNode.LABEL), TestEdge.LONG_PROPERTY, i);
+        }
+        // stride size is 2: node ref and one edge property
+        int capacity = hub.get().getAdjacentNodesWithProperties().length;
+        int maxCapacity = 2 * (1000 + growthPolicy.additionalCapacity(1000));
+        assertTrue(growthPolicy + ": " + capacity, capacity >= 2 * 1000 && capacity <= maxCapacity);
+        assertEquals(1000, IteratorUtils.count(hub.edges(Direction.OUT)));
+      }
+    }
+  }
+
+  @Test
+  public void trimToSize() {
+    try (OdbGraph graph = SimpleDomain.newGraph()) {
+      NodeRef hub = (NodeRef) graph.addVertex(T.label, TestNode.LABEL);
+      List<Edge> edges = new ArrayList<>();
+      for (long i = 0; i < 10; i++) {
+        Vertex other = graph.addVertex(T.label, TestNode.LABEL);
+        edges.add(hub.addEdge(TestEdge.LABEL, other, TestEdge.LONG_PROPERTY, i));
+        other.addEdge(TestEdge.LABEL, hub, TestEdge.LONG_PROPERTY, 100 + i);
+      }
+      edges.get(3).remove();
+
+      OdbNode hubNode = hub.get();
+      int capacity = hubNode.getAdjacentNodesWithProperties().length;
+      assertEquals(capacity - 2 * 20, hubNode.trimToSize());
+      assertEquals(2 * 20, hubNode.getAdjacentNodesWithProperties().length);
+      assertEquals(0, hubNode.trimToSize());
+
+      // holes are kept, i.e. existing edges stay valid
+      assertEquals(Long.valueOf(9), edges.get(9).value(TestEdge.LONG_PROPERTY));
+      assertEquals(9, IteratorUtils.count(hub.edges(Direction.OUT)));
+      assertEquals(10, IteratorUtils.count(hub.edges(Direction.IN)));
+
+      // the blocks are full now, but can still grow
+      hub.addEdge(TestEdge.LABEL, graph.addVertex(T.label, TestNode.LABEL), TestEdge.LONG_PROPERTY, 10l);
+      assertEquals(10, IteratorUtils.count(hub.edges(Direction.OUT)));
+      assertEquals(10, IteratorUtils.count(hub.edges(Direction.IN)));
+
+      assertTrue(graph.trimToSize() > 0);
+      assertEquals(0, graph.trimToSize());
+      assertEquals(Arrays.asList(100l, 101l, 102l, 103l, 104l, 105l, 106l, 107l, 108l, 109l),
+          graph.traversal().V(hub.id()).inE().values(TestEdge.LONG_PROPERTY).toList());
+    }
+  }
+
+  @Test
+  public void nodeIdsAdjacencyLayout() {
+    try (OdbGraph graph = SimpleDomain.newGraph()) {
+      Vertex hub = graph.addVertex(T.label, NodeIdsTestNode.LABEL, TestNode.STRING_PROPERTY, "hub");
+      List<Vertex> neighbors = new ArrayList<>();
+      List<Edge> edges = new ArrayList<>();
+      for (int i = 0; i < 10; i++) {
+        // neighbors with either adjacency layout
+        Vertex neighbor = graph.addVertex(T.label, i % 2 == 0 ? NodeIdsTestNode.LABEL : TestNode.LABEL, TestNode.INT_PROPERTY, i);
+        neighbors.add(neighbor);
+        edges.add(hub.addEdge(TestEdge.LABEL, neighbor, TestEdge.LONG_PROPERTY, (long) i));
+      }
+      neighbors.get(0).addEdge(TestEdge.LABEL, hub, TestEdge.LONG_PROPERTY, 100l);
+
+      // one ordinal per edge, which resolves to the adjacent node, and the edge property right next to the edge's others
+      OdbNode hubNode = ((NodeRef) hub).get();
+      int[] ordinals = hubNode.getAdjacentNodeOrdinals();
+      assertEquals(ordinals.length, hubNode.getAdjacentNodesWithProperties().length);
+      int offsetPosition = hubNode.getLayoutInformation().outEdgeToOffsetPosition(TestEdge.LABEL);
+      int outStart = hubNode.getEdgeOffsets()[2 * offsetPosition];
+      assertEquals(10, hubNode.getEdgeOffsets()[2 * offsetPosition + 1]);
+      for (int i = 0; i < 10; i++) {
+        assertSame(neighbors.get(i), graph.nodeByOrdinal(ordinals[outStart + i]));
+        assertEquals((long) i, hubNode.getAdjacentNodesWithProperties()[outStart + i]);
+      }
+      assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9),
+          graph.traversal().V(hub.id()).out(TestEdge.LABEL).values(TestNode.INT_PROPERTY).toList());
+      assertEquals(Arrays.asList(100l), graph.traversal().V(hub.id()).inE(TestEdge.LABEL).values(TestEdge.LONG_PROPERTY).toList());
+      assertEquals(Arrays.asList("hub"), graph.traversal().V(neighbors.get(3).id()).in(TestEdge.LABEL).values(TestNode.STRING_PROPERTY).toList());
+
+      edges.get(3).remove();
+      edges.get(4).remove();
+      edges.get(5).property(TestEdge.LONG_PROPERTY, 55l);
+      assertEquals(2, hubNode.compactAdjacency());
+      assertTrue(hubNode.trimToSize() > 0);
+      assertEquals(hubNode.getAdjacentNodeOrdinals().length, hubNode.getAdjacentNodesWithProperties().length);
+      assertEquals(Long.valueOf(6), edges.get(6).value(TestEdge.LONG_PROPERTY));
+
+      // removed nodes are gone from the node table
+      int removedOrdinal = graph.nodeOrdinal((Long) neighbors.get(9).id());
+      neighbors.get(9).remove();
+      assertEquals(OdbNode.NO_ADJACENT_NODE, graph.nodeOrdinal((Long) neighbors.get(9).id()));
+      assertEquals(OdbNode.NO_ADJACENT_NODE, graph.nodeOrdinal((NodeRef) neighbors.get(9)));
+      List<Long> expectedValues = Arrays.asList(0l, 1l, 2l, 55l, 6l, 7l, 8l);
+      assertEquals(expectedValues, graph.traversal().V(hub.id()).outE(TestEdge.LABEL).values(TestEdge.LONG_PROPERTY).toList());
+
+      // ... and their ordinal is reused (i.e. the table doesn't grow under churn), without the hub picking up the new node
+      for (int i = 0; i < 100; i++) {
+        Vertex churn = graph.addVertex(T.label, NodeIdsTestNode.LABEL);
+        assertEquals(removedOrdinal, graph.nodeOrdinal((NodeRef) churn));
+        assertSame(churn, graph.nodeByOrdinal(removedOrdinal));
+        churn.remove();
+      }
+      Vertex newNeighbor = graph.addVertex(T.label, NodeIdsTestNode.LABEL);
+      assertEquals(removedOrdinal, graph.nodeOrdinal((NodeRef) newNeighbor));
+      assertEquals(Arrays.asList(0, 1, 2, 5, 6, 7, 8),
+          graph.traversal().V(hub.id()).out(TestEdge.LABEL).values(TestNode.INT_PROPERTY).toList());
+      newNeighbor.remove();
+
+      // round trip via storage
+      graph.referenceManager.clearAllReferences();
+      assertEquals(expectedValues, graph.traversal().V(hub.id()).outE(TestEdge.LABEL).values(TestEdge.LONG_PROPERTY).toList());
+      assertEquals(Arrays.asList(0, 1, 2, 5, 6, 7, 8),
+          graph.traversal().V(hub.id()).out(TestEdge.LABEL).values(TestNode.INT_PROPERTY).toList());
+      assertEquals(Arrays.asList(100l), graph.traversal().V(hub.id()).inE(TestEdge.LABEL).values(TestEdge.LONG_PROPERTY).toList());
+      assertEquals(Arrays.asList("hub"), graph.traversal().V(neighbors.get(6).id()).in(TestEdge.LABEL).values(TestNode.STRING_PROPERTY).toList());
+    }
+  }
+
+  @Test
+  public void columnarAdjacencyLayout() {
+    try (OdbGraph graph = SimpleDomain.newGraph()) {
+      Vertex hub = graph.addVertex(T.label, ColumnarTestNode.LABEL, TestNode.STRING_PROPERTY, "hub");
+      List<Vertex> neighbors = new ArrayList<>();
+      List<Edge> edges = new ArrayList<>();
+      for (int i = 0; i < 20; i++) {
+        // neighbors with either adjacency layout
+        Vertex neighbor = graph.addVertex(T.label, i % 2 == 0 ? ColumnarTestNode.LABEL : TestNode.LABEL, TestNode.INT_PROPERTY, i);
+        neighbors.add(neighbor);
+        edges.add(hub.addEdge(TestEdge.LABEL, neighbor, TestEdge.LONG_PROPERTY, (long) i));
+      }
+      neighbors.get(0).addEdge(TestEdge.LABEL, hub, TestEdge.LONG_PROPERTY, 100l);
+
+      // one ordinal per edge, and one column (of the same length) for the only edge property
+      OdbNode hubNode = ((NodeRef) hub).get();
+      int[] ordinals = hubNode.getAdjacentNodeOrdinals();
+      int capacity = ordinals.length;
+      assertEquals(capacity, hubNode.getAdjacentNodesWithProperties().length);
+      int offsetPosition = hubNode.getLayoutInformation().outEdgeToOffsetPosition(TestEdge.LABEL);
+      int outStart = hubNode.getEdgeOffsets()[2 * offsetPosition];
+      assertEquals(20, hubNode.getEdgeOffsets()[2 * offsetPosition + 1]);
+      for (int i = 0; i < 20; i++) {
+        assertSame(neighbors.get(i), graph.nodeByOrdinal(ordinals[outStart + i]));
+        assertEquals((long) i, hubNode.getAdjacentNodesWithProperties()[outStart + i]);
+      }
+
+      edges.get(0).remove();
+      edges.get(10).remove();
+      edges.get(11).property(TestEdge.LONG_PROPERTY, 111l);
+      assertEquals(2, hubNode.compactAdjacency());
+      assertTrue(hubNode.trimToSize() > 0);
+      assertEquals(hubNode.getAdjacentNodeOrdinals().length, hubNode.getAdjacentNodesWithProperties().length);
+      assertEquals(Long.valueOf(12), edges.get(12).value(TestEdge.LONG_PROPERTY));
+
+      List<Long> expectedValues = new ArrayList<>();
+      for (long i = 1; i < 20; i++) {
+        if (i == 11) expectedValues.add(111l);
+        else if (i != 10) expectedValues.add(i);
+      }
+      assertEquals(expectedValues, graph.traversal().V(hub.id()).outE(TestEdge.LABEL).values(TestEdge.LONG_PROPERTY).toList());
+      assertEquals(Arrays.asList(100l), graph.traversal().V(hub.id()).inE(TestEdge.LABEL).values(TestEdge.LONG_PROPERTY).toList());
+
+      // round trip via storage
+      graph.referenceManager.clearAllReferences();
+      assertEquals(expectedValues, graph.traversal().V(hub.id()).outE(TestEdge.LABEL).values(TestEdge.LONG_PROPERTY).toList());
+      assertEquals(Arrays.asList(100l), graph.traversal().V(hub.id()).inE(TestEdge.LABEL).values(TestEdge.LONG_PROPERTY).toList());
+      assertEquals(Arrays.asList("hub"), graph.traversal().V(neighbors.get(12).id()).in(TestEdge.LABEL).values(TestNode.STRING_PROPERTY).toList());
+    }
+  }
+
+  @Test
+  public void pairedEdgeSlots() {
+    try (OdbGraph graph = SimpleDomain.newGraph(OdbConfig.withoutOverflow().withEdgePairingThreshold(8))) {
+      Vertex hub = graph.addVertex(T.label, TestNode.LABEL);
+      Vertex other = graph.addVertex(T.label, TestNode.LABEL);
+      // multiple edges between the same nodes, with holes in between
+      List<Edge> edges = new ArrayList<>();
+      for (int i = 0; i < 10; i++) {
+        edges.add(hub.addEdge(TestEdge.LABEL, other, TestEdge.LONG_PROPERTY, (long) i));
+        hub.addEdge(TestEdge.LABEL, graph.addVertex(T.label, TestNode.LABEL)).remove();
+      }
+
+      // both sides know where the other side of the edge is
+      OdbNode hubNode = ((NodeRef) hub).get();
+      OdbEdge edge7 = (OdbEdge) edges.get(7);
+      assertEquals(edge7.getInBlockOffset(), hubNode.pairedBlockOffset(Direction.OUT, TestEdge.LABEL, edge7.getOutBlockOffset()));
+      assertEquals(edge7.getOutBlockOffset(), ((NodeRef) other).get().pairedBlockOffset(Direction.IN, TestEdge.LABEL, edge7.getInBlockOffset()));
+
+      // only blocks with at least 8 entries keep track of the pairing, and only per edge rather than per array slot
+      assertTrue(hubNode.getPairedSlots()[0].length <= 20);
+      Vertex small = graph.addVertex(T.label, TestNode.LABEL);
+      OdbEdge smallEdge = (OdbEdge) small.addEdge(TestEdge.LABEL, graph.addVertex(T.label, TestNode.LABEL));
+      assertNull(((NodeRef) small).get().getPairedSlots());
+      assertEquals(-1, ((NodeRef) small).get().pairedBlockOffset(Direction.OUT, TestEdge.LABEL, smallEdge.getOutBlockOffset()));
+
+      // unknown block offsets (e.g. of removed edges) aren't paired - in particular not with the previous block's last slot
+      graph.addVertex(T.label, TestNode.LABEL).addEdge(TestEdge.LABEL, hub);
+      assertEquals(-1, hubNode.pairedBlockOffset(Direction.OUT, TestEdge.LABEL, -1));
+      assertEquals(-1, hubNode.pairedBlockOffset(Direction.IN, TestEdge.LABEL, -1));
+
+      // the pairing survives compacting either side
+      assertTrue(hubNode.compactAdjacency() > 0);
+      List<Edge> inEdges = new ArrayList<>();
+      other.edges(Direction.IN, TestEdge.LABEL).forEachRemaining(inEdges::add);
+      inEdges.get(7).property(TestEdge.LONG_PROPERTY, 77l);
+      assertEquals(Long.valueOf(77), edges.get(7).value(TestEdge.LONG_PROPERTY));
+      inEdges.get(3).remove();
+      assertEquals(1, ((NodeRef) other).get().compactAdjacency());
+      assertEquals(Arrays.asList(0l, 1l, 2l, 4l, 5l, 6l, 77l, 8l, 9l), __(hub).outE().values(TestEdge.LONG_PROPERTY).toList());
+
+      // and a storage round trip
+      graph.referenceManager.clearAllReferences();
+      List<Edge> outEdges = new ArrayList<>();
+      hub.edges(Direction.OUT, TestEdge.LABEL).forEachRemaining(outEdges::add);
+      OdbEdge outEdge = (OdbEdge) outEdges.get(6);
+      assertTrue(((NodeRef) hub).get().pairedBlockOffset(Direction.OUT, TestEdge.LABEL, outEdge.getOutBlockOffset()) >= 0);
+      outEdge.property(TestEdge.LONG_PROPERTY, 66l);
+      assertEquals(Arrays.asList(0l, 1l, 2l, 4l, 5l, 6l, 66l, 8l, 9l), __(other).inE().values(TestEdge.LONG_PROPERTY).toList());
+    }
+  }
+
   @Test
   public void removeNodeSimple() {
     try (OdbGraph graph = SimpleDomain.newGraph()) {
@@ -408,4 +792,30 @@ public class OdbNodeTest {
     }
   }
 
+  @Test
+  public void concurrentFaultInShouldReadNodeOnlyOnce() throws Exception {
+    try (OdbGraph graph = SimpleDomain.newGraph()) {
+      NodeRef v0 = (NodeRef) graph.addVertex(T.label, TestNode.LABEL, TestNode.STRING_PROPERTY, "v0");
+      graph.referenceManager.clearAllReferences();
+      assertTrue(v0.isCleared());
+
+      int threadCount = 8;
+      CyclicBarrier barrier = new CyclicBarrier(threadCount);
+      ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+      List<Future<OdbNode>> futures = new ArrayList<>();
+      for (int i = 0; i < threadCount; i++) {
+        futures.add(executor.submit(() -> {
+          barrier.await();
+          return v0.get();
+        }));
+      }
+      OdbNode node = futures.get(0).get();
+      for (Future<OdbNode> future : futures) {
+        assertTrue(node == future.get());
+      }
+      executor.shutdown();
+      assertEquals("v0", node.property(TestNode.STRING_PROPERTY).value());
+    }
+  }
+
 }
@@ -1,12 +1,22 @@
 package io.shiftleft.overflowdb;
 
+import io.shiftleft.overflowdb.testdomains.simple.SimpleDomain;
+import io.shiftleft.overflowdb.testdomains.simple.TestNode;
 import org.apache.commons.lang3.NotImplementedException;
 import org.apache.tinkerpop.gremlin.structure.Element;
 import org.apache.tinkerpop.gremlin.structure.Property;
+import org.apache.tinkerpop.gremlin.structure.T;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
 
 //TODO MP
 public class ReferenceManagerTest {
@@ -23,6 +33,92 @@ public class ReferenceManagerTest {
 
   }
 
+  @Test
+  public void clockPolicyShouldSpareAccessedRefs() {
+    try (OdbGraph graph = SimpleDomain.newGraph()) {
+      NodeRef a = (NodeRef) graph.addVertex(T.label, TestNode.LABEL);
+      NodeRef b = (NodeRef) graph.addVertex(T.label, TestNode.LABEL);
+      NodeRef c = (NodeRef) graph.addVertex(T.label, TestNode.LABEL);
+      EvictionPolicy policy = EvictionPolicy.Type.CLOCK.create();
+      policy.register(a);
+      policy.register(b);
+      policy.register(c);
+
+      a.get();
+      assertEquals(Arrays.asList(b), policy.selectForEviction(1));
+      // `a` had its second chance, its access bit has been reset in the previous round
+      assertEquals(Arrays.asList(c, a), policy.selectForEviction(2));
+      assertEquals(0, policy.size());
+    }
+  }
+
+  @Test
+  public void approximateLruPolicyShouldEvictLeastRecentlyUsedRefs() {
+    try (OdbGraph graph = SimpleDomain.newGraph()) {
+      NodeRef a = (NodeRef) graph.addVertex(T.label, TestNode.LABEL);
+      NodeRef b = (NodeRef) graph.addVertex(T.label, TestNode.LABEL);
+      NodeRef c = (NodeRef) graph.addVertex(T.label, TestNode.LABEL);
+      EvictionPolicy policy = EvictionPolicy.Type.APPROXIMATE_LRU.create();
+      policy.register(a);
+      policy.register(b);
+      policy.register(c);
+
+      a.get();
+      assertEquals(Arrays.asList(b), policy.selectForEviction(1));
+      c.get();
+      assertEquals(Arrays.asList(a), policy.selectForEviction(1));
+      assertEquals(Arrays.asList(c), policy.selectForEviction(1));
+      assertEquals(0, policy.size());
+    }
+  }
+
+  @Test
+  public void coldRefsShouldBeEvictedFirst() {
+    try (OdbGraph graph = SimpleDomain.newGraph()) {
+      NodeRef a = (NodeRef) graph.addVertex(T.label, TestNode.LABEL);
+      NodeRef b = (NodeRef) graph.addVertex(T.label, TestNode.LABEL);
+      NodeRef c = (NodeRef) graph.addVertex(T.label, TestNode.LABEL);
+      for (EvictionPolicy.Type type : Arrays.asList(EvictionPolicy.Type.CLOCK, EvictionPolicy.Type.APPROXIMATE_LRU)) {
+        EvictionPolicy policy = type.create();
+        policy.register(a);
+        policy.register(b);
+        policy.registerCold(c);
+        assertEquals(type.name(), Arrays.asList(c), policy.selectForEviction(1));
+      }
+    }
+  }
+
+  @Test
+  public void stripedRefBufferShouldHandOverAllRefsRegisteredConcurrently() throws InterruptedException {
+    final int threadCount = 8;
+    final int refsPerThread = StripedRefBuffer.SEGMENT_SIZE * 3 + 17;
+    final StripedRefBuffer buffer = new StripedRefBuffer(4);
+    final EvictionPolicy policy = EvictionPolicy.Type.FIFO.create();
+
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < threadCount; t++) {
+      final long idOffset = t * refsPerThread;
+      threads.add(new Thread(() -> {
+        for (int i = 0; i < refsPerThread; i++) {
+          buffer.add(new TestNode(null, idOffset + i));
+        }
+      }));
+    }
+    threads.forEach(Thread::start);
+    // drain while producers are still running
+    buffer.drainTo(policy);
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    buffer.drainTo(policy);
+
+    assertEquals(0, buffer.size());
+    Set<Long> ids = new HashSet<>();
+    for (NodeRef ref : policy.selectForEviction(Integer.MAX_VALUE)) {
+      ids.add(ref.id);
+    }
+    assertEquals(threadCount * refsPerThread, ids.size());
+  }
 
 //  private class DummyElementRef extends NodeRef {
 //    private final String label;
@@ -0,0 +1,66 @@
+package io.shiftleft.overflowdb.storage;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CompressionTest {
+
+  @Test
+  public void roundtripWithAllCodecs() throws IOException {
+    final Random random = new Random(42);
+    for (int length : new int[]{0, 1, 12, 13, 100, 4096, 300_000}) {
+      final byte[] randomBytes = new byte[length];
+      random.nextBytes(randomBytes);
+      final byte[] repetitiveBytes = new byte[length];
+      for (int i = 0; i < length; i++) {
+        repetitiveBytes[i] = (byte) (i % 7 == 0 ? random.nextInt(3) : i % 31);
+      }
+
+      for (byte[] bytes : new byte[][]{randomBytes, repetitiveBytes}) {
+        for (Compression compression : Compression.values()) {
+          final byte[] compressed = compression.compress(bytes);
+          assertTrue(compressed.length <= bytes.length);
+          assertArrayEquals(bytes, Compression.decompressIfNecessary(compressed));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void lz4WithLongMatchesAndLiterals() throws IOException {
+    final byte[] bytes = new byte[100_000];
+    new Random(1).nextBytes(bytes);
+    // a long run of zeros, i.e. an overlapping match with a length way above 15
+    for (int i = 20_000; i < 60_000; i++) {
+      bytes[i] = 0;
+    }
+    final byte[] compressed = Lz4Codec.compress(bytes);
+    assertTrue(compressed.length < 70_000);
+    assertArrayEquals(bytes, Lz4Codec.decompress(compressed, 0, compressed.length, bytes.length));
+  }
+
+  @Test
+  public void detectCompressedNodes() throws IOException {
+    final byte[] uncompressed = new byte[1000];
+    uncompressed[0] = NodeSerializer.FORMAT_HEADER;
+    uncompressed[1] = NodeSerializer.FORMAT_VERSION;
+    assertFalse(Compression.isCompressed(uncompressed));
+    assertSame(uncompressed, Compression.decompressIfNecessary(uncompressed));
+
+    final byte[] compressed = Compression.LZ4.compress(uncompressed);
+    assertTrue(Compression.isCompressed(compressed));
+    assertTrue(Compression.isCompressed(ByteBuffer.wrap(compressed)));
+    assertEquals(NodeSerializer.FORMAT_HEADER, compressed[0]);
+    assertArrayEquals(uncompressed, Compression.decompressIfNecessary(compressed));
+  }
+
+}
@@ -1,26 +1,39 @@
 package io.shiftleft.overflowdb.storage;
 
+import io.shiftleft.overflowdb.NodeRef;
 import io.shiftleft.overflowdb.OdbConfig;
 import io.shiftleft.overflowdb.OdbGraph;
+import io.shiftleft.overflowdb.OdbMetrics;
+import io.shiftleft.overflowdb.OdbNode;
 import io.shiftleft.overflowdb.testdomains.gratefuldead.FollowedBy;
 import io.shiftleft.overflowdb.testdomains.gratefuldead.GratefulDead;
 import io.shiftleft.overflowdb.testdomains.gratefuldead.Song;
+import org.apache.tinkerpop.gremlin.process.traversal.P;
+import org.apache.tinkerpop.gremlin.structure.Direction;
 import org.apache.tinkerpop.gremlin.structure.Edge;
 import org.apache.tinkerpop.gremlin.structure.T;
 import org.apache.tinkerpop.gremlin.structure.Vertex;
 import org.apache.tinkerpop.gremlin.structure.io.IoCore;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 /**
  * save and restore a graph from disk overlay
  */
 public class GraphSaveRestoreTest {
+  @Rule
+  public final TemporaryFolder temporaryFolder = new TemporaryFolder();
 
   @Test
   public void greenField() throws IOException {
@@ -54,6 +67,70 @@ public class GraphSaveRestoreTest {
     }
   }
 
+  @Test
+  public void onlyPersistModifiedNodes() throws IOException {
+    final File overflowDb = Files.createTempFile("overflowdb", "bin").toFile();
+    overflowDb.deleteOnExit();
+
+    final Long vertex0Id;
+    final Long vertex1Id;
+    try (OdbGraph graph = newGratefulDeadGraph(overflowDb, false)) {
+      vertex0Id = (Long) graph.addVertex(T.label, Song.label, Song.NAME, "Song 1").id();
+      vertex1Id = (Long) graph.addVertex(T.label, Song.label, Song.NAME, "Song 2").id();
+      assertTrue(((NodeRef) graph.vertex(vertex0Id)).get().isModifiedSinceLastSerialization());
+    }
+
+    try (OdbGraph graph = newGratefulDeadGraph(overflowDb, false)) {
+      NodeRef v0 = (NodeRef) graph.vertex(vertex0Id);
+      NodeRef v1 = (NodeRef) graph.vertex(vertex1Id);
+      assertFalse(v0.get().isModifiedSinceLastSerialization());
+      assertFalse(v1.get().isModifiedSinceLastSerialization());
+
+      v0.property(Song.NAME, "Song 1 updated");
+      assertTrue(v0.get().isModifiedSinceLastSerialization());
+      assertFalse(v1.get().isModifiedSinceLastSerialization());
+
+      v0.addEdge(FollowedBy.LABEL, v1);
+      assertTrue(v1.get().isModifiedSinceLastSerialization());
+    }
+
+    try (OdbGraph graph = newGratefulDeadGraph(overflowDb, false)) {
+      assertEquals("Song 1 updated", graph.vertex(vertex0Id).value(Song.NAME));
+      assertEquals("Song 2", graph.traversal().V(vertex0Id).out(FollowedBy.LABEL).values(Song.NAME).next());
+    }
+  }
+
+  @Test
+  public void restoreFromStorageWithoutNodeCatalog() throws IOException {
+    final File overflowDb = Files.createTempFile("overflowdb", "bin").toFile();
+    overflowDb.deleteOnExit();
+
+    try (OdbGraph graph = newGratefulDeadGraph(overflowDb, false)) {
+      loadGraphMl(graph);
+    }
+
+    // simulate a storage file that has been written before the node catalog was introduced
+    try (MVStoreStorage storage = MVStoreStorage.createWithSpecificLocation(overflowDb)) {
+      storage.getNodesMVMap().store.openMap("nodeLabels").clear();
+      assertFalse(storage.hasCompleteNodeCatalog());
+    }
+
+    try (OdbGraph graph = newGratefulDeadGraph(overflowDb, false)) {
+      assertEquals(Long.valueOf(808), graph.traversal().V().count().next());
+      assertEquals(Long.valueOf(8049), graph.traversal().V().outE().count().next());
+    }
+
+    // node catalog should have been rebuilt on startup
+    try (MVStoreStorage storage = MVStoreStorage.createWithSpecificLocation(overflowDb)) {
+      assertTrue(storage.hasCompleteNodeCatalog());
+    }
+
+    try (OdbGraph graph = newGratefulDeadGraph(overflowDb, false)) {
+      assertEquals(Long.valueOf(808), graph.traversal().V().count().next());
+      assertEquals(Long.valueOf(8049), graph.traversal().V().outE().count().next());
+    }
+  }
+
   @Test
   public void completeGratefulDeadGraph() throws IOException {
     final File overflowDb = Files.createTempFile("overflowdb", "bin").toFile();
@@ -86,6 +163,154 @@ public class GraphSaveRestoreTest {
     }
   }
 
+  @Test
+  public void completeGratefulDeadGraphWithSegmentLogStorage() throws IOException {
+    final File overflowDb = temporaryFolder.newFolder("overflowdb");
+    final OdbConfig config = OdbConfig.withoutOverflow()
+        .withStorageType(OdbStorage.Type.SEGMENT_LOG)
+        .withStorageLocation(overflowDb.getAbsolutePath());
+
+    try (OdbGraph graph = GratefulDead.newGraph(config)) {
+      loadGraphMl(graph);
+    }
+
+    try (OdbGraph graph = GratefulDead.newGraph(config)) {
+      assertEquals(Long.valueOf(808), graph.traversal().V().count().next());
+      assertEquals(Long.valueOf(8049), graph.traversal().V().outE().count().next());
+    }
+  }
+
+  @Test
+  public void completeGratefulDeadGraphWithCompression() throws IOException {
+    final File segmentsDirectory = temporaryFolder.newFolder("overflowdb-segments");
+    final File mvstoreFile = Files.createTempFile("overflowdb", "bin").toFile();
+    mvstoreFile.deleteOnExit();
+    final OdbConfig[] configs = new OdbConfig[]{
+        OdbConfig.withoutOverflow()
+            .withStorageType(OdbStorage.Type.SEGMENT_LOG)
+            .withStorageLocation(segmentsDirectory.getAbsolutePath())
+            .withCompression(Compression.LZ4)
+            .withCompressionThreshold(0),
+        OdbConfig.withoutOverflow()
+            .withStorageLocation(mvstoreFile.getAbsolutePath())
+            .withCompression(Compression.DEFLATE)
+            .withCompressionThreshold(0)
+    };
+
+    for (OdbConfig config : configs) {
+      try (OdbGraph graph = GratefulDead.newGraph(config)) {
+        loadGraphMl(graph);
+      }
+
+      try (OdbGraph graph = GratefulDead.newGraph(config)) {
+        assertEquals(Long.valueOf(808), graph.traversal().V().count().next());
+        assertEquals(Long.valueOf(8049), graph.traversal().V().outE().count().next());
+        assertEquals(Long.valueOf(8049), graph.traversal().V().inE().count().next());
+      }
+    }
+  }
+
+  @Test
+  public void completeGratefulDeadGraphWithLazyMaterialization() throws IOException {
+    final File overflowDb = Files.createTempFile("overflowdb", "bin").toFile();
+    overflowDb.deleteOnExit();
+    try (OdbGraph graph = newGratefulDeadGraph(overflowDb, false)) {
+      loadGraphMl(graph);
+    }
+
+    final OdbConfig config = OdbConfig.withoutOverflow()
+        .withStorageLocation(overflowDb.getAbsolutePath())
+        .withLazyMaterialization(true);
+    try (OdbGraph graph = GratefulDead.newGraph(config)) {
+      assertEquals(Long.valueOf(8049), graph.traversal().V().outE().count().next());
+      assertEquals(Long.valueOf(8049), graph.traversal().V().inE().count().next());
+      // adding edges to lazily materialized nodes marks them as modified, i.e. they're written on close
+      final Vertex song = graph.traversal().V().hasLabel(Song.label).next();
+      song.addEdge(FollowedBy.LABEL, graph.traversal().V().hasLabel(Song.label).next());
+    }
+
+    try (OdbGraph graph = GratefulDead.newGraph(config)) {
+      assertEquals(Long.valueOf(808), graph.traversal().V().count().next());
+      assertEquals(Long.valueOf(8050), graph.traversal().V().outE().count().next());
+      assertEquals(Long.valueOf(808), graph.traversal().V().values(Song.NAME).count().next());
+    }
+  }
+
+  @Test
+  public void metrics() throws IOException {
+    final File overflowDb = Files.createTempFile("overflowdb", "bin").toFile();
+    overflowDb.deleteOnExit();
+
+    final OdbMetrics metricsWhenSaving;
+    try (OdbGraph graph = newGratefulDeadGraph(overflowDb, false)) {
+      loadGraphMl(graph);
+      metricsWhenSaving = graph.metrics();
+    }
+    // all nodes are cleared and written to storage on close
+    assertEquals(808, metricsWhenSaving.evictions());
+    assertEquals(808, metricsWhenSaving.serialization().count());
+    assertEquals(808, metricsWhenSaving.storageWrites().count());
+    // MVStore only writes to disk on commit, which is measured separately
+    assertTrue(metricsWhenSaving.storageCommits().count() > 0);
+    assertTrue(metricsWhenSaving.storageCommits().totalNanos() > 0);
+    assertTrue(metricsWhenSaving.bytesWritten() > 808);
+
+    try (OdbGraph graph = newGratefulDeadGraph(overflowDb, false)) {
+      final OdbMetrics metrics = graph.metrics();
+      assertTrue(metrics.startupNanos() > 0);
+      assertTrue(metrics.startupReadNanos() > 0);
+      assertTrue(metrics.startupReadNanos() <= metrics.startupNanos());
+      assertEquals(0, metrics.faultIns());
+      assertEquals(Long.valueOf(8049), graph.traversal().V().outE().count().next());
+      assertEquals(808, metrics.faultIns());
+      assertEquals(808, metrics.deserialization().count());
+      assertEquals(808, metrics.storageReads().count());
+      assertTrue(metrics.deserialization().totalNanos() > 0);
+      assertTrue(metrics.deserialization().percentileNanos(50) <= metrics.deserialization().percentileNanos(100));
+      assertTrue(metrics.bytesRead() > 808);
+
+      metrics.reset();
+      assertEquals(0, metrics.faultIns());
+      assertEquals(0, metrics.deserialization().count());
+      assertEquals(0, metrics.bytesRead());
+      assertTrue(metrics.startupNanos() > 0);
+    }
+  }
+
+  @Test
+  public void prefetchClearedNeighbors() throws IOException, InterruptedException {
+    final File overflowDb = Files.createTempFile("overflowdb", "bin").toFile();
+    overflowDb.deleteOnExit();
+
+    try (OdbGraph graph = newGratefulDeadGraph(overflowDb, false)) {
+      loadGraphMl(graph);
+    }
+
+    OdbConfig config = OdbConfig.withoutOverflow().withStorageLocation(overflowDb.getAbsolutePath()).withPrefetchDepth(2);
+    try (OdbGraph graph = GratefulDead.newGraph(config)) {
+      // all nodes are cleared after restoring, and reading a node doesn't read it's neighbors
+      Iterator<NodeRef> songs = graph.nodesByLabel(P.eq(Song.label));
+      NodeRef song;
+      List<NodeRef> neighbors;
+      do {
+        song = songs.next();
+        neighbors = ((OdbNode) song.get()).clearedAdjacentNodes(Direction.OUT, FollowedBy.LABEL);
+      } while (neighbors.size() < 2);
+
+      // the first traversal of a faulted in node triggers the prefetch - only requesting the iterator is enough
+      final long faultIns = graph.metrics().faultIns();
+      song.vertices(Direction.OUT, FollowedBy.LABEL);
+      long deadline = System.currentTimeMillis() + 10000;
+      while (neighbors.stream().anyMatch(NodeRef::isCleared) && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      neighbors.forEach(neighbor -> assertTrue(neighbor.isSet()));
+      assertTrue(graph.metrics().prefetches() >= neighbors.size());
+      neighbors.forEach(NodeRef::get);
+      assertEquals(faultIns, graph.metrics().faultIns());
+    }
+  }
+
   private OdbGraph newGratefulDeadGraph(File overflowDb, boolean enableOverflow) {
     OdbConfig config = enableOverflow ? OdbConfig.withDefaults() : OdbConfig.withoutOverflow();
     return GratefulDead.newGraph(config.withStorageLocation(overflowDb.getAbsolutePath()));
@@ -0,0 +1,65 @@
+package io.shiftleft.overflowdb.storage;
+
+import io.shiftleft.overflowdb.NodeFactory;
+import io.shiftleft.overflowdb.NodeRef;
+import io.shiftleft.overflowdb.OdbGraph;
+import io.shiftleft.overflowdb.OdbNode;
+import io.shiftleft.overflowdb.testdomains.gratefuldead.Artist;
+import io.shiftleft.overflowdb.testdomains.gratefuldead.GratefulDead;
+import io.shiftleft.overflowdb.testdomains.gratefuldead.Song;
+import org.apache.tinkerpop.gremlin.structure.Direction;
+import org.apache.tinkerpop.gremlin.util.iterator.IteratorUtils;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class InMemoryStorageTest {
+
+  @Test
+  public void persistCompressedAndReadNodes() throws IOException {
+    try (OdbGraph graph = GratefulDead.newGraphWithData()) {
+      final List<OdbNode> nodes = new ArrayList<>();
+      graph.vertices().forEachRemaining(vertex -> nodes.add(((NodeRef) vertex).get()));
+      long uncompressedSize = 0;
+      for (OdbNode node : nodes) {
+        uncompressedSize += new NodeSerializer().serialize(node).length;
+      }
+
+      try (InMemoryStorage storage = new InMemoryStorage(newNodeDeserializer(graph))) {
+        storage.persistAll(nodes);
+        assertEquals(808, storage.nodeCount());
+        assertTrue(storage.sizeInBytes() < uncompressedSize);
+
+        for (OdbNode node : nodes) {
+          OdbNode restored = storage.readNode(node.ref.id);
+          assertEquals(node.label(), restored.label());
+          assertEquals(node.valueMap(), restored.valueMap());
+          assertEquals(IteratorUtils.list(node.vertices(Direction.BOTH)), IteratorUtils.list(restored.vertices(Direction.BOTH)));
+        }
+
+        final long sizeBeforeRemoval = storage.sizeInBytes();
+        storage.removeNode(nodes.get(0).ref.id);
+        assertNull(storage.readNode(nodes.get(0).ref.id));
+        assertEquals(807, storage.nodeCount());
+        assertTrue(storage.sizeInBytes() < sizeBeforeRemoval);
+        assertEquals(807, IteratorUtils.count(storage.allNodes()));
+      }
+    }
+  }
+
+  private NodeDeserializer newNodeDeserializer(OdbGraph graph) {
+    final Map<String, NodeFactory> nodeFactoryByLabel = new HashMap<>();
+    nodeFactoryByLabel.put(Song.label, Song.factory);
+    nodeFactoryByLabel.put(Artist.label, Artist.factory);
+    return new NodeDeserializer(graph, nodeFactoryByLabel);
+  }
+
+}
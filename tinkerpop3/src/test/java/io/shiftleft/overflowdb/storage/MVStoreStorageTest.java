@@ -0,0 +1,44 @@
+package io.shiftleft.overflowdb.storage;
+
+import org.h2.mvstore.MVMap;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MVStoreStorageTest {
+
+  @Test
+  public void partitionsShouldCoverAllNodesExactlyOnce() throws IOException {
+    final File storageFile = Files.createTempFile("overflowdb", "bin").toFile();
+    storageFile.deleteOnExit();
+
+    try (MVStoreStorage storage = MVStoreStorage.createWithSpecificLocation(storageFile)) {
+      MVMap<Long, byte[]> nodesMVMap = storage.getNodesMVMap();
+      for (long id = 0; id < 1000; id++) {
+        nodesMVMap.put(id * 3, new byte[]{(byte) id});
+      }
+
+      for (int partitionCount : new int[]{1, 3, 7, 2000}) {
+        List<Long> ids = new ArrayList<>();
+        for (Iterator<Map.Entry<Long, byte[]>> partition : storage.allNodesPartitioned(partitionCount)) {
+          assertTrue(partition.hasNext());
+          partition.forEachRemaining(entry -> ids.add(entry.getKey()));
+        }
+        assertEquals(1000, ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+          assertEquals(Long.valueOf(i * 3), ids.get(i));
+        }
+      }
+    }
+  }
+
+}
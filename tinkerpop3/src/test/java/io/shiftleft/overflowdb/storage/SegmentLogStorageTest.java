@@ -0,0 +1,136 @@
+package io.shiftleft.overflowdb.storage;
+
+import io.shiftleft.overflowdb.NodeFactory;
+import io.shiftleft.overflowdb.NodeRef;
+import io.shiftleft.overflowdb.OdbGraph;
+import io.shiftleft.overflowdb.OdbNode;
+import io.shiftleft.overflowdb.testdomains.gratefuldead.Artist;
+import io.shiftleft.overflowdb.testdomains.gratefuldead.GratefulDead;
+import io.shiftleft.overflowdb.testdomains.gratefuldead.Song;
+import org.apache.tinkerpop.gremlin.structure.Direction;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+import org.apache.tinkerpop.gremlin.util.iterator.IteratorUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SegmentLogStorageTest {
+  @Rule
+  public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void persistReadAndRemoveNodesAcrossRestarts() throws IOException {
+    final File directory = temporaryFolder.newFolder("overflowdb-segments");
+
+    try (OdbGraph graph = GratefulDead.newGraphWithData()) {
+      final List<OdbNode> nodes = allNodes(graph);
+      final NodeDeserializer nodeDeserializer = newNodeDeserializer(graph);
+      final NodeRef song = (NodeRef) graph.traversal().V().has(Song.NAME, "BERTHA").next();
+
+      try (SegmentLogStorage storage = SegmentLogStorage.createWithSpecificLocation(nodeDeserializer, directory)) {
+        storage.persistAll(nodes);
+        assertEquals(808, storage.nodeCount());
+        assertNodeEquals(song, storage.readNode(song.id));
+
+        storage.removeNode(song.id);
+        assertNull(storage.readNode(song.id));
+      }
+
+      try (SegmentLogStorage storage = SegmentLogStorage.createWithSpecificLocation(nodeDeserializer, directory)) {
+        assertEquals(807, storage.nodeCount());
+        assertNull(storage.readNode(song.id));
+
+        // batches are returned in the given order, regardless of the storage order
+        final NodeRef otherSong = (NodeRef) graph.traversal().V().has(Song.NAME, "HEY BO DIDDLEY").next();
+        final List<OdbNode> batch = storage.readNodes(new long[]{otherSong.id, song.id, nodes.get(0).ref.id});
+        assertEquals(3, batch.size());
+        assertNodeEquals(otherSong, batch.get(0));
+        assertNull(batch.get(1));
+        assertEquals(nodes.get(0).ref.id, batch.get(2).ref.id);
+
+        int labelCount = 0;
+        for (Iterator<Map.Entry<Long, String>> partition : storage.allNodeLabelsPartitioned(3)) {
+          while (partition.hasNext()) {
+            Map.Entry<Long, String> idAndLabel = partition.next();
+            assertEquals(graph.vertex(idAndLabel.getKey()).label(), idAndLabel.getValue());
+            labelCount++;
+          }
+        }
+        assertEquals(807, labelCount);
+
+        for (OdbNode node : nodes) {
+          if (node.ref.id != song.id) {
+            assertNodeEquals(node.ref, storage.readNode(node.ref.id));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void compactSegmentsWithDeadRecords() throws IOException {
+    final File directory = temporaryFolder.newFolder("overflowdb-segments");
+
+    try (OdbGraph graph = GratefulDead.newGraphWithData()) {
+      final List<OdbNode> nodes = allNodes(graph);
+      final NodeDeserializer nodeDeserializer = newNodeDeserializer(graph);
+      final int segmentSize = 16 * 1024;
+
+      final int segmentCountAfterFirstWrite;
+      try (SegmentLogStorage storage = SegmentLogStorage.createWithSpecificLocation(nodeDeserializer, directory, segmentSize)) {
+        storage.persistAll(nodes);
+        segmentCountAfterFirstWrite = storage.segmentCount();
+        assertTrue(segmentCountAfterFirstWrite > 1);
+
+        // overwrite everything a few times, i.e. the older segments are all dead
+        for (int i = 0; i < 3; i++) {
+          storage.persistAll(nodes);
+        }
+        storage.compact();
+        assertTrue(storage.segmentCount() <= segmentCountAfterFirstWrite + 1);
+        assertEquals(808, storage.nodeCount());
+      }
+
+      try (SegmentLogStorage storage = SegmentLogStorage.createWithSpecificLocation(nodeDeserializer, directory, segmentSize)) {
+        assertEquals(808, storage.nodeCount());
+        for (OdbNode node : nodes) {
+          assertNodeEquals(node.ref, storage.readNode(node.ref.id));
+        }
+      }
+    }
+  }
+
+  private List<OdbNode> allNodes(OdbGraph graph) {
+    final List<OdbNode> nodes = new ArrayList<>();
+    graph.vertices().forEachRemaining(vertex -> nodes.add(((NodeRef) vertex).get()));
+    return nodes;
+  }
+
+  private NodeDeserializer newNodeDeserializer(OdbGraph graph) {
+    final Map<String, NodeFactory> nodeFactoryByLabel = new HashMap<>();
+    nodeFactoryByLabel.put(Song.label, Song.factory);
+    nodeFactoryByLabel.put(Artist.label, Artist.factory);
+    return new NodeDeserializer(graph, nodeFactoryByLabel);
+  }
+
+  private void assertNodeEquals(Vertex expected, Vertex actual) {
+    assertEquals(expected.id(), actual.id());
+    assertEquals(expected.label(), actual.label());
+    assertEquals(IteratorUtils.count(expected.properties()), IteratorUtils.count(actual.properties()));
+    expected.properties().forEachRemaining(property -> assertEquals(property.value(), actual.value(property.key())));
+    assertEquals(IteratorUtils.list(expected.vertices(Direction.BOTH)), IteratorUtils.list(actual.vertices(Direction.BOTH)));
+  }
+
+}
@@ -2,6 +2,7 @@ package io.shiftleft.overflowdb.storage;
 
 import io.shiftleft.overflowdb.NodeFactory;
 import io.shiftleft.overflowdb.NodeRef;
+import io.shiftleft.overflowdb.OdbEdge;
 import io.shiftleft.overflowdb.OdbGraph;
 import io.shiftleft.overflowdb.testdomains.simple.TestEdge;
 import io.shiftleft.overflowdb.testdomains.simple.TestNode;
@@ -11,14 +12,26 @@ import org.apache.tinkerpop.gremlin.structure.Direction;
 import org.apache.tinkerpop.gremlin.structure.Edge;
 import org.apache.tinkerpop.gremlin.structure.T;
 import org.apache.tinkerpop.gremlin.structure.Vertex;
+import org.apache.tinkerpop.gremlin.util.iterator.IteratorUtils;
 import org.junit.Test;
+import org.msgpack.core.MessageBufferPacker;
+import org.msgpack.core.MessagePack;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class SerializerTest {
 
@@ -81,10 +94,272 @@ public class SerializerTest {
     }
   }
 
+  @Test
+  public void schemaAwareFormat() throws IOException {
+    try (OdbGraph graph = SimpleDomain.newGraph()) {
+      NodeDeserializer deserializer = newDeserializer(graph);
+      NodeSerializer serializer = new NodeSerializer(deserializer.labels());
+      TestNode testNode = (TestNode) graph.addVertex(T.label, TestNode.LABEL, TestNode.INT_PROPERTY, 42);
+
+      byte[] bytes = serializer.serialize(testNode.get());
+      assertEquals(NodeSerializer.FORMAT_HEADER, bytes[0]);
+      assertEquals(NodeSerializer.FORMAT_VERSION, bytes[1]);
+      // label is written as an ordinal
+      assertTrue(bytes.length < new NodeSerializer().serialize(testNode.get()).length);
+
+      TestNodeDb deserialized = (TestNodeDb) deserializer.deserialize(bytes);
+      assertEquals(testNode.id(), deserialized.id());
+      assertEquals(TestNode.LABEL, deserialized.label());
+      assertEquals(Integer.valueOf(42), deserialized.value(TestNode.INT_PROPERTY));
+      assertEquals(testNode.get().valueMap(), deserialized.valueMap());
+
+      // other format versions are rejected rather than misread
+      bytes[1] = NodeSerializer.FORMAT_VERSION - 1;
+      try {
+        deserializer.deserialize(bytes);
+        fail("expected an IOException");
+      } catch (IOException e) {
+        assertTrue(e.getMessage().contains("unsupported format version"));
+      }
+    }
+  }
+
+  @Test
+  public void stringDictionary() throws IOException {
+    try (OdbGraph graph = SimpleDomain.newGraph()) {
+      NodeDeserializer deserializer = newDeserializer(graph);
+      StringDictionary dictionary = new StringDictionary();
+      NodeSerializer serializer = new NodeSerializer(deserializer.labels(), Optional.of(dictionary));
+      deserializer.setStringDictionary(dictionary);
+      String value = "a string which is used by many nodes";
+      TestNode testNode1 = (TestNode) graph.addVertex(T.label, TestNode.LABEL, TestNode.STRING_PROPERTY, value);
+      TestNode testNode2 = (TestNode) graph.addVertex(T.label, TestNode.LABEL, TestNode.STRING_PROPERTY, new String(value),
+          TestNode.STRING_LIST_PROPERTY, Arrays.asList(value, "other"));
+
+      // strings are only admitted to the dictionary once they've been seen a few times
+      byte[] bytes1 = serializer.serialize(testNode1.get());
+      assertEquals(0, dictionary.size());
+      assertEquals(value, ((TestNodeDb) deserializer.deserialize(bytes1)).value(TestNode.STRING_PROPERTY));
+      serializer.serialize(testNode2.get());
+      assertEquals(1, dictionary.size());
+
+      bytes1 = serializer.serialize(testNode1.get());
+      byte[] bytes2 = serializer.serialize(testNode2.get());
+      assertEquals(1, dictionary.size());
+      assertTrue(bytes1.length < new NodeSerializer(deserializer.labels()).serialize(testNode1.get()).length - 30);
+
+      TestNodeDb deserialized1 = (TestNodeDb) deserializer.deserialize(bytes1);
+      TestNodeDb deserialized2 = (TestNodeDb) deserializer.deserialize(bytes2);
+      assertEquals(value, deserialized1.value(TestNode.STRING_PROPERTY));
+      assertEquals(testNode2.get().valueMap(), deserialized2.valueMap());
+      // all deserialized nodes share the same instance
+      assertSame(deserialized1.value(TestNode.STRING_PROPERTY), deserialized2.value(TestNode.STRING_PROPERTY));
+      assertSame(deserialized1.value(TestNode.STRING_PROPERTY), ((List) deserialized2.valueMap().get(TestNode.STRING_LIST_PROPERTY)).get(0));
+    }
+  }
+
+  @Test
+  public void primitiveArrays() throws IOException {
+    try (OdbGraph graph = SimpleDomain.newGraph()) {
+      NodeDeserializer deserializer = newDeserializer(graph);
+      StringDictionary dictionary = new StringDictionary();
+      NodeSerializer serializer = new NodeSerializer(deserializer.labels(), Optional.of(dictionary));
+      deserializer.setStringDictionary(dictionary);
+      int[] ints = new int[1000];
+      List<Integer> intList = new ArrayList<>();
+      for (int i = 0; i < ints.length; i++) {
+        ints[i] = i - 500;
+        intList.add(i - 500);
+      }
+      long[] longs = new long[]{Long.MIN_VALUE, -1, 0, 1, Long.MAX_VALUE};
+      double[] doubles = new double[]{Math.PI, -0.0, Double.MAX_VALUE, Double.NaN};
+      byte[] bytes = new byte[]{0, -1, 127};
+      String[] strings = new String[]{"one", null, "two"};
+      TestNode testNode = (TestNode) graph.addVertex(T.label, TestNode.LABEL,
+          TestNode.INT_ARRAY_PROPERTY, ints,
+          TestNode.LONG_ARRAY_PROPERTY, longs,
+          TestNode.DOUBLE_ARRAY_PROPERTY, doubles,
+          TestNode.BYTE_ARRAY_PROPERTY, bytes,
+          TestNode.STRING_ARRAY_PROPERTY, strings);
+      TestNode listNode = (TestNode) graph.addVertex(T.label, TestNode.LABEL, TestNode.INT_LIST_PROPERTY, intList);
+
+      byte[] serialized = serializer.serialize(testNode.get());
+      // bulk encoding is much more compact than the element-wise list encoding
+      assertTrue(serialized.length < serializer.serialize(listNode.get()).length);
+
+      TestNodeDb deserialized = (TestNodeDb) deserializer.deserialize(serialized);
+      assertArrayEquals(ints, deserialized.intArrayProperty());
+      assertArrayEquals(longs, deserialized.longArrayProperty());
+      assertArrayEquals(doubles, deserialized.doubleArrayProperty(), 0);
+      assertArrayEquals(bytes, deserialized.byteArrayProperty());
+      assertArrayEquals(strings, deserialized.stringArrayProperty());
+      assertArrayEquals(ints, (int[]) deserialized.value(TestNode.INT_ARRAY_PROPERTY));
+
+      // empty arrays
+      TestNode emptyNode = (TestNode) graph.addVertex(T.label, TestNode.LABEL, TestNode.DOUBLE_ARRAY_PROPERTY, new double[0]);
+      TestNodeDb deserializedEmpty = (TestNodeDb) deserializer.deserialize(serializer.serialize(emptyNode.get()));
+      assertEquals(0, deserializedEmpty.doubleArrayProperty().length);
+    }
+  }
+
+  @Test
+  public void reuseBuffersAcrossNodes() throws IOException {
+    try (OdbGraph graph = SimpleDomain.newGraph()) {
+      NodeDeserializer deserializer = newDeserializer(graph);
+      NodeSerializer serializer = new NodeSerializer(deserializer.labels());
+      TestNode bigNode = (TestNode) graph.addVertex(T.label, TestNode.LABEL);
+      for (int i = 0; i < 3000; i++) {
+        bigNode.addEdge(TestEdge.LABEL, graph.addVertex(T.label, TestNode.LABEL), TestEdge.LONG_PROPERTY, (long) i);
+      }
+      TestNode smallNode = (TestNode) graph.addVertex(T.label, TestNode.LABEL,
+          TestNode.STRING_PROPERTY, "small", TestNode.INT_LIST_PROPERTY, Arrays.asList(1, 2));
+
+      // serializer and deserializer reuse their buffers, the results must not share anything
+      byte[] bigBytes = serializer.serialize(bigNode.get());
+      byte[] smallBytes = serializer.serialize(smallNode.get());
+      byte[] bigBytesAgain = serializer.serialize(bigNode.get());
+      assertTrue(Arrays.equals(bigBytes, bigBytesAgain));
+
+      TestNodeDb big = (TestNodeDb) deserializer.deserialize(bigBytes);
+      TestNodeDb small = (TestNodeDb) deserializer.deserialize(smallBytes);
+      assertEquals(3000, IteratorUtils.count(big.edges(Direction.OUT, TestEdge.LABEL)));
+      assertEquals(smallNode.get().valueMap(), small.valueMap());
+      assertEquals(Arrays.asList(1, 2), small.value(TestNode.INT_LIST_PROPERTY));
+      // freshly deserialized nodes are identical to what's in storage
+      assertFalse(small.isModifiedSinceLastSerialization());
+    }
+  }
+
+  @Test
+  public void compactAdjacency() throws IOException {
+    try (OdbGraph graph = SimpleDomain.newGraph()) {
+      NodeDeserializer deserializer = newDeserializer(graph);
+      NodeSerializer serializer = new NodeSerializer(deserializer.labels());
+      TestNode hub = (TestNode) graph.addVertex(T.label, TestNode.LABEL);
+      List<Edge> outEdges = new ArrayList<>();
+      for (int i = 0; i < 1000; i++) {
+        TestNode other = (TestNode) graph.addVertex(T.label, TestNode.LABEL);
+        outEdges.add(hub.addEdge(TestEdge.LABEL, other, TestEdge.LONG_PROPERTY, (long) i));
+      }
+      Edge inEdge = graph.addVertex(T.label, TestNode.LABEL).addEdge(TestEdge.LABEL, hub);
+      graph.addVertex(T.label, TestNode.LABEL).addEdge(TestEdge.LABEL, hub);
+      outEdges.get(0).remove();
+      outEdges.get(500).remove();
+      inEdge.remove();
+
+      byte[] bytes = serializer.serialize(hub.get());
+      // ids and paired slots are written as small numbers (one byte each here), the unused capacity isn't written at all
+      assertTrue("serialized size: " + bytes.length, bytes.length < 1000 * (1 + 1 + 5) + 100);
+
+      TestNodeDb deserialized = (TestNodeDb) deserializer.deserialize(bytes);
+      int[] edgeOffsets = deserialized.getEdgeOffsets();
+      assertEquals(edgeOffsets[1] + edgeOffsets[3], deserialized.getAdjacentNodesWithProperties().length);
+
+      // holes keep their position, i.e. the remaining edges keep their offsets within the block
+      List<Edge> deserializedEdges = new ArrayList<>();
+      deserialized.edges(Direction.OUT, TestEdge.LABEL).forEachRemaining(deserializedEdges::add);
+      assertEquals(998, deserializedEdges.size());
+      for (Edge edge : deserializedEdges) {
+        OdbEdge original = (OdbEdge) outEdges.get((int) (long) edge.value(TestEdge.LONG_PROPERTY));
+        assertEquals(original.getOutBlockOffset(), ((OdbEdge) edge).getOutBlockOffset());
+        assertEquals(original.inVertex(), edge.inVertex());
+      }
+      assertEquals(1, IteratorUtils.count(deserialized.edges(Direction.IN, TestEdge.LABEL)));
+
+      // no free capacity after the out block, and the in block starts with a hole: adding an edge must not overwrite it
+      deserialized.addEdge(TestEdge.LABEL, graph.addVertex(T.label, TestNode.LABEL), TestEdge.LONG_PROPERTY, 1000L);
+      assertEquals(999, IteratorUtils.count(deserialized.edges(Direction.OUT, TestEdge.LABEL)));
+      assertEquals(1, IteratorUtils.count(deserialized.edges(Direction.IN, TestEdge.LABEL)));
+    }
+  }
+
+  @Test
+  public void lazyMaterialization() throws IOException {
+    try (OdbGraph graph = SimpleDomain.newGraph()) {
+      NodeDeserializer deserializer = newDeserializer(graph, true);
+      NodeSerializer serializer = new NodeSerializer(deserializer.labels());
+      List<Integer> bigList = new ArrayList<>();
+      for (int i = 0; i < 1000; i++) {
+        bigList.add(i);
+      }
+      TestNode testNode = (TestNode) graph.addVertex(T.label, TestNode.LABEL,
+          TestNode.STRING_PROPERTY, "StringValue", TestNode.INT_LIST_PROPERTY, bigList);
+      TestNode otherNode = (TestNode) graph.addVertex(T.label, TestNode.LABEL);
+      testNode.addEdge(TestEdge.LABEL, otherNode, TestEdge.LONG_PROPERTY, 99L);
+      byte[] bytes = serializer.serialize(testNode.get());
+
+      // adjacency and properties are materialized independently
+      TestNodeDb deserialized = (TestNodeDb) deserializer.deserialize(bytes);
+      assertFalse(deserialized.isPropertiesMaterialized());
+      assertFalse(deserialized.isAdjacencyMaterialized());
+      assertEquals(otherNode, deserialized.vertices(Direction.OUT, TestEdge.LABEL).next());
+      assertTrue(deserialized.isAdjacencyMaterialized());
+      assertFalse(deserialized.isPropertiesMaterialized());
+      assertEquals(bigList, deserialized.intListProperty());
+      assertTrue(deserialized.isPropertiesMaterialized());
+      assertFalse(deserialized.isModifiedSinceLastSerialization());
+
+      // properties first, via the tinkerpop api
+      deserialized = (TestNodeDb) deserializer.deserialize(ByteBuffer.wrap(bytes));
+      assertEquals("StringValue", deserialized.value(TestNode.STRING_PROPERTY));
+      assertFalse(deserialized.isAdjacencyMaterialized());
+
+      // modifications apply to the materialized sections, and serializing materializes all of them
+      deserialized = (TestNodeDb) deserializer.deserialize(bytes);
+      deserialized.property(TestNode.INT_LIST_PROPERTY, 1000);
+      deserialized = (TestNodeDb) deserializer.deserialize(serializer.serialize(deserialized));
+      assertEquals(1001, deserialized.intListProperty().size());
+      assertEquals("StringValue", deserialized.stringProperty());
+      Edge edge = deserialized.edges(Direction.OUT, TestEdge.LABEL).next();
+      assertEquals(99L, (long) edge.value(TestEdge.LONG_PROPERTY));
+
+      // the eager deserializer reads the same format
+      TestNodeDb eager = (TestNodeDb) newDeserializer(graph).deserialize(bytes);
+      assertTrue(eager.isPropertiesMaterialized());
+      assertTrue(eager.isAdjacencyMaterialized());
+      assertEquals(testNode.get().valueMap(), eager.valueMap());
+    }
+  }
+
+  @Test
+  public void deserializeUnversionedFormat() throws IOException {
+    try (OdbGraph graph = SimpleDomain.newGraph()) {
+      NodeDeserializer deserializer = newDeserializer(graph);
+      TestNode otherNode = (TestNode) graph.addVertex(T.label, TestNode.LABEL);
+
+      // format written by earlier versions: id, label, Map[key, [typeId, value]], edgeOffsets, Array[[typeId, value]]
+      MessageBufferPacker packer = MessagePack.newDefaultBufferPacker();
+      packer.packLong(42L);
+      packer.packString(TestNode.LABEL);
+      packer.packMapHeader(1);
+      packer.packString(TestNode.STRING_PROPERTY);
+      packer.packArrayHeader(2).packByte(ValueTypes.STRING.id).packString("StringValue");
+      int[] edgeOffsets = otherNode.get().getEdgeOffsets();
+      packer.packArrayHeader(edgeOffsets.length);
+      for (int i = 0; i < edgeOffsets.length; i++) {
+        packer.packInt(i == 1 ? 2 : 0); // one outgoing edge in the first block
+      }
+      packer.packArrayHeader(3);
+      packer.packArrayHeader(2).packByte(ValueTypes.NODE_REF.id).packLong((Long) otherNode.id());
+      packer.packArrayHeader(2).packByte(ValueTypes.LONG.id).packLong(99L);
+      packer.packArrayHeader(2).packByte(ValueTypes.UNKNOWN.id).packNil();
+
+      TestNodeDb deserialized = (TestNodeDb) deserializer.deserialize(packer.toByteArray());
+      assertEquals(42L, deserialized.id());
+      assertEquals("StringValue", deserialized.value(TestNode.STRING_PROPERTY));
+      assertEquals(otherNode, deserialized.vertices(Direction.OUT).next());
+      assertEquals(3, deserialized.getAdjacentNodesWithProperties().length);
+    }
+  }
+
   private NodeDeserializer newDeserializer(OdbGraph graph) {
+    return newDeserializer(graph, false);
+  }
+
+  private NodeDeserializer newDeserializer(OdbGraph graph, boolean lazyMaterialization) {
     Map<String, NodeFactory> vertexFactories = new HashMap();
     vertexFactories.put(TestNode.LABEL, TestNode.factory);
-    return new NodeDeserializer(graph, vertexFactories);
+    return new NodeDeserializer(graph, vertexFactories, lazyMaterialization);
   }
 
 }
@@ -0,0 +1,195 @@
+package io.shiftleft.overflowdb.storage;
+
+import io.shiftleft.overflowdb.OdbConfig;
+import io.shiftleft.overflowdb.OdbGraph;
+import io.shiftleft.overflowdb.testdomains.gratefuldead.FollowedBy;
+import io.shiftleft.overflowdb.testdomains.gratefuldead.GratefulDead;
+import io.shiftleft.overflowdb.testdomains.gratefuldead.Song;
+import org.apache.tinkerpop.gremlin.structure.T;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SnapshotTest {
+
+  @Test
+  public void saveAndOpenSnapshot() throws IOException {
+    final Path snapshot = newSnapshotFile();
+    final List<Object> songNames;
+    final Object maxId;
+    try (OdbGraph graph = GratefulDead.newGraphWithData()) {
+      songNames = graph.traversal().V().hasLabel(Song.label).values(Song.NAME).order().toList();
+      maxId = graph.traversal().V().id().max().next();
+      graph.saveSnapshot(snapshot);
+    }
+
+    for (boolean lazy : new boolean[]{false, true}) {
+      final OdbConfig config = OdbConfig.withoutOverflow().withLazySnapshotLoading(lazy).withSnapshotVerification(!lazy);
+      try (OdbGraph graph = GratefulDead.openSnapshot(snapshot, config)) {
+        if (lazy) {
+          assertEquals(0, graph.metrics().deserialization().count());
+        }
+        assertEquals(Long.valueOf(808), graph.traversal().V().count().next());
+        assertEquals(Long.valueOf(8049), graph.traversal().V().outE().count().next());
+        assertEquals(Long.valueOf(8049), graph.traversal().V().inE().count().next());
+        assertEquals(songNames, graph.traversal().V().hasLabel(Song.label).values(Song.NAME).order().toList());
+
+        // new nodes get new ids
+        final Vertex song = graph.addVertex(T.label, Song.label, Song.NAME, "new song");
+        assertNotEquals(maxId, song.id());
+        assertTrue((Long) song.id() > (Long) maxId);
+        song.addEdge(FollowedBy.LABEL, graph.traversal().V().hasLabel(Song.label).next());
+        assertEquals(Long.valueOf(8050), graph.traversal().V().outE().count().next());
+      }
+    }
+  }
+
+  @Test
+  public void overflowToStorageAfterOpeningSnapshot() throws IOException {
+    final Path snapshot = newSnapshotFile();
+    try (OdbGraph graph = GratefulDead.newGraphWithData()) {
+      graph.saveSnapshot(snapshot);
+    }
+
+    try (OdbGraph graph = GratefulDead.openSnapshot(snapshot, OdbConfig.withDefaults())) {
+      // save a snapshot of the snapshot, which reads all nodes again
+      final Path secondSnapshot = newSnapshotFile();
+      graph.saveSnapshot(secondSnapshot);
+      try (OdbGraph secondGraph = GratefulDead.openSnapshot(secondSnapshot, OdbConfig.withoutOverflow())) {
+        assertEquals(Long.valueOf(8049), secondGraph.traversal().V().outE().count().next());
+      }
+    }
+  }
+
+  @Test
+  public void detectCorruptSnapshot() throws IOException {
+    final Path snapshot = newSnapshotFile();
+    try (OdbGraph graph = GratefulDead.newGraphWithData()) {
+      graph.saveSnapshot(snapshot);
+    }
+    try (RandomAccessFile file = new RandomAccessFile(snapshot.toFile(), "rw")) {
+      file.seek(file.length() / 2);
+      final int b = file.read();
+      file.seek(file.length() / 2);
+      file.write(b ^ 0xFF);
+    }
+
+    try {
+      GratefulDead.openSnapshot(snapshot, OdbConfig.withoutOverflow());
+      fail("corrupt snapshot should have been detected");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("corrupt"));
+    }
+  }
+
+  @Test
+  public void splitLabelIntoSeveralSections() throws IOException {
+    final Path snapshot = newSnapshotFile();
+    final int maxSectionSize = 100;
+    try (SnapshotWriter writer = new SnapshotWriter(snapshot, 42, maxSectionSize)) {
+      writer.beginSection("a");
+      for (long id = 0; id < 10; id++) {
+        writer.writeNode(id, node(id));
+      }
+      writer.endSection();
+      writer.beginSection("b");
+      writer.writeNode(10, node(10));
+      assertEquals(6, writer.sectionCount());
+      writer.endSection();
+
+      try {
+        writer.writeNode(11, new byte[maxSectionSize]);
+        fail("node that doesn't fit into a section should have been rejected");
+      } catch (IllegalStateException e) {
+        // no section has been started
+      }
+      writer.beginSection("b");
+      try {
+        writer.writeNode(11, new byte[maxSectionSize]);
+        fail("node that doesn't fit into a section should have been rejected");
+      } catch (IOException e) {
+        assertTrue(e.getMessage(), e.getMessage().contains("too big"));
+      }
+    }
+
+    try (SnapshotReader reader = SnapshotReader.open(snapshot)) {
+      assertEquals(42, reader.currentId());
+      int nodeCount = 0;
+      for (SnapshotReader.Section section : reader.sections()) {
+        assertTrue(section.nodeCount() > 0);
+        for (int i = 0; i < section.nodeCount(); i++) {
+          assertEquals(section.id(i) == 10 ? "b" : "a", section.label);
+          assertArrayEquals(node(section.id(i)), bytes(section.node(i)));
+          nodeCount++;
+        }
+      }
+      assertEquals(11, nodeCount);
+      for (long id = 0; id <= 10; id++) {
+        assertArrayEquals(node(id), bytes(reader.readNode(id)));
+      }
+      assertNull(reader.readNode(11));
+    }
+  }
+
+  @Test
+  public void skipChecksumVerification() throws IOException {
+    final Path snapshot = newSnapshotFile();
+    try (OdbGraph graph = GratefulDead.newGraphWithData()) {
+      graph.saveSnapshot(snapshot);
+    }
+    // corrupt the checksum, which is followed by MAGIC
+    try (RandomAccessFile file = new RandomAccessFile(snapshot.toFile(), "rw")) {
+      file.seek(file.length() - 2 * Long.BYTES);
+      final int b = file.read();
+      file.seek(file.length() - 2 * Long.BYTES);
+      file.write(b ^ 0xFF);
+    }
+
+    try {
+      SnapshotReader.open(snapshot).close();
+      fail("corrupt checksum should have been detected");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("corrupt"));
+    }
+
+    final OdbConfig config = OdbConfig.withoutOverflow().withLazySnapshotLoading(true).withSnapshotVerification(false);
+    try (OdbGraph graph = GratefulDead.openSnapshot(snapshot, config)) {
+      assertEquals(0, graph.metrics().deserialization().count());
+      assertEquals(Long.valueOf(8049), graph.traversal().V().outE().count().next());
+    }
+  }
+
+  /** 30 bytes, i.e. two of them (plus their record headers) fit into a section of 100 bytes */
+  private static byte[] node(long id) {
+    final byte[] node = new byte[30];
+    for (int i = 0; i < node.length; i++) {
+      node[i] = (byte) (id + i);
+    }
+    return node;
+  }
+
+  private static byte[] bytes(ByteBuffer buffer) {
+    final byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    return bytes;
+  }
+
+  private Path newSnapshotFile() throws IOException {
+    final Path snapshot = Files.createTempFile("overflowdb", ".snapshot");
+    snapshot.toFile().deleteOnExit();
+    return snapshot;
+  }
+}
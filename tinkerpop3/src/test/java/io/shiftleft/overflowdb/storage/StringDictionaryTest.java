@@ -0,0 +1,62 @@
+package io.shiftleft.overflowdb.storage;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class StringDictionaryTest {
+
+  @Test
+  public void admitStringsAfterSeveralSightings() {
+    StringDictionary dictionary = new StringDictionary(3, 100);
+    assertEquals(-1, dictionary.idFor("one"));
+    assertEquals(-1, dictionary.idFor("one"));
+    assertEquals(0, dictionary.idFor("one"));
+    assertEquals(0, dictionary.idFor("one"));
+    assertEquals(1, dictionary.size());
+    assertEquals("one", dictionary.lookup(0));
+  }
+
+  @Test
+  public void uniqueStringsStayOut() {
+    StringDictionary dictionary = new StringDictionary();
+    for (int i = 0; i < 1_000_000; i++) {
+      dictionary.idFor("unique string " + i);
+    }
+    assertEquals(0, dictionary.size());
+
+    for (int i = 0; i < 3; i++) {
+      dictionary.idFor("repeated string");
+    }
+    assertEquals(1, dictionary.size());
+  }
+
+  @Test
+  public void doesNotGrowBeyondMaxSize() {
+    StringDictionary dictionary = new StringDictionary(1, 2);
+    assertEquals(0, dictionary.idFor("one"));
+    assertEquals(1, dictionary.idFor("two"));
+    assertEquals(-1, dictionary.idFor("three"));
+    assertEquals(0, dictionary.idFor("one"));
+    assertEquals(2, dictionary.size());
+  }
+
+  @Test
+  public void attachToPersistentStrings() {
+    Map<Integer, String> persistentStrings = new HashMap<>();
+    StringDictionary dictionary = new StringDictionary(1, 100);
+    dictionary.idFor("one");
+    dictionary.attach(persistentStrings);
+    dictionary.idFor("two");
+    assertEquals(2, persistentStrings.size());
+
+    StringDictionary restored = new StringDictionary();
+    restored.attach(persistentStrings);
+    assertEquals(1, restored.idFor("two"));
+    assertSame(persistentStrings.get(0), restored.lookup(0));
+  }
+}
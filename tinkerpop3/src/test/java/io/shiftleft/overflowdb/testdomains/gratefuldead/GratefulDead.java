@@ -5,6 +5,7 @@ import io.shiftleft.overflowdb.OdbGraph;
 import org.apache.tinkerpop.gremlin.structure.io.IoCore;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Arrays;
 
 public class GratefulDead {
@@ -20,6 +21,15 @@ public class GratefulDead {
     );
   }
 
+  public static OdbGraph openSnapshot(Path snapshot, OdbConfig config) throws IOException {
+    return OdbGraph.openSnapshot(
+        snapshot,
+        config,
+        Arrays.asList(Song.factory, Artist.factory),
+        Arrays.asList(FollowedBy.factory, SungBy.factory, WrittenBy.factory)
+    );
+  }
+
   public static OdbGraph newGraphWithData() throws IOException {
     OdbGraph graph = newGraph();
     loadData(graph);
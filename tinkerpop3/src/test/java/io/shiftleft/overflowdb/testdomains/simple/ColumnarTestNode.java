@@ -0,0 +1,40 @@
+package io.shiftleft.overflowdb.testdomains.simple;
+
+import io.shiftleft.overflowdb.NodeFactory;
+import io.shiftleft.overflowdb.NodeRef;
+import io.shiftleft.overflowdb.OdbGraph;
+
+/**
+ * like TestNode, but with the COLUMNAR adjacency layout
+ */
+public class ColumnarTestNode extends TestNode {
+  public static final String LABEL = "columnarTestNode";
+
+  public ColumnarTestNode(OdbGraph graph, long id) {
+    super(graph, id);
+  }
+
+  @Override
+  public String label() {
+    return ColumnarTestNode.LABEL;
+  }
+
+  public static NodeFactory<TestNodeDb> factory = new NodeFactory<TestNodeDb>() {
+
+    @Override
+    public String forLabel() {
+      return ColumnarTestNode.LABEL;
+    }
+
+    @Override
+    public TestNodeDb createNode(NodeRef<TestNodeDb> ref) {
+      return new ColumnarTestNodeDb(ref);
+    }
+
+    @Override
+    public ColumnarTestNode createNodeRef(OdbGraph graph, long id) {
+      return new ColumnarTestNode(graph, id);
+    }
+  };
+
+}
@@ -0,0 +1,29 @@
+package io.shiftleft.overflowdb.testdomains.simple;
+
+import io.shiftleft.overflowdb.NodeLayoutInformation;
+import io.shiftleft.overflowdb.NodeRef;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+public class ColumnarTestNodeDb extends TestNodeDb {
+  protected ColumnarTestNodeDb(NodeRef ref) {
+    super(ref);
+  }
+
+  @Override
+  public String label() {
+    return ColumnarTestNode.LABEL;
+  }
+
+  @Override
+  protected NodeLayoutInformation layoutInformation() {
+    return layoutInformation;
+  }
+
+  private static NodeLayoutInformation layoutInformation = new NodeLayoutInformation(
+      new HashSet<>(Arrays.asList(TestNode.STRING_PROPERTY, TestNode.INT_PROPERTY)),
+      Arrays.asList(TestEdge.layoutInformation),
+      Arrays.asList(TestEdge.layoutInformation),
+      NodeLayoutInformation.AdjacencyLayout.COLUMNAR);
+}
@@ -0,0 +1,40 @@
+package io.shiftleft.overflowdb.testdomains.simple;
+
+import io.shiftleft.overflowdb.NodeFactory;
+import io.shiftleft.overflowdb.NodeRef;
+import io.shiftleft.overflowdb.OdbGraph;
+
+/**
+ * like TestNode, but with the NODE_IDS adjacency layout
+ */
+public class NodeIdsTestNode extends TestNode {
+  public static final String LABEL = "nodeIdsTestNode";
+
+  public NodeIdsTestNode(OdbGraph graph, long id) {
+    super(graph, id);
+  }
+
+  @Override
+  public String label() {
+    return NodeIdsTestNode.LABEL;
+  }
+
+  public static NodeFactory<TestNodeDb> factory = new NodeFactory<TestNodeDb>() {
+
+    @Override
+    public String forLabel() {
+      return NodeIdsTestNode.LABEL;
+    }
+
+    @Override
+    public TestNodeDb createNode(NodeRef<TestNodeDb> ref) {
+      return new NodeIdsTestNodeDb(ref);
+    }
+
+    @Override
+    public NodeIdsTestNode createNodeRef(OdbGraph graph, long id) {
+      return new NodeIdsTestNode(graph, id);
+    }
+  };
+
+}
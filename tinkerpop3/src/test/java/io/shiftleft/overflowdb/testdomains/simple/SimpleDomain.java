@@ -13,7 +13,7 @@ public class SimpleDomain {
   public static OdbGraph newGraph(OdbConfig config) {
     return OdbGraph.open(
         config,
-        Arrays.asList(TestNode.factory),
+        Arrays.asList(TestNode.factory, NodeIdsTestNode.factory, ColumnarTestNode.factory),
         Arrays.asList(TestEdge.factory)
     );
   }
@@ -13,6 +13,11 @@ public class TestNode extends NodeRef<TestNodeDb> {
   public static final String INT_PROPERTY = "IntProperty";
   public static final String STRING_LIST_PROPERTY = "StringListProperty";
   public static final String INT_LIST_PROPERTY = "IntListProperty";
+  public static final String INT_ARRAY_PROPERTY = "IntArrayProperty";
+  public static final String LONG_ARRAY_PROPERTY = "LongArrayProperty";
+  public static final String DOUBLE_ARRAY_PROPERTY = "DoubleArrayProperty";
+  public static final String BYTE_ARRAY_PROPERTY = "ByteArrayProperty";
+  public static final String STRING_ARRAY_PROPERTY = "StringArrayProperty";
 
   public TestNode(OdbGraph graph, long id) {
     super(graph, id);
@@ -39,6 +44,26 @@ public class TestNode extends NodeRef<TestNodeDb> {
     return get().intListProperty();
   }
 
+  public int[] intArrayProperty() {
+    return get().intArrayProperty();
+  }
+
+  public long[] longArrayProperty() {
+    return get().longArrayProperty();
+  }
+
+  public double[] doubleArrayProperty() {
+    return get().doubleArrayProperty();
+  }
+
+  public byte[] byteArrayProperty() {
+    return get().byteArrayProperty();
+  }
+
+  public String[] stringArrayProperty() {
+    return get().stringArrayProperty();
+  }
+
   public static NodeFactory<TestNodeDb> factory = new NodeFactory<TestNodeDb>() {
 
     @Override
@@ -30,23 +30,63 @@ public class TestNodeDb extends OdbNode {
   private Integer _intProperty;
   private List<String> _stringListProperty;
   private List<Integer> _intListProperty;
+  private int[] _intArrayProperty;
+  private long[] _longArrayProperty;
+  private double[] _doubleArrayProperty;
+  private byte[] _byteArrayProperty;
+  private String[] _stringArrayProperty;
 
   public String stringProperty() {
+    loadProperties();
     return _stringProperty;
   }
 
   public Integer intProperty() {
+    loadProperties();
     return _intProperty;
   }
 
   public List<String> stringListProperty() {
+    loadProperties();
     return _stringListProperty;
   }
 
   public List<Integer> intListProperty() {
+    loadProperties();
     return _intListProperty;
   }
 
+  public int[] intArrayProperty() {
+    loadProperties();
+    return _intArrayProperty;
+  }
+
+  public long[] longArrayProperty() {
+    loadProperties();
+    return _longArrayProperty;
+  }
+
+  public double[] doubleArrayProperty() {
+    loadProperties();
+    return _doubleArrayProperty;
+  }
+
+  public byte[] byteArrayProperty() {
+    loadProperties();
+    return _byteArrayProperty;
+  }
+
+  public String[] stringArrayProperty() {
+    loadProperties();
+    return _stringArrayProperty;
+  }
+
+  /* all accessors call `loadProperties` first */
+  @Override
+  public boolean supportsLazyProperties() {
+    return true;
+  }
+
   @Override
   protected NodeLayoutInformation layoutInformation() {
     return layoutInformation;
@@ -55,6 +95,7 @@ public class TestNodeDb extends OdbNode {
   /* note: usage of `==` (pointer comparison) over `.equals` (String content comparison) is intentional for performance - use the statically defined strings */
   @Override
   protected <V> Iterator<VertexProperty<V>> specificProperties(String key) {
+    loadProperties();
     if (TestNode.STRING_PROPERTY.equals(key) && _stringProperty != null) {
       return IteratorUtils.of(new OdbNodeProperty(this, key, _stringProperty));
     } else if (key == TestNode.STRING_LIST_PROPERTY && _stringListProperty != null) {
@@ -63,6 +104,16 @@ public class TestNodeDb extends OdbNode {
       return IteratorUtils.of(new OdbNodeProperty(this, key, _intProperty));
     } else if (key == TestNode.INT_LIST_PROPERTY && _intListProperty != null) {
       return IteratorUtils.of(new OdbNodeProperty(this, key, _intListProperty));
+    } else if (key == TestNode.INT_ARRAY_PROPERTY && _intArrayProperty != null) {
+      return IteratorUtils.of(new OdbNodeProperty(this, key, _intArrayProperty));
+    } else if (key == TestNode.LONG_ARRAY_PROPERTY && _longArrayProperty != null) {
+      return IteratorUtils.of(new OdbNodeProperty(this, key, _longArrayProperty));
+    } else if (key == TestNode.DOUBLE_ARRAY_PROPERTY && _doubleArrayProperty != null) {
+      return IteratorUtils.of(new OdbNodeProperty(this, key, _doubleArrayProperty));
+    } else if (key == TestNode.BYTE_ARRAY_PROPERTY && _byteArrayProperty != null) {
+      return IteratorUtils.of(new OdbNodeProperty(this, key, _byteArrayProperty));
+    } else if (key == TestNode.STRING_ARRAY_PROPERTY && _stringArrayProperty != null) {
+      return IteratorUtils.of(new OdbNodeProperty(this, key, _stringArrayProperty));
     } else {
       return Collections.emptyIterator();
     }
@@ -70,11 +121,17 @@ public class TestNodeDb extends OdbNode {
 
   @Override
   public Map<String, Object> valueMap() {
+    loadProperties();
     Map<String, Object> properties = new HashMap<>();
     if (_stringProperty != null) properties.put(TestNode.STRING_PROPERTY, _stringProperty);
     if (_stringListProperty != null) properties.put(TestNode.STRING_LIST_PROPERTY, _stringListProperty);
     if (_intProperty != null) properties.put(TestNode.INT_PROPERTY, _intProperty);
     if (_intListProperty != null) properties.put(TestNode.INT_LIST_PROPERTY, _intListProperty);
+    if (_intArrayProperty != null) properties.put(TestNode.INT_ARRAY_PROPERTY, _intArrayProperty);
+    if (_longArrayProperty != null) properties.put(TestNode.LONG_ARRAY_PROPERTY, _longArrayProperty);
+    if (_doubleArrayProperty != null) properties.put(TestNode.DOUBLE_ARRAY_PROPERTY, _doubleArrayProperty);
+    if (_byteArrayProperty != null) properties.put(TestNode.BYTE_ARRAY_PROPERTY, _byteArrayProperty);
+    if (_stringArrayProperty != null) properties.put(TestNode.STRING_ARRAY_PROPERTY, _stringArrayProperty);
     return properties;
   }
 
@@ -99,6 +156,16 @@ public class TestNodeDb extends OdbNode {
         if (this._intListProperty == null) this._intListProperty = new ArrayList<>();
         this._intListProperty.add((Integer) value);
       }
+    } else if (TestNode.INT_ARRAY_PROPERTY.equals(key)) {
+      this._intArrayProperty = (int[]) value;
+    } else if (TestNode.LONG_ARRAY_PROPERTY.equals(key)) {
+      this._longArrayProperty = (long[]) value;
+    } else if (TestNode.DOUBLE_ARRAY_PROPERTY.equals(key)) {
+      this._doubleArrayProperty = (double[]) value;
+    } else if (TestNode.BYTE_ARRAY_PROPERTY.equals(key)) {
+      this._byteArrayProperty = (byte[]) value;
+    } else if (TestNode.STRING_ARRAY_PROPERTY.equals(key)) {
+      this._stringArrayProperty = (String[]) value;
     } else {
       throw new RuntimeException("property with key=" + key + " not (yet) supported by " + this.getClass().getName());
     }
@@ -115,13 +182,25 @@ public class TestNodeDb extends OdbNode {
       this._intProperty = null;
     } else if (TestNode.INT_LIST_PROPERTY.equals(key)) {
       this._intListProperty = null;
+    } else if (TestNode.INT_ARRAY_PROPERTY.equals(key)) {
+      this._intArrayProperty = null;
+    } else if (TestNode.LONG_ARRAY_PROPERTY.equals(key)) {
+      this._longArrayProperty = null;
+    } else if (TestNode.DOUBLE_ARRAY_PROPERTY.equals(key)) {
+      this._doubleArrayProperty = null;
+    } else if (TestNode.BYTE_ARRAY_PROPERTY.equals(key)) {
+      this._byteArrayProperty = null;
+    } else if (TestNode.STRING_ARRAY_PROPERTY.equals(key)) {
+      this._stringArrayProperty = null;
     } else {
       throw new RuntimeException("property with key=" + key + " not (yet) supported by " + this.getClass().getName());
     }
   }
 
   private static NodeLayoutInformation layoutInformation = new NodeLayoutInformation(
-      new HashSet<>(Arrays.asList(TestNode.STRING_PROPERTY, TestNode.INT_PROPERTY, TestNode.STRING_LIST_PROPERTY, TestNode.INT_LIST_PROPERTY)),
+      new HashSet<>(Arrays.asList(TestNode.STRING_PROPERTY, TestNode.INT_PROPERTY, TestNode.STRING_LIST_PROPERTY, TestNode.INT_LIST_PROPERTY,
+          TestNode.INT_ARRAY_PROPERTY, TestNode.LONG_ARRAY_PROPERTY, TestNode.DOUBLE_ARRAY_PROPERTY, TestNode.BYTE_ARRAY_PROPERTY,
+          TestNode.STRING_ARRAY_PROPERTY)),
       Arrays.asList(TestEdge.layoutInformation),
       Arrays.asList(TestEdge.layoutInformation));
 }